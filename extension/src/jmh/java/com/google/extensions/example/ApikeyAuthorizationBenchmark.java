@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.example;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.extensions.service.ServiceCalloutTools;
+import io.envoyproxy.envoy.service.ext_proc.v3.HttpHeaders;
+import io.envoyproxy.envoy.service.ext_proc.v3.ImmediateResponse;
+import io.envoyproxy.envoy.service.ext_proc.v3.ProcessingResponse;
+import io.envoyproxy.envoy.type.v3.HttpStatus;
+import io.envoyproxy.envoy.type.v3.StatusCode;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for the API key authorization hot path. Run with the GC profiler (the default
+ * jmh.args) to see the allocation rate per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class ApikeyAuthorizationBenchmark {
+  private static final int REQUEST_COUNT = 4096;
+
+  @Param({"10", "10000", "1000000"})
+  public int keyCount;
+
+  @Param({"1", "8"})
+  public int wildcardRoutes;
+
+  @Param({"HIT", "MISS", "MISSING_HEADER", "MIXED"})
+  public String mix;
+
+  @Param({"10000"})
+  public long decisionCacheSize;
+
+  @Param({"false", "true"})
+  public boolean offHeapKeys;
+
+  private ApikeyAuthorization authorizer;
+  private HttpHeaders[] requests;
+  private RequestHeaderView[] views;
+  private int next;
+
+  private static final HttpStatus FORBIDDEN =
+      HttpStatus.newBuilder().setCode(StatusCode.Forbidden).build();
+  private static final ImmutableMap<String, String> CHALLENGE =
+      ImmutableMap.of("WWW-Authenticate", "APIKey realm=\"example.com\"");
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    authorizer =
+        BenchmarkData.authorizer(
+            BenchmarkData.snapshot(keyCount, wildcardRoutes, offHeapKeys), decisionCacheSize);
+    BenchmarkData.Request[] generated =
+        BenchmarkData.requests(
+            REQUEST_COUNT, keyCount, wildcardRoutes, BenchmarkData.Mix.valueOf(mix), 42L);
+    requests = new HttpHeaders[REQUEST_COUNT];
+    views = new RequestHeaderView[REQUEST_COUNT];
+    for (int i = 0; i < REQUEST_COUNT; i++) {
+      requests[i] = generated[i].headers();
+      views[i] = RequestHeaderView.of(requests[i]);
+    }
+  }
+
+  private int nextIndex() {
+    int i = next;
+    next = (i + 1) & (REQUEST_COUNT - 1);
+    return i;
+  }
+
+  @Benchmark
+  public ProcessingResponse.Builder onRequestHeaders() {
+    ProcessingResponse.Builder builder = ProcessingResponse.newBuilder();
+    authorizer.onRequestHeaders(builder, requests[nextIndex()]);
+    return builder;
+  }
+
+  @Benchmark
+  public void checkProvidedApiKey(Blackhole bh) {
+    RequestHeaderView view = views[nextIndex()];
+    String apikey = view.apikey();
+    bh.consume(apikey == null ? null : authorizer.checkProvidedApiKey(view, apikey));
+  }
+
+  @Benchmark
+  public ImmediateResponse.Builder buildImmediateResponse() {
+    ImmediateResponse.Builder builder = ImmediateResponse.newBuilder();
+    ServiceCalloutTools.buildImmediateResponse(
+        builder, FORBIDDEN, CHALLENGE, null, "Invalid API Key\n");
+    return builder;
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.example;
+
+import com.google.protobuf.ByteString;
+import io.envoyproxy.envoy.config.core.v3.HeaderMap;
+import io.envoyproxy.envoy.config.core.v3.HeaderValue;
+import io.envoyproxy.envoy.service.ext_proc.v3.HttpHeaders;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/** Synthetic key sets and request headers for the benchmarks and the load generator. */
+final class BenchmarkData {
+
+  /** The kinds of request to generate. */
+  enum Mix {
+    /** A known key, on a route it is allowed. */
+    HIT,
+    /** An unknown key. */
+    MISS,
+    /** No Authorization header. */
+    MISSING_HEADER,
+    /** 80% hits, 15% misses, 5% with no Authorization header. */
+    MIXED
+  }
+
+  /** A generated request, and the kind of request it is. */
+  record Request(HttpHeaders headers, Mix kind) {
+    boolean shouldBeAllowed() {
+      return kind == Mix.HIT;
+    }
+  }
+
+  private BenchmarkData() {}
+
+  static String key(int i) {
+    return String.format("key-%08d-0000-4000-8000-000000000000", i);
+  }
+
+  /**
+   * Generates key rows. Each key gets a "/status" route, plus the given number of wildcard routes
+   * of the form "/v1/rN/*&#47;items/*".
+   */
+  static List<List<String>> rows(int keyCount, int wildcardRoutes) {
+    List<List<String>> rows = new ArrayList<>(keyCount * (wildcardRoutes + 1));
+    for (int i = 0; i < keyCount; i++) {
+      String key = key(i);
+      rows.add(List.of(key, "/status", "GET"));
+      for (int r = 0; r < wildcardRoutes; r++) {
+        rows.add(List.of(key, "/v1/r" + r + "/*/items/*", "GET,POST"));
+      }
+    }
+    return rows;
+  }
+
+  static KeySnapshot snapshot(int keyCount, int wildcardRoutes) {
+    return snapshot(keyCount, wildcardRoutes, false);
+  }
+
+  /** Generates a key snapshot, holding its keys on the heap or in an off-heap table. */
+  static KeySnapshot snapshot(int keyCount, int wildcardRoutes, boolean offHeap) {
+    KeySnapshot.Builder builder = new KeySnapshot.Builder(offHeap);
+    rows(keyCount, wildcardRoutes).forEach(builder::addRow);
+    return builder.build("startup");
+  }
+
+  /** Generates request headers, drawing the keys at random from the key set. */
+  static Request[] requests(int count, int keyCount, int wildcardRoutes, Mix mix, long seed) {
+    SplittableRandom random = new SplittableRandom(seed);
+    Request[] requests = new Request[count];
+    for (int i = 0; i < count; i++) {
+      Mix kind = mix;
+      if (mix == Mix.MIXED) {
+        int p = random.nextInt(100);
+        kind = p < 80 ? Mix.HIT : p < 95 ? Mix.MISS : Mix.MISSING_HEADER;
+      }
+      String path =
+          wildcardRoutes == 0 || random.nextBoolean()
+              ? "/status"
+              : String.format(
+                  "/v1/r%d/%d/items/%d?view=full",
+                  random.nextInt(wildcardRoutes), random.nextInt(1000), random.nextInt(1000));
+      String authorization =
+          switch (kind) {
+            case HIT -> "APIKEY " + key(random.nextInt(keyCount));
+            case MISS -> "APIKEY " + key(keyCount + random.nextInt(1_000_000));
+            default -> null;
+          };
+      requests[i] = new Request(headers("GET", path, authorization), kind);
+    }
+    return requests;
+  }
+
+  static HttpHeaders headers(String method, String path, String authorization) {
+    HeaderMap.Builder map = HeaderMap.newBuilder();
+    add(map, ":authority", "api.example.com");
+    add(map, ":method", method);
+    add(map, ":path", path);
+    add(map, ":scheme", "https");
+    add(map, "user-agent", "benchmark/1.0");
+    add(map, "accept", "application/json");
+    if (authorization != null) {
+      add(map, "authorization", authorization);
+    }
+    add(map, "x-forwarded-for", "10.0.0.1");
+    return HttpHeaders.newBuilder().setHeaders(map).setEndOfStream(true).build();
+  }
+
+  private static void add(HeaderMap.Builder map, String key, String value) {
+    map.addHeaders(
+        HeaderValue.newBuilder().setKey(key).setRawValue(ByteString.copyFromUtf8(value)));
+  }
+
+  /**
+   * Creates an authorizer over the given snapshot. The "apikeys" loader is registered on the
+   * CacheService first, so the authorizer's own registration, which would go to the Sheet, is
+   * ignored. No ports are bound until start() is called.
+   */
+  static ApikeyAuthorization authorizer(KeySnapshot snapshot, long decisionCacheSize) {
+    CacheService cache = new CacheService();
+    cache.registerLoader("apikeys", (_ignoredKey) -> snapshot, 60);
+    cache.whenReady("apikeys").join();
+    return new ApikeyAuthorization.Builder()
+        .withCacheService(cache)
+        .withDecisionCacheSize(decisionCacheSize)
+        .setCombinedHealthCheck(true)
+        .build();
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.example;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for reading from the CacheService, as the authorization check does on every request.
+ * With the GC profiler, gc.alloc.rate.norm should be zero for every read.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class CacheServiceBenchmark {
+  private CacheService cache;
+  private CacheService.Handle<KeySnapshot> handle;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    KeySnapshot snapshot = BenchmarkData.snapshot(1000, 1);
+    cache = new CacheService();
+    cache.registerLoader("apikeys", (_ignoredKey) -> snapshot, 60);
+    cache.whenReady("apikeys").join();
+    handle = cache.handle("apikeys", KeySnapshot.class);
+  }
+
+  @Benchmark
+  public Object getByKey() {
+    return cache.get("apikeys");
+  }
+
+  @Benchmark
+  public KeySnapshot getByKeyTyped() {
+    return cache.get("apikeys", KeySnapshot.class);
+  }
+
+  @Benchmark
+  public KeySnapshot getByHandle() {
+    return handle.get();
+  }
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.example;
+
+import com.google.extensions.service.ServiceCallout.ExecutorMode;
+import com.google.protobuf.ByteString;
+import io.envoyproxy.envoy.config.core.v3.HeaderMap;
+import io.envoyproxy.envoy.config.core.v3.HeaderValue;
+import io.envoyproxy.envoy.service.ext_proc.v3.ExternalProcessorGrpc;
+import io.envoyproxy.envoy.service.ext_proc.v3.HttpHeaders;
+import io.envoyproxy.envoy.service.ext_proc.v3.ProcessingRequest;
+import io.envoyproxy.envoy.service.ext_proc.v3.ProcessingResponse;
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.netty.GrpcSslContexts;
+import io.grpc.netty.NettyChannelBuilder;
+import io.grpc.stub.StreamObserver;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CalloutLoadGenerator drives an ext_proc callout end to end over gRPC, the way Envoy does: each
+ * simulated HTTP request opens a {@code process} stream, sends the request headers, optionally the
+ * response headers, and half-closes. It keeps a fixed number of streams in flight (a closed loop)
+ * and reports throughput, a latency histogram, the outcomes, and errors by gRPC status.
+ *
+ * <p>By default it starts an {@link ApikeyAuthorization} in the same JVM, over a synthetic key set,
+ * so that executor modes, thread counts and key-set sizes can be compared on one machine. Use
+ * {@code -target host:port} to drive a callout that is already running instead.
+ *
+ * <p>Options, each given as {@code -name value}:
+ *
+ * <pre>
+ *   -transport  inprocess | plaintext | tls     (plaintext)
+ *   -target     host:port of a running callout  (start one locally)
+ *   -streams    streams in flight               (64)
+ *   -channels   client connections              (4)
+ *   -duration   seconds to measure              (30)
+ *   -warmup     seconds before measuring        (10)
+ *   -responseHeaders  also send response headers on allowed requests (false)
+ *   -keys       keys in the synthetic key set   (10000)
+ *   -routes     wildcard routes per key         (1)
+ *   -mix        HIT | MISS | MISSING_HEADER | MIXED  (MIXED)
+ *   -executor   FIXED | VIRTUAL | DIRECT        (FIXED)
+ *   -threads    handler threads, for FIXED      (2)
+ *   -workers    Netty worker event loop threads (gRPC default)
+ *   -epoll      use the epoll transport         (false)
+ * </pre>
+ *
+ * <p>The TLS client trusts any certificate, since the bundled test certificate does not name the
+ * local host. Because the loop is closed, a stalled server also slows the offered load, so the
+ * reported latencies understate what an open-loop client would see under saturation.
+ */
+public final class CalloutLoadGenerator {
+  private static final int REQUEST_COUNT = 1 << 16;
+
+  private final Map<String, String> options;
+  private final BenchmarkData.Request[] requests;
+  private final boolean sendResponseHeaders;
+  private final AtomicLong nextRequest = new AtomicLong();
+
+  private volatile boolean running = true;
+  private volatile Stats stats = new Stats();
+
+  /** The counters for one phase of the run. */
+  private static final class Stats {
+    final LatencyHistogram latency = new LatencyHistogram();
+    final AtomicLong allowed = new AtomicLong();
+    final Map<String, AtomicLong> denied = new ConcurrentHashMap<>();
+    final AtomicLong unexpected = new AtomicLong();
+    final Map<Status.Code, AtomicLong> errors = new ConcurrentHashMap<>();
+  }
+
+  private CalloutLoadGenerator(Map<String, String> options) {
+    this.options = options;
+    this.sendResponseHeaders = Boolean.parseBoolean(option("responseHeaders", "false"));
+    this.requests =
+        BenchmarkData.requests(
+            REQUEST_COUNT,
+            intOption("keys", 10000),
+            intOption("routes", 1),
+            BenchmarkData.Mix.valueOf(option("mix", "MIXED")),
+            42L);
+  }
+
+  private String option(String name, String defaultValue) {
+    return options.getOrDefault(name, defaultValue);
+  }
+
+  private int intOption(String name, int defaultValue) {
+    return Integer.parseInt(option(name, String.valueOf(defaultValue)));
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new HashMap<>();
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      if (!args[i].startsWith("-")) {
+        throw new IllegalArgumentException("Expected an option name, got " + args[i]);
+      }
+      options.put(args[i].substring(1), args[i + 1]);
+    }
+    new CalloutLoadGenerator(options).run();
+    System.exit(0);
+  }
+
+  private void run() throws Exception {
+    String transport = option("transport", "plaintext");
+    String target = options.get("target");
+    String inProcessName = "callout-load-" + ProcessHandle.current().pid();
+    if (target == null) {
+      target = "localhost:" + startLocalCallout(transport, inProcessName);
+    }
+
+    List<ManagedChannel> channels = new ArrayList<>();
+    int channelCount = transport.equals("inprocess") ? 1 : intOption("channels", 4);
+    for (int i = 0; i < channelCount; i++) {
+      channels.add(openChannel(transport, target, inProcessName));
+    }
+
+    int streams = intOption("streams", 64);
+    CountDownLatch drained = new CountDownLatch(streams);
+    for (int i = 0; i < streams; i++) {
+      ExternalProcessorGrpc.ExternalProcessorStub stub =
+          ExternalProcessorGrpc.newStub(channels.get(i % channels.size()));
+      new Exchange(stub, drained).start();
+    }
+
+    int warmup = intOption("warmup", 10);
+    int duration = intOption("duration", 30);
+    System.out.printf(
+        "Driving %s with %d streams over %d %s channel(s): %ds warmup, %ds measured%n",
+        target, streams, channelCount, transport, warmup, duration);
+    TimeUnit.SECONDS.sleep(warmup);
+    stats = new Stats();
+    long start = System.nanoTime();
+    TimeUnit.SECONDS.sleep(duration);
+    Stats measured = stats;
+    long elapsedNanos = System.nanoTime() - start;
+    // requests still in flight are not counted
+    stats = new Stats();
+    running = false;
+    drained.await(30, TimeUnit.SECONDS);
+    report(measured, elapsedNanos);
+
+    for (ManagedChannel channel : channels) {
+      channel.shutdownNow();
+    }
+  }
+
+  /** Starts an ApikeyAuthorization over a synthetic key set, and returns the port to connect to. */
+  private int startLocalCallout(String transport, String inProcessName) throws Exception {
+    int tlsPort = freePort();
+    int plaintextPort = freePort();
+    ApikeyAuthorization.Builder builder = new ApikeyAuthorization.Builder();
+    CacheService cache = new CacheService();
+    KeySnapshot snapshot = BenchmarkData.snapshot(intOption("keys", 10000), intOption("routes", 1));
+    cache.registerLoader("apikeys", (_ignoredKey) -> snapshot, 60);
+    cache.whenReady("apikeys").join();
+    builder
+        .withCacheService(cache)
+        .setPort(tlsPort)
+        .setPlaintextPort(plaintextPort)
+        .setCombinedHealthCheck(true)
+        .setExecutorMode(ExecutorMode.valueOf(option("executor", "FIXED")))
+        .setServerThreadCount(intOption("threads", 2))
+        .setUseEpoll(Boolean.parseBoolean(option("epoll", "false")))
+        .setInProcessName(inProcessName);
+    if (options.containsKey("workers")) {
+      builder.setWorkerEventLoopThreads(intOption("workers", 0));
+    }
+    builder.build().start();
+    return transport.equals("tls") ? tlsPort : plaintextPort;
+  }
+
+  private static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+
+  private static ManagedChannel openChannel(String transport, String target, String inProcessName)
+      throws IOException {
+    return switch (transport) {
+      case "inprocess" -> InProcessChannelBuilder.forName(inProcessName).build();
+      case "plaintext" -> NettyChannelBuilder.forTarget(target).usePlaintext().build();
+      case "tls" ->
+          NettyChannelBuilder.forTarget(target)
+              .sslContext(
+                  GrpcSslContexts.forClient()
+                      .trustManager(InsecureTrustManagerFactory.INSTANCE)
+                      .build())
+              .build();
+      default -> throw new IllegalArgumentException("Unknown transport: " + transport);
+    };
+  }
+
+  private static final ProcessingRequest RESPONSE_HEADERS =
+      ProcessingRequest.newBuilder()
+          .setResponseHeaders(
+              HttpHeaders.newBuilder()
+                  .setHeaders(
+                      HeaderMap.newBuilder()
+                          .addHeaders(
+                              HeaderValue.newBuilder()
+                                  .setKey(":status")
+                                  .setRawValue(ByteString.copyFromUtf8("200")))
+                          .addHeaders(
+                              HeaderValue.newBuilder()
+                                  .setKey("content-type")
+                                  .setRawValue(ByteString.copyFromUtf8("application/json"))))
+                  .setEndOfStream(false))
+          .build();
+
+  /**
+   * One slot of concurrency: runs one simulated HTTP request after another until the run ends.
+   * Each request is a new stream, as Envoy opens a new stream for each HTTP request.
+   */
+  private final class Exchange implements StreamObserver<ProcessingResponse> {
+    private final ExternalProcessorGrpc.ExternalProcessorStub stub;
+    private final CountDownLatch drained;
+    private StreamObserver<ProcessingRequest> requestStream;
+    private BenchmarkData.Request request;
+    private boolean awaitingResponseHeaders;
+    private boolean outcomeRecorded;
+    private long startNanos;
+
+    Exchange(ExternalProcessorGrpc.ExternalProcessorStub stub, CountDownLatch drained) {
+      this.stub = stub;
+      this.drained = drained;
+    }
+
+    void start() {
+      if (!running) {
+        drained.countDown();
+        return;
+      }
+      request = requests[(int) (nextRequest.getAndIncrement() & (REQUEST_COUNT - 1))];
+      awaitingResponseHeaders = false;
+      outcomeRecorded = false;
+      startNanos = System.nanoTime();
+      requestStream = stub.process(this);
+      requestStream.onNext(
+          ProcessingRequest.newBuilder().setRequestHeaders(request.headers()).build());
+    }
+
+    @Override
+    public void onNext(ProcessingResponse response) {
+      Stats current = stats;
+      if (awaitingResponseHeaders) {
+        requestStream.onCompleted();
+        return;
+      }
+      boolean allowed = !response.hasImmediateResponse();
+      if (allowed) {
+        current.allowed.incrementAndGet();
+      } else {
+        current
+            .denied
+            .computeIfAbsent(
+                response.getImmediateResponse().getStatus().getCode().name(),
+                k -> new AtomicLong())
+            .incrementAndGet();
+      }
+      if (allowed != request.shouldBeAllowed()) {
+        current.unexpected.incrementAndGet();
+      }
+      outcomeRecorded = true;
+      if (allowed && sendResponseHeaders) {
+        awaitingResponseHeaders = true;
+        requestStream.onNext(RESPONSE_HEADERS);
+      } else {
+        requestStream.onCompleted();
+      }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      stats
+          .errors
+          .computeIfAbsent(Status.fromThrowable(t).getCode(), k -> new AtomicLong())
+          .incrementAndGet();
+      start();
+    }
+
+    @Override
+    public void onCompleted() {
+      Stats current = stats;
+      if (outcomeRecorded) {
+        current.latency.record(System.nanoTime() - startNanos);
+      } else {
+        current.unexpected.incrementAndGet();
+      }
+      start();
+    }
+  }
+
+  private static void report(Stats stats, long elapsedNanos) {
+    long completed = stats.latency.count();
+    double seconds = elapsedNanos / 1e9;
+    System.out.printf(
+        "completed  %d requests in %.1fs, %.0f requests/s%n",
+        completed, seconds, completed / seconds);
+    System.out.printf("allowed    %d%n", stats.allowed.get());
+    for (Map.Entry<String, AtomicLong> entry : new TreeMap<>(stats.denied).entrySet()) {
+      System.out.printf("denied     %d %s%n", entry.getValue().get(), entry.getKey());
+    }
+    System.out.printf("unexpected %d%n", stats.unexpected.get());
+    for (Map.Entry<Status.Code, AtomicLong> entry : new TreeMap<>(stats.errors).entrySet()) {
+      System.out.printf("errors     %d %s%n", entry.getValue().get(), entry.getKey());
+    }
+    stats.latency.printSummary(System.out);
+    stats.latency.printDistribution(System.out);
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.example;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A concurrent log-linear histogram of latencies in nanoseconds. Each power of two is split into
+ * 16 linear sub-buckets, so a recorded value is reported to within about 6%.
+ */
+final class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // enough for latencies up to 2^42 ns, about 73 minutes
+  private static final int MAX_EXPONENT = 42;
+
+  private final AtomicLongArray counts = new AtomicLongArray((MAX_EXPONENT + 1) * SUB_BUCKETS);
+  private final AtomicLong total = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  void record(long nanos) {
+    nanos = Math.max(0, nanos);
+    counts.incrementAndGet(indexOf(nanos));
+    total.incrementAndGet();
+    sum.addAndGet(nanos);
+    max.accumulateAndGet(nanos, Math::max);
+  }
+
+  long count() {
+    return total.get();
+  }
+
+  private static int indexOf(long nanos) {
+    if (nanos < SUB_BUCKETS) {
+      return (int) nanos;
+    }
+    int exponent = Math.min(63 - Long.numberOfLeadingZeros(nanos), MAX_EXPONENT);
+    int shift = exponent - SUB_BUCKET_BITS;
+    int sub = (int) Math.min((nanos >>> shift) - SUB_BUCKETS, SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+  }
+
+  /** The largest value that falls in the bucket at the given index. */
+  private static long upperBoundOf(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    int shift = exponent - SUB_BUCKET_BITS;
+    long sub = index % SUB_BUCKETS;
+    return ((SUB_BUCKETS + sub + 1) << shift) - 1;
+  }
+
+  /**
+   * Returns the latency at the given percentile.
+   *
+   * @param percentile between 0 and 100.
+   * @return the upper bound of the bucket holding the percentile, capped at the maximum recorded.
+   */
+  long percentile(double percentile) {
+    long n = total.get();
+    if (n == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(n * percentile / 100.0));
+    long seen = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(upperBoundOf(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  void printSummary(PrintStream out) {
+    long n = total.get();
+    out.printf(
+        "latency    mean %s  p50 %s  p90 %s  p99 %s  p99.9 %s  max %s%n",
+        format(n == 0 ? 0 : sum.get() / n),
+        format(percentile(50)),
+        format(percentile(90)),
+        format(percentile(99)),
+        format(percentile(99.9)),
+        format(max.get()));
+  }
+
+  /** Prints one line per non-empty power of two, with its count and the cumulative percentage. */
+  void printDistribution(PrintStream out) {
+    long n = total.get();
+    if (n == 0) {
+      return;
+    }
+    long cumulative = 0;
+    for (int from = 0; from < counts.length(); from += SUB_BUCKETS) {
+      long count = 0;
+      for (int i = from; i < from + SUB_BUCKETS; i++) {
+        count += counts.get(i);
+      }
+      if (count == 0) {
+        continue;
+      }
+      cumulative += count;
+      out.printf(
+          "  <= %10s  %12d  %7.3f%%  %s%n",
+          format(upperBoundOf(from + SUB_BUCKETS - 1)),
+          count,
+          100.0 * cumulative / n,
+          "#".repeat((int) Math.ceil(50.0 * count / n)));
+    }
+  }
+
+  static String format(long nanos) {
+    if (nanos < 10_000) {
+      return nanos + "ns";
+    }
+    if (nanos < 10_000_000) {
+      return String.format("%.1fus", nanos / 1e3);
+    }
+    return String.format("%.1fms", nanos / 1e6);
+  }
+}
@@ -16,6 +16,10 @@
 
 package com.google.extensions.example;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import com.google.common.collect.ImmutableMap;
 import com.google.extensions.service.ServiceCallout;
 import com.google.extensions.service.ServiceCalloutTools;
@@ -26,17 +30,16 @@ import io.envoyproxy.envoy.type.v3.StatusCode;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.time.Duration;
-import java.time.Instant;
-import java.time.temporal.ChronoUnit;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.Optional;
+import java.util.logging.Level;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 import utils.JarUtils;
+import utils.StructuredLogger;
 
 /**
  * Example callout server that checks an API Key provided in the Authorization header.
@@ -47,17 +50,25 @@ import utils.JarUtils;
 public class ApikeyAuthorization extends ServiceCallout {
 
   private static final Logger logger = Logger.getLogger(ApikeyAuthorization.class.getName());
-  private static final String ACL_RANGE = "Keys!A2:C102";
+  // For the per-request path: lazily built, and sampled for the high-volume events.
+  private static final StructuredLogger hotLog =
+      StructuredLogger.getLogger(ApikeyAuthorization.class.getName());
+  private static final int SAMPLE_RATE_ROUTINE = 1000;
+  private static final int SAMPLE_RATE_NEGATIVE = 100;
   private static final int APIKEYS_TTL_MINUTES = 2;
-  private static Map<String, Object> FIXED_KEYS;
+  private static final long DEFAULT_DECISION_CACHE_SIZE = 10_000;
+  private static final long REJECTED_KEYS_CACHE_SIZE = 1_000;
+  private static final Duration REJECTED_KEYS_LOG_INTERVAL = Duration.ofMinutes(1);
+  // Covers the time between looking a limiter up and admitting the request with it.
+  private static final Duration OFF_HEAP_RATE_LIMITER_SLACK = Duration.ofSeconds(1);
+  private static final KeySnapshot FIXED_KEYS;
 
   static {
     List<List<String>> keyrows =
-        (List<List<String>>)
-            List.of(
-                List.of("0b919f1d-e113-4d08-976c-a2e2d73f412c", "/status", "GET"),
-                List.of("44a39dc0-da72-42f3-8d8d-d6d01378fe4b", "/status", "GET"));
-    FIXED_KEYS = ImmutableMap.of("values", keyrows, "loaded", "startup");
+        List.of(
+            List.of("0b919f1d-e113-4d08-976c-a2e2d73f412c", "/status", "GET"),
+            List.of("44a39dc0-da72-42f3-8d8d-d6d01378fe4b", "/status", "GET"));
+    FIXED_KEYS = KeySnapshot.fromRows(keyrows, "startup");
 
     try (InputStream is =
         ApikeyAuthorization.class.getClassLoader().getResourceAsStream("logging.properties")) {
@@ -70,12 +81,44 @@ public class ApikeyAuthorization extends ServiceCallout {
   }
 
   private boolean verbose = false;
-  private final FetchService fetch;
+  // Where the keys come from; null to serve the fixed demo keys.
+  private final KeySource keySource;
   private final CacheService cacheService;
+  private final CacheService.Handle<KeySnapshot> apikeys;
+  private final DecisionCache decisionCache;
+  // Where each key set loaded is saved, for the next start; may be null.
+  private final KeySnapshotStore snapshotStore;
+  // Unknown keys rejected recently; used to log each one once per interval, not once per request.
+  private final Cache<String, Boolean> rejectedKeys =
+      Caffeine.newBuilder()
+          .maximumSize(REJECTED_KEYS_CACHE_SIZE)
+          .expireAfterWrite(REJECTED_KEYS_LOG_INTERVAL)
+          .build();
+  // The rate limiters of the keys in an off-heap snapshot, whose grants are shared between keys and
+  // so cannot hold them. A limiter's bucket is full again one period after it last admitted a
+  // request, so it is dropped only then, when a new limiter would be no different; there is no
+  // size bound, which would evict limiters that still count and let their keys start afresh.
+  private final Cache<String, KeyRateLimiter> offHeapRateLimiters =
+      Caffeine.newBuilder()
+          .expireAfter(
+              Expiry.accessing(
+                  (String key, KeyRateLimiter limiter) ->
+                      limiter.limit().period().plus(OFF_HEAP_RATE_LIMITER_SLACK)))
+          .build();
+  // Enforces the rate limits across all instances, instead of in each; null to enforce locally.
+  private final ClusterQuota clusterQuota;
 
   public static class Builder extends ServiceCallout.Builder<ApikeyAuthorization.Builder> {
     private CacheService cacheService;
     private FetchService fetchService;
+    private KeySource keySource;
+    private Long decisionCacheSize;
+    private Path snapshotFile;
+    private Path bakedSnapshotFile;
+    private Integer keyChunkRows;
+    private boolean offHeapKeys;
+    private QuotaStore quotaStore;
+    private Duration quotaSyncInterval;
 
     public Builder withCacheService(CacheService cacheService) {
       this.cacheService = cacheService;
@@ -87,6 +130,75 @@ public class ApikeyAuthorization extends ServiceCallout {
       return this;
     }
 
+    /**
+     * Sets the source of the API keys. Without one, the keys are read from the Sheet named by
+     * SHEET_ID, if there is a FetchService, or else the fixed demo keys are served.
+     */
+    public Builder withKeySource(KeySource keySource) {
+      this.keySource = keySource;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of (apikey, method, path) decisions to cache. Zero disables the
+     * decision cache.
+     */
+    public Builder withDecisionCacheSize(long decisionCacheSize) {
+      this.decisionCacheSize = decisionCacheSize;
+      return this;
+    }
+
+    /**
+     * Sets a file to save each key set loaded to. At startup, the keys saved there are served
+     * until the key source has been read again.
+     */
+    public Builder withSnapshotFile(Path snapshotFile) {
+      this.snapshotFile = snapshotFile;
+      return this;
+    }
+
+    /**
+     * Sets a read-only snapshot file, such as one shipped in the container image, to serve at
+     * startup when there is no saved snapshot.
+     */
+    public Builder withBakedSnapshotFile(Path bakedSnapshotFile) {
+      this.bakedSnapshotFile = bakedSnapshotFile;
+      return this;
+    }
+
+    /**
+     * Sets the number of Sheet rows to fetch in each request. The chunks of a large key sheet are
+     * fetched concurrently.
+     */
+    public Builder withKeyChunkRows(int keyChunkRows) {
+      this.keyChunkRows = keyChunkRows;
+      return this;
+    }
+
+    /**
+     * Holds the keys loaded from the Sheet in an off-heap table, for key sets of millions of keys.
+     * Off-heap key sets are not saved to the snapshot file.
+     */
+    public Builder withOffHeapKeys(boolean offHeapKeys) {
+      this.offHeapKeys = offHeapKeys;
+      return this;
+    }
+
+    /**
+     * Enforces the rate limits of the keys as quotas shared by all instances, counted in the given
+     * store. Without a store, each instance enforces the limits on its own.
+     */
+    public Builder withQuotaStore(QuotaStore quotaStore) {
+      this.quotaStore = quotaStore;
+      return this;
+    }
+
+    /** Sets how often the shared quota counts are synced with the quota store. */
+    public Builder withQuotaSyncInterval(Duration quotaSyncInterval) {
+      this.quotaSyncInterval = quotaSyncInterval;
+      return this;
+    }
+
     @Override
     public ApikeyAuthorization build() {
       return new ApikeyAuthorization(this);
@@ -102,185 +214,310 @@ public class ApikeyAuthorization extends ServiceCallout {
     super(builder);
     verbose = "true".equalsIgnoreCase(System.getenv("VERBOSE"));
     this.cacheService = builder.cacheService;
-    this.fetch = builder.fetchService;
+    String sheetId = System.getenv("SHEET_ID");
+    if (builder.keySource != null) {
+      this.keySource = builder.keySource;
+    } else if (sheetId != null && builder.fetchService != null) {
+      this.keySource =
+          new SheetsKeySource(
+              builder.fetchService,
+              sheetId,
+              Optional.ofNullable(builder.keyChunkRows).orElse(SheetsKeySource.DEFAULT_CHUNK_ROWS),
+              builder.offHeapKeys);
+    } else {
+      this.keySource = null;
+    }
+    this.snapshotStore =
+        builder.snapshotFile != null ? new KeySnapshotStore(builder.snapshotFile) : null;
+    if (snapshotStore != null && builder.offHeapKeys) {
+      logger.warning("Off-heap keys are not saved to " + snapshotStore.path());
+    }
+    String[] dependsOn = keySource != null ? keySource.dependsOn() : new String[0];
     this.cacheService.registerLoader(
-        "apikeys", (_ignoredKey) -> this.loadApikeys(_ignoredKey), APIKEYS_TTL_MINUTES);
+        "apikeys", (_ignoredKey) -> this.loadApikeys(_ignoredKey), APIKEYS_TTL_MINUTES, dependsOn);
+    this.apikeys = this.cacheService.handle("apikeys", KeySnapshot.class);
+    long decisionCacheSize =
+        Optional.ofNullable(builder.decisionCacheSize).orElse(DEFAULT_DECISION_CACHE_SIZE);
+    if (decisionCacheSize > 0) {
+      this.decisionCache = new DecisionCache(decisionCacheSize);
+      this.cacheService.addListener("apikeys", decisionCache::onSnapshot);
+    } else {
+      this.decisionCache = null;
+    }
+    this.clusterQuota =
+        builder.quotaStore != null
+            ? new ClusterQuota(
+                builder.quotaStore,
+                Optional.ofNullable(builder.quotaSyncInterval)
+                    .orElse(ClusterQuota.DEFAULT_SYNC_INTERVAL))
+            : null;
+    seedFromSavedSnapshot(builder.bakedSnapshotFile);
+    if (keySource != null) {
+      keySource.watch(() -> cacheService.refreshNow("apikeys"));
+    }
+  }
+
+  /**
+   * Serves the saved key snapshot, or else the baked-in one, until the first load from the key
+   * source completes. The load still runs, and revalidates the keys.
+   */
+  private void seedFromSavedSnapshot(Path bakedSnapshotFile) {
+    List<KeySnapshotStore> stores = new ArrayList<>(2);
+    if (snapshotStore != null) {
+      stores.add(snapshotStore);
+    }
+    if (bakedSnapshotFile != null) {
+      stores.add(new KeySnapshotStore(bakedSnapshotFile));
+    }
+    for (KeySnapshotStore store : stores) {
+      try {
+        KeySnapshot snapshot = store.load();
+        if (snapshot == null) {
+          continue;
+        }
+        if (cacheService.seed("apikeys", snapshot)) {
+          logger.info(
+              String.format(
+                  "Serving %d keys from %s, loaded at %s, until the keys are read",
+                  snapshot.keyCount(), store.path(), snapshot.loadedAt()));
+        }
+        return;
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Cannot read the key snapshot " + store.path(), e);
+      }
+    }
   }
 
-  private Object loadApikeys(String _ignoredKey) {
+  private void saveSnapshot(KeySnapshot snapshot) {
+    // An off-heap snapshot holds only digests of its keys, which cannot be saved.
+    if (snapshotStore == null || snapshot.isOffHeap()) {
+      return;
+    }
+    try {
+      snapshotStore.save(snapshot);
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Cannot save the key snapshot to " + snapshotStore.path(), e);
+    }
+  }
+
+  /**
+   * Loads the keys from the key source, or, with no key source, returns the fixed demo keys.
+   *
+   * @throws RuntimeException if the keys cannot be read. The CacheService keeps the last good key
+   *     set and retries, rather than replacing the real keys with the demo keys.
+   */
+  private KeySnapshot loadApikeys(String _ignoredKey) {
     logger.info("> loadApikeys");
-    String SHEET_ID = System.getenv("SHEET_ID");
-    if (SHEET_ID == null) {
-      logger.info("No SHEET_ID");
+    if (keySource == null) {
+      logger.info("No key source");
       return FIXED_KEYS;
     }
     try {
-      String uri =
+      long start = System.nanoTime();
+      KeySnapshot current = cacheService.get("apikeys", KeySnapshot.class);
+      KeySnapshot snapshot = keySource.load(current);
+      if (snapshot == current) {
+        // The keys have not changed since the last load.
+        return snapshot;
+      }
+      logger.info(
           String.format(
-              "https://sheets.googleapis.com/v4/spreadsheets/%s/values/%s", SHEET_ID, ACL_RANGE);
-      logger.info(String.format("fetching %s", uri));
-      var map = fetch.get(uri);
-      logger.info(String.format("keys loaded from %s", uri));
-      map.put("loaded", Instant.now().toString());
-      return map;
+              "keys loaded from %s in %d ms (%d rows, %d keys)",
+              keySource.describe(),
+              (System.nanoTime() - start) / 1_000_000,
+              snapshot.rowCount(),
+              snapshot.keyCount()));
+      saveSnapshot(snapshot);
+      return snapshot;
+    } catch (InterruptedException exc1) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while fetching keys.", exc1);
     } catch (java.lang.Exception exc1) {
-      logger.severe("Cannot fetch keys.");
-      exc1.printStackTrace();
+      throw new RuntimeException("Cannot fetch keys.", exc1);
     }
-    return FIXED_KEYS;
   }
 
   private ApikeyStatus verifyApiKey(HttpHeaders requestHeaders) {
     if (verbose) {
       logHeaders(requestHeaders);
     }
-    String apikey =
-        requestHeaders.getHeaders().getHeadersList().stream()
-            .filter(header -> "Authorization".equalsIgnoreCase(header.getKey()))
-            .map(header -> new String(header.getRawValue().toByteArray(), StandardCharsets.UTF_8))
-            .findFirst()
-            .map(
-                authHeader -> {
-                  String[] parts = authHeader.split(" ");
-                  if (parts.length == 2 && "APIKEY".equalsIgnoreCase(parts[0])) {
-                    return parts[1];
-                  } else {
-                    logger.info("Authorization header format is invalid.");
-                    return null;
-                  }
-                })
-            .orElse(null);
-
+    RequestHeaderView headers = RequestHeaderView.of(requestHeaders);
+    String apikey = headers.apikey();
     if (apikey == null) {
+      if (headers.hasAuthorization()) {
+        hotLog.sampled(
+            Level.INFO,
+            "authorization-invalid",
+            SAMPLE_RATE_NEGATIVE,
+            () -> "Authorization header format is invalid.");
+      }
       return ApikeyStatus.keyMissing();
     }
 
-    return checkProvidedApiKey(requestHeaders, apikey);
-  }
-
-  private static void showMap(Map<String, Object> map) {
-    System.out.printf("Map:\n");
-    for (Map.Entry<String, Object> entry : map.entrySet()) {
-      String key = entry.getKey();
-      Object value = entry.getValue();
-      System.out.printf("%s => (%s) %s\n", key, value.getClass().toString(), value.toString());
-      if (key.equals("values")) {
-        @SuppressWarnings("unchecked")
-        List<Object> values = (List<Object>) value;
-        IntStream.range(0, values.size())
-            .boxed()
-            .forEach(
-                ix -> {
-                  Object v = values.get(ix);
-                  System.out.printf(
-                      "   %d => (%s) %s\n", ix, v.getClass().toString(), v.toString());
-                });
-      }
-    }
+    return checkProvidedApiKey(headers, apikey);
   }
 
-  private ApikeyStatus checkProvidedApiKey(HttpHeaders headers, String apikey) {
-    @SuppressWarnings("unchecked")
-    Map<String, Object> map = (Map<String, Object>) this.cacheService.get("apikeys");
-    if (map == null) {
-      logger.info("Could not load apikeys from cache.");
+  ApikeyStatus checkProvidedApiKey(RequestHeaderView headers, String apikey) {
+    KeySnapshot snapshot = apikeys.get();
+    if (snapshot == null) {
+      hotLog.sampled(
+          Level.INFO,
+          "apikeys-not-loaded",
+          SAMPLE_RATE_NEGATIVE,
+          () -> "Could not load apikeys from cache.");
       return ApikeyStatus.invalid(apikey);
     }
 
-    String loadedAt = (String) map.get("loaded");
-    if (loadedAt != null) {
-      if ("startup".equals(loadedAt)) {
-        logger.info("API keys were loaded at startup (no expiry).");
-      } else {
-        Long remainingSeconds = calculateRemainingSeconds(loadedAt);
-        if (remainingSeconds != null) {
-          if (remainingSeconds < 0) {
-            logger.info(
-                String.format(
-                    "API keys loaded at %s expired %d seconds ago",
-                    loadedAt, (0 - remainingSeconds)));
-          } else {
-            logger.info(
-                String.format(
-                    "API keys loaded at %s, TTL remaining: %d seconds.",
-                    loadedAt, remainingSeconds));
-          }
-        }
+    KeySnapshot.KeyGrants offHeapGrants = null;
+    if (snapshot.isOffHeap()) {
+      // The table lookup is exact, and as cheap as a filter, and hashes the raw header bytes.
+      offHeapGrants = snapshot.grantsFor(headers.apikeyBytes());
+      if (offHeapGrants == null) {
+        return rejectUnknownKey(apikey);
       }
-    } else {
-      showMap(map);
-      logger.info("no key indicating when API keys were loaded.");
+    } else if (!snapshot.mightContain(apikey)) {
+      return rejectUnknownKey(apikey);
     }
 
-    @SuppressWarnings("unchecked")
-    List<List<String>> knownkeys = (List<List<String>>) map.get("values");
-    if (knownkeys == null) {
-      logger.info("No API keys available.");
+    hotLog.sampled(
+        Level.INFO, "apikeys-age", SAMPLE_RATE_ROUTINE, () -> describeSnapshotAge(snapshot));
+
+    String requestedPath = headers.path();
+    String requestedMethod = headers.method();
+    if (requestedPath == null || requestedMethod == null) {
+      hotLog.sampled(
+          Level.WARNING,
+          "path-method-missing",
+          SAMPLE_RATE_NEGATIVE,
+          () -> "Cannot find path and/or method");
       return ApikeyStatus.invalid(apikey);
     }
+    // Routes ignore the query string, and so does the decision cache key, so that requests with
+    // unique query strings cannot fill the cache.
+    requestedPath = RouteMatcher.withoutQuery(requestedPath);
+
+    ApikeyStatus status;
+    if (offHeapGrants != null) {
+      KeySnapshot.KeyGrants grants = offHeapGrants;
+      status =
+          decisionCache != null
+              ? decisionCache.get(
+                  snapshot,
+                  apikey,
+                  requestedMethod,
+                  requestedPath,
+                  (s, key, method, path) -> decide(grants, key, method, path))
+              : decide(grants, apikey, requestedMethod, requestedPath);
+    } else if (decisionCache != null) {
+      status = decisionCache.get(snapshot, apikey, requestedMethod, requestedPath, this::decide);
+    } else {
+      status = decide(snapshot, apikey, requestedMethod, requestedPath);
+    }
+    return status.isValid() ? enforceRateLimit(status, offHeapGrants) : status;
+  }
 
-    List<List<String>> matchingKeyEntries =
-        knownkeys.stream()
-            .filter(keyrow -> !keyrow.isEmpty() && apikey.equals(keyrow.get(0)))
-            .collect(Collectors.toList());
+  /**
+   * Admits a valid request if its key is within its rate limit, or turns it away with the time to
+   * wait. The limiter comes with the decision, or, for an off-heap snapshot, from the limiters of
+   * recently used keys. With a cluster quota, the limit is enforced across all instances instead.
+   */
+  private ApikeyStatus enforceRateLimit(ApikeyStatus status, KeySnapshot.KeyGrants offHeapGrants) {
+    KeyRateLimiter limiter = status.rateLimiter();
+    RateLimit limit = limiter != null ? limiter.limit() : null;
+    if (limit == null && offHeapGrants != null) {
+      limit = offHeapGrants.rateLimit();
+    }
+    if (limit == null) {
+      return status;
+    }
+    long waitNanos;
+    if (clusterQuota != null) {
+      waitNanos = clusterQuota.tryAcquire(status.apikey(), limit);
+    } else {
+      if (limiter == null) {
+        limiter = offHeapRateLimiter(status.apikey(), limit);
+      }
+      waitNanos = limiter.tryAcquire();
+    }
+    if (waitNanos == 0) {
+      return status;
+    }
+    RateLimit exceeded = limit;
+    hotLog.sampled(
+        Level.INFO,
+        "apikey-rate-limited",
+        SAMPLE_RATE_NEGATIVE,
+        () -> String.format("API Key exceeded its rate limit of %s", exceeded));
+    return ApikeyStatus.rateLimited(status.apikey(), KeyRateLimiter.retryAfterSeconds(waitNanos));
+  }
 
-    if (matchingKeyEntries.size() == 0) {
-      logger.info(String.format("Did not find that API Key (%s).", apikey));
-      return ApikeyStatus.invalid(apikey);
+  private KeyRateLimiter offHeapRateLimiter(String apikey, RateLimit limit) {
+    KeyRateLimiter limiter = offHeapRateLimiters.getIfPresent(apikey);
+    if (limiter != null && limiter.limit().equals(limit)) {
+      return limiter;
     }
+    return offHeapRateLimiters
+        .asMap()
+        .compute(
+            apikey,
+            (key, current) ->
+                current != null && current.limit().equals(limit)
+                    ? current
+                    : new KeyRateLimiter(limit));
+  }
 
-    String requestedPath = getHeader(headers, ":path");
-    String requestedMethod = getHeader(headers, ":method");
-    if (requestedPath == null || requestedMethod == null) {
-      logger.warning("Cannot find path and/or method");
-      return ApikeyStatus.invalid(apikey);
+  private ApikeyStatus rejectUnknownKey(String apikey) {
+    if (rejectedKeys.asMap().putIfAbsent(apikey, Boolean.TRUE) == null) {
+      hotLog.info("apikey-unknown", () -> String.format("Did not find that API Key (%s).", apikey));
     }
+    return ApikeyStatus.invalid(apikey);
+  }
 
-    boolean isAuthorized =
-        matchingKeyEntries.stream()
-            .anyMatch(
-                keyrow -> {
-                  if (keyrow.size() >= 3) {
-                    String allowedPath = keyrow.get(1);
-                    String allowedMethods = keyrow.get(2);
-                    boolean methodMatch =
-                        Arrays.stream(allowedMethods.split(","))
-                            .map(String::trim)
-                            .anyMatch(m -> m.equalsIgnoreCase(requestedMethod));
-                    String pathRegex = "^" + allowedPath.replace("*", "[^/]+") + "$";
-                    return requestedPath.matches(pathRegex) && methodMatch;
-                  }
-                  return false;
-                });
+  private ApikeyStatus decide(
+      KeySnapshot snapshot, String apikey, String requestedMethod, String requestedPath) {
+    return decide(snapshot.grantsFor(apikey), apikey, requestedMethod, requestedPath);
+  }
 
-    if (isAuthorized) {
-      return ApikeyStatus.valid(apikey);
+  private ApikeyStatus decide(
+      KeySnapshot.KeyGrants grants, String apikey, String requestedMethod, String requestedPath) {
+    if (grants == null) {
+      // A false positive of the filter, or a key revoked since the filter was built.
+      return rejectUnknownKey(apikey);
     }
 
-    logger.info(
-        String.format(
-            "API Key is valid, but not authorized for %s %s", requestedMethod, requestedPath));
+    if (grants.allows(requestedMethod, requestedPath)) {
+      return ApikeyStatus.valid(apikey, grants.rateLimiter());
+    }
+
+    hotLog.info(
+        "apikey-no-match",
+        () ->
+            String.format(
+                "API Key is valid, but not authorized for %s %s", requestedMethod, requestedPath));
     return ApikeyStatus.noMatch(apikey);
   }
 
-  private static Long calculateRemainingSeconds(String loadedAt) {
-    try {
-      Instant loadedInstant = Instant.parse(loadedAt);
-      int ttlMinutes = APIKEYS_TTL_MINUTES;
-      Instant expiryTime = loadedInstant.plus(ttlMinutes, ChronoUnit.MINUTES);
-      return Duration.between(Instant.now(), expiryTime).toSeconds();
-    } catch (java.time.format.DateTimeParseException e) {
-      logger.warning(String.format("Could not parse load time for API keys: '%s'", loadedAt));
-      return null;
-    }
+  /**
+   * Returns the hit and miss statistics of the decision cache.
+   *
+   * @return the statistics, or null if the decision cache is disabled.
+   */
+  public CacheStats decisionCacheStats() {
+    return decisionCache == null ? null : decisionCache.stats();
   }
 
-  private static String getHeader(HttpHeaders headers, String headerName) {
-    return headers.getHeaders().getHeadersList().stream()
-        .filter(header -> headerName.equalsIgnoreCase(header.getKey()))
-        .map(header -> new String(header.getRawValue().toByteArray(), StandardCharsets.UTF_8))
-        .findFirst()
-        .orElse(null);
+  private String describeSnapshotAge(KeySnapshot snapshot) {
+    String loadedAt = snapshot.loadedAt();
+    if (loadedAt == null) {
+      return "no key indicating when API keys were loaded.";
+    }
+    if ("startup".equals(loadedAt)) {
+      return "API keys were loaded at startup (no expiry).";
+    }
+    // A refresh that finds the Sheet unchanged keeps the snapshot, and its load time.
+    return String.format(
+        "API keys loaded at %s, %s.",
+        loadedAt, apikeys.isExpired() ? "and past their TTL" : "and checked within their TTL");
   }
 
   private static String maybeMaskHeader(String key, String value) {
@@ -306,6 +543,21 @@ public class ApikeyAuthorization extends ServiceCallout {
             });
   }
 
+  /** Ready once the API keys have loaded. */
+  @Override
+  protected boolean isReady() {
+    return apikeys.isLoaded();
+  }
+
+  /**
+   * The API key check works only on in-memory data: key refreshes run on the CacheService
+   * executor, and logging is asynchronous. So the handlers may run on the Netty event loop.
+   */
+  @Override
+  protected boolean isNonBlocking() {
+    return true;
+  }
+
   /**
    * Handles request headers .
    *
@@ -323,17 +575,29 @@ public class ApikeyAuthorization extends ServiceCallout {
     ApikeyStatus apikeyStatus = verifyApiKey(headers);
 
     if (apikeyStatus.isValid()) {
-      logger.info("Valid API key, request allowed.");
+      hotLog.sampled(
+          Level.INFO,
+          "request-allowed",
+          SAMPLE_RATE_ROUTINE,
+          () -> "Valid API key, request allowed.");
       return;
     }
 
-    logger.info(String.format("API key check negative: %s", apikeyStatus.getMessage()));
+    hotLog.sampled(
+        Level.INFO,
+        "request-denied",
+        SAMPLE_RATE_NEGATIVE,
+        () -> String.format("API key check negative: %s", apikeyStatus.getMessage()));
 
     StatusCode statusCode = StatusCode.Forbidden;
     ImmutableMap<String, String> responseHeadersToAdd = null;
     if (apikeyStatus.isKeyMissing()) {
       responseHeadersToAdd = ImmutableMap.of("WWW-Authenticate", "APIKey realm=\"example.com\"");
       statusCode = StatusCode.Unauthorized;
+    } else if (apikeyStatus.isRateLimited()) {
+      responseHeadersToAdd =
+          ImmutableMap.of("Retry-After", Long.toString(apikeyStatus.retryAfterSeconds()));
+      statusCode = StatusCode.TooManyRequests;
     }
 
     HttpStatus status = HttpStatus.newBuilder().setCode(statusCode).build();
@@ -345,6 +609,11 @@ public class ApikeyAuthorization extends ServiceCallout {
         apikeyStatus.getMessage() + "\n");
   }
 
+  private static Duration durationFromEnv(String name, Duration defaultValue) {
+    String value = System.getenv(name);
+    return value != null ? Duration.parse(value) : defaultValue;
+  }
+
   /**
    * Main method to start the gRPC callout server with a custom configuration using the {@link
    * ServiceCallout.Builder}.
@@ -360,17 +629,69 @@ public class ApikeyAuthorization extends ServiceCallout {
    *     .setIp("111.222.333.444")       // Customize IP
    *     .setPort(8443)                  // Set the port for secure communication
    *     .setEnablePlainTextPort(true)   // Enable an plaintext communication port
-   *     .setServerThreadCount(4);       // Set the number of server threads
+   *     .setServerThreadCount(4)        // Set the number of server threads
+   *     .setExecutorMode(ExecutorMode.VIRTUAL); // Or run handlers on virtual threads
    * }</pre>
    *
+   * <p>The executor mode can also be set with the EXECUTOR_MODE environment variable. Set
+   * SNAPSHOT_FILE to save the keys to a file and serve them from it at the next start, and
+   * BAKED_SNAPSHOT_FILE to serve a snapshot shipped in the image when there is no saved one.
+   * FETCH_CONNECT_TIMEOUT and FETCH_REQUEST_TIMEOUT, in ISO-8601 form such as PT10S, bound the
+   * calls to Google APIs. KEY_CHUNK_ROWS sets how many rows of the key sheet each request fetches.
+   * Set KEY_FILE to read the keys from a local JSON or CSV file instead of the Sheet, reloading it
+   * whenever it changes, or KEY_RESOURCE to read them from a classpath resource. Set
+   * OFF_HEAP_KEYS to true to hold the keys in an off-heap table, for key sets of millions of keys.
+   * Set QUOTA_STORE_FILE to enforce the rate limits as quotas shared by all the instances that use
+   * that file, or QUOTA_STORE to "memory" to try out quotas in one instance; QUOTA_SYNC_INTERVAL,
+   * such as PT1S, sets how often the shared counts are synced.
+   *
    * @param args Command-line arguments, not used in this implementation.
    * @throws Exception If an error occurs during server startup or shutdown.
    */
   public static void main(String[] args) throws Exception {
     CacheService cache = new CacheService();
-    FetchService fetch = new FetchService(cache);
-    ApikeyAuthorization server =
-        new ApikeyAuthorization.Builder().withCacheService(cache).withFetchService(fetch).build();
+    ApikeyAuthorization.Builder builder = new ApikeyAuthorization.Builder().withCacheService(cache);
+    boolean offHeapKeys = "true".equalsIgnoreCase(System.getenv("OFF_HEAP_KEYS"));
+    builder.withOffHeapKeys(offHeapKeys);
+    String keyFile = System.getenv("KEY_FILE");
+    String keyResource = System.getenv("KEY_RESOURCE");
+    if (keyFile != null) {
+      builder.withKeySource(new FileKeySource(Path.of(keyFile), offHeapKeys));
+    } else if (keyResource != null) {
+      builder.withKeySource(new ClasspathKeySource(keyResource, offHeapKeys));
+    } else {
+      // Only the Sheet needs Google APIs, and with them a GCP token.
+      builder.withFetchService(
+          new FetchService(
+              cache,
+              durationFromEnv("FETCH_CONNECT_TIMEOUT", FetchService.DEFAULT_CONNECT_TIMEOUT),
+              durationFromEnv("FETCH_REQUEST_TIMEOUT", FetchService.DEFAULT_REQUEST_TIMEOUT)));
+    }
+    String snapshotFile = System.getenv("SNAPSHOT_FILE");
+    if (snapshotFile != null) {
+      builder.withSnapshotFile(Path.of(snapshotFile));
+    }
+    String bakedSnapshotFile = System.getenv("BAKED_SNAPSHOT_FILE");
+    if (bakedSnapshotFile != null) {
+      builder.withBakedSnapshotFile(Path.of(bakedSnapshotFile));
+    }
+    String keyChunkRows = System.getenv("KEY_CHUNK_ROWS");
+    if (keyChunkRows != null) {
+      builder.withKeyChunkRows(Integer.parseInt(keyChunkRows));
+    }
+    String quotaStoreFile = System.getenv("QUOTA_STORE_FILE");
+    if (quotaStoreFile != null) {
+      builder.withQuotaStore(new FileQuotaStore(Path.of(quotaStoreFile)));
+    } else if ("memory".equalsIgnoreCase(System.getenv("QUOTA_STORE"))) {
+      builder.withQuotaStore(new InMemoryQuotaStore());
+    }
+    builder.withQuotaSyncInterval(
+        durationFromEnv("QUOTA_SYNC_INTERVAL", ClusterQuota.DEFAULT_SYNC_INTERVAL));
+    String executorMode = System.getenv("EXECUTOR_MODE");
+    if (executorMode != null) {
+      builder.setExecutorMode(ServiceCallout.ExecutorMode.valueOf(executorMode.toUpperCase()));
+    }
+    ApikeyAuthorization server = builder.build();
     var ju = new JarUtils();
     logger.info(
         String.format(
@@ -16,16 +16,31 @@
 
 package com.google.extensions.example;
 
-public record ApikeyStatus(String apikey, Result result) {
+/**
+ * The outcome of checking a request.
+ *
+ * @param apikey the API key presented, or null.
+ * @param result the outcome.
+ * @param rateLimiter for a valid key, the limiter that enforces its rate limit; or null. A cached
+ *     decision carries it, so that a cache hit finds the limiter without another lookup.
+ * @param retryAfterSeconds for a rate-limited request, the seconds until the key may retry.
+ */
+public record ApikeyStatus(
+    String apikey, Result result, KeyRateLimiter rateLimiter, long retryAfterSeconds) {
 
   public enum Result {
     KeyMissing,
     InvalidNotFound,
     FoundNoMatch,
     Valid,
+    RateLimited,
     Unset
   }
 
+  public ApikeyStatus(String apikey, Result result) {
+    this(apikey, result, null, 0);
+  }
+
   public boolean isValid() {
     return result == Result.Valid;
   }
@@ -34,12 +49,17 @@ public record ApikeyStatus(String apikey, Result result) {
     return result == Result.KeyMissing;
   }
 
+  public boolean isRateLimited() {
+    return result == Result.RateLimited;
+  }
+
   public String getMessage() {
     return switch (result) {
       case KeyMissing -> "API Key not present";
       case InvalidNotFound -> "Invalid API Key";
       case FoundNoMatch -> "No matching operation found";
       case Valid -> "Valid API Key";
+      case RateLimited -> "Rate limit exceeded";
       default -> "No status"; // Unset
     };
   }
@@ -59,4 +79,12 @@ public record ApikeyStatus(String apikey, Result result) {
   public static ApikeyStatus valid(String apikey) {
     return new ApikeyStatus(apikey, Result.Valid);
   }
+
+  public static ApikeyStatus valid(String apikey, KeyRateLimiter rateLimiter) {
+    return new ApikeyStatus(apikey, Result.Valid, rateLimiter, 0);
+  }
+
+  public static ApikeyStatus rateLimited(String apikey, long retryAfterSeconds) {
+    return new ApikeyStatus(apikey, Result.RateLimited, null, retryAfterSeconds);
+  }
 }
@@ -16,104 +16,495 @@
 package com.google.extensions.example;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.time.Duration;
 import java.time.Instant;
-import java.time.temporal.ChronoUnit;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+/**
+ * CacheService holds values that are expensive to load, each under a key with its own loader and
+ * TTL. Loaders run in the background: registering a loader starts its first load right away, in
+ * parallel with the other loaders, unless it names other keys it depends on, in which case it
+ * starts once those have loaded. Use {@link #whenReady(String...)} or {@link Handle#isLoaded()} to
+ * find out when values are available; until then, reads return null.
+ *
+ * <p>Values are refreshed ahead of expiry on a schedule: each value is reloaded in the background
+ * once a configurable fraction of its TTL has elapsed, give or take some random jitter so that
+ * instances started together do not all call the loader at once. Reads never check the clock or
+ * trigger a load; they return the latest value.
+ *
+ * <p>A value that implements {@link Expiring}, such as an access token, carries its own expiry,
+ * which takes the place of the TTL for that value; it is refreshed the same fraction of the way
+ * through its remaining lifetime.
+ *
+ * <p>A loader signals failure by throwing, or by returning null. The last good value is kept, and
+ * the load is retried as set out by the {@link RetryPolicy}: with exponential backoff, and, after
+ * repeated failures, with a circuit breaker that stops calling an upstream that is down.
+ *
+ * <p>For hot paths, get a typed {@link Handle} once and read through it. A read through a handle is
+ * a single volatile read of an immutable holder, with no map lookup, cast or allocation.
+ */
 public class CacheService {
   private static final Logger logger = Logger.getLogger(CacheService.class.getName());
 
+  public static final double DEFAULT_REFRESH_FRACTION = 0.8;
+  public static final double DEFAULT_JITTER_FRACTION = 0.1;
+  private static final long MIN_REFRESH_DELAY_MILLIS = 1000;
+
   private final Map<String, CacheEntry> caches = new ConcurrentHashMap<>();
-  private final ExecutorService refreshExecutor =
-      Executors.newFixedThreadPool(
-          4, new ThreadFactoryBuilder().setNameFormat("cache-refresh-%d").setDaemon(true).build());
+  private final ScheduledExecutorService refreshExecutor =
+      Executors.newScheduledThreadPool(
+          2, new ThreadFactoryBuilder().setNameFormat("cache-refresh-%d").setDaemon(true).build());
+  private final double refreshFraction;
+  private final double jitterFraction;
+  private final RetryPolicy retryPolicy;
+
+  /**
+   * How failed loads are retried. After each consecutive failure the next attempt waits twice as
+   * long as the one before, starting from {@code initialBackoff} and capped at {@code maxBackoff},
+   * less a random jitter of up to half. After {@code failureThreshold} consecutive failures the
+   * circuit opens: no load is attempted for {@code openDuration}, after which a single trial load
+   * either closes the circuit or opens it again.
+   */
+  public record RetryPolicy(
+      Duration initialBackoff, Duration maxBackoff, int failureThreshold, Duration openDuration) {
+    public static final RetryPolicy DEFAULT =
+        new RetryPolicy(Duration.ofSeconds(1), Duration.ofMinutes(2), 6, Duration.ofMinutes(5));
+
+    public RetryPolicy {
+      if (initialBackoff.isNegative()
+          || initialBackoff.compareTo(maxBackoff) > 0
+          || failureThreshold < 1
+          || openDuration.isNegative()) {
+        throw new IllegalArgumentException("Invalid retry policy: " + this);
+      }
+    }
+
+    long backoffMillis(int failures) {
+      long maxMillis = maxBackoff.toMillis();
+      long backoffMillis = initialBackoff.toMillis();
+      for (int i = 1; i < failures && backoffMillis < maxMillis; i++) {
+        backoffMillis *= 2;
+      }
+      backoffMillis = Math.min(backoffMillis, maxMillis);
+      return backoffMillis - ThreadLocalRandom.current().nextLong(backoffMillis / 2 + 1);
+    }
+  }
+
+  /** A value that knows when it expires, which overrides the TTL its loader was registered with. */
+  public interface Expiring {
+    Instant expiresAt();
+  }
+
+  /** A loaded value, and when it expires, on the {@link System#nanoTime()} clock. */
+  private record Loaded(Object value, long expiresAtNanos) {}
+
+  private static final Loaded NOT_LOADED = new Loaded(null, 0);
 
   private static class CacheEntry {
-    volatile Object value;
-    volatile Instant expiryTime;
+    volatile Loaded current = NOT_LOADED;
     final String key;
     final Function<String, Object> loader;
     final long ttlMinutes;
-    final ReentrantLock refreshLock = new ReentrantLock();
+    final List<Consumer<Object>> listeners = new CopyOnWriteArrayList<>();
+    // Completed by the first successful load.
+    final CompletableFuture<Void> ready = new CompletableFuture<>();
+    // Only accessed by the refresh task, which runs once at a time for each entry.
+    int consecutiveFailures;
+    // The next refresh task, or null while one runs, and whether it should run as soon as it can;
+    // guarded by this entry.
+    ScheduledFuture<?> pendingRefresh;
+    boolean refreshRequested;
 
     CacheEntry(String key, Function<String, Object> loader, long ttlMinutes) {
       this.key = key;
       this.loader = loader;
       this.ttlMinutes = ttlMinutes;
-      // Perform initial synchronous load to ensure a value is always present.
-      logger.info(String.format("Performing initial synchronous load for cache key: '%s'", key));
-      this.value = this.loader.apply(key);
-      updateExpiry();
-      logger.info(String.format("Initial load complete for cache key: '%s'", key));
     }
 
-    void updateExpiry() {
-      this.expiryTime = Instant.now().plus(this.ttlMinutes, ChronoUnit.MINUTES);
+    boolean isLoaded() {
+      return current != NOT_LOADED;
+    }
+
+    synchronized void set(Object value) {
+      long ttlNanos =
+          value instanceof Expiring expiring
+              ? Math.max(0, Duration.between(Instant.now(), expiring.expiresAt()).toNanos())
+              : TimeUnit.MINUTES.toNanos(ttlMinutes);
+      this.current = new Loaded(value, System.nanoTime() + ttlNanos);
+      ready.complete(null);
+    }
+
+    /** Sets the value only if none has loaded yet. */
+    synchronized boolean seed(Object value) {
+      if (isLoaded()) {
+        return false;
+      }
+      set(value);
+      return true;
     }
+
+    String describeExpiry() {
+      Loaded loaded = current;
+      if (loaded == NOT_LOADED) {
+        return "has never loaded";
+      }
+      long remainingSeconds =
+          TimeUnit.NANOSECONDS.toSeconds(loaded.expiresAtNanos() - System.nanoTime());
+      return remainingSeconds >= 0
+          ? String.format("expires in %d s", remainingSeconds)
+          : String.format("expired %d s ago", -remainingSeconds);
+    }
+
+    void notifyListeners(Object newValue) {
+      for (Consumer<Object> listener : listeners) {
+        try {
+          listener.accept(newValue);
+        } catch (Exception e) {
+          logger.log(Level.WARNING, "Error in cache listener for key: " + key, e);
+        }
+      }
+    }
+  }
+
+  public CacheService() {
+    this(DEFAULT_REFRESH_FRACTION, DEFAULT_JITTER_FRACTION);
   }
 
-  public CacheService() {}
+  /**
+   * Creates a CacheService with the given refresh schedule.
+   *
+   * @param refreshFraction reload each value once this fraction of its TTL has elapsed. Must be
+   *     greater than 0 and at most 1.
+   * @param jitterFraction move each refresh earlier or later by a random amount of up to this
+   *     fraction of the TTL. Must be at least 0 and less than 1.
+   */
+  public CacheService(double refreshFraction, double jitterFraction) {
+    this(refreshFraction, jitterFraction, RetryPolicy.DEFAULT);
+  }
 
+  /**
+   * Creates a CacheService with the given refresh schedule and retry policy.
+   *
+   * @param refreshFraction reload each value once this fraction of its TTL has elapsed. Must be
+   *     greater than 0 and at most 1.
+   * @param jitterFraction move each refresh earlier or later by a random amount of up to this
+   *     fraction of the TTL. Must be at least 0 and less than 1.
+   * @param retryPolicy how failed loads are retried.
+   */
+  public CacheService(double refreshFraction, double jitterFraction, RetryPolicy retryPolicy) {
+    if (!(refreshFraction > 0 && refreshFraction <= 1)) {
+      throw new IllegalArgumentException("refreshFraction must be in (0, 1]: " + refreshFraction);
+    }
+    if (!(jitterFraction >= 0 && jitterFraction < 1)) {
+      throw new IllegalArgumentException("jitterFraction must be in [0, 1): " + jitterFraction);
+    }
+    this.refreshFraction = refreshFraction;
+    this.jitterFraction = jitterFraction;
+    this.retryPolicy = retryPolicy;
+  }
+
+  /** Returns the value for a key, or null if there is none or it has not loaded yet. */
   public Object get(final String key) {
     CacheEntry entry = caches.get(key);
     if (entry == null) {
       logger.warning(String.format("No cache entry found for key: '%s'", key));
       return null;
     }
+    // The scheduled refresh keeps the value current; a read never triggers a load.
+    return entry.current.value();
+  }
+
+  /**
+   * Returns the value for a key, as the given type.
+   *
+   * @throws ClassCastException if the value is not of that type.
+   */
+  public <T> T get(final String key, final Class<T> type) {
+    return type.cast(get(key));
+  }
+
+  /**
+   * Returns a handle for reading the value of a key on a hot path.
+   *
+   * @param key the cache key, which must already have a registered loader.
+   * @param type the type of the values the loader returns.
+   * @throws IllegalStateException if no loader is registered for the key.
+   */
+  public <T> Handle<T> handle(final String key, final Class<T> type) {
+    return new Handle<>(entryFor(key), type);
+  }
+
+  private CacheEntry entryFor(String key) {
+    CacheEntry entry = caches.get(key);
+    if (entry == null) {
+      throw new IllegalStateException(String.format("No cache entry found for key: '%s'", key));
+    }
+    return entry;
+  }
+
+  /** A typed reference to the value of one cache key. */
+  public static final class Handle<T> {
+    private final CacheEntry entry;
+    private final Class<T> type;
+
+    private Handle(CacheEntry entry, Class<T> type) {
+      this.entry = entry;
+      this.type = type;
+    }
+
+    /**
+     * Returns the latest value, or null if the first load has not completed.
+     *
+     * @throws ClassCastException if the value is not of the type of this handle.
+     */
+    public T get() {
+      return type.cast(entry.current.value());
+    }
+
+    /** Returns true once the first load has completed. */
+    public boolean isLoaded() {
+      return entry.isLoaded();
+    }
+
+    /** Returns true if the value has outlived its TTL, because refreshes have been failing. */
+    public boolean isExpired() {
+      Loaded loaded = entry.current;
+      return loaded != NOT_LOADED && System.nanoTime() - loaded.expiresAtNanos() > 0;
+    }
+
+    public String key() {
+      return entry.key;
+    }
+  }
+
+  /**
+   * Returns a future that completes when every one of the given keys has loaded for the first
+   * time. Loads that fail are retried, so the future does not complete exceptionally.
+   *
+   * @throws IllegalStateException if no loader is registered for one of the keys.
+   */
+  public CompletableFuture<Void> whenReady(final String... keys) {
+    CompletableFuture<?>[] futures = new CompletableFuture<?>[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      futures[i] = entryFor(keys[i]).ready;
+    }
+    return CompletableFuture.allOf(futures);
+  }
 
+  private void refresh(CacheEntry entry) {
+    synchronized (entry) {
+      // Running now; a FutureTask can still be cancelled while it runs, so it must not be.
+      entry.pendingRefresh = null;
+    }
+    Object newValue;
+    try {
+      newValue = entry.loader.apply(entry.key);
+      if (newValue == null) {
+        throw new IllegalStateException("The loader returned no value.");
+      }
+    } catch (Exception e) {
+      onLoadFailure(entry, e);
+      return;
+    }
+    if (entry.consecutiveFailures >= retryPolicy.failureThreshold()) {
+      logger.info(String.format("Circuit for '%s' closed; the load succeeded.", entry.key));
+    }
+    entry.consecutiveFailures = 0;
+    boolean first = !entry.isLoaded();
+    // A loader that finds nothing has changed returns the same instance; the expiry still moves.
+    boolean changed = entry.current.value() != newValue;
+    entry.set(newValue);
+    if (changed) {
+      entry.notifyListeners(newValue);
+    }
+    long delayMillis = refreshDelayMillis(entry);
     logger.info(
         String.format(
-            "cache get(%s) expiry(%d) now(%d)",
-            key, entry.expiryTime.toEpochMilli(), Instant.now().toEpochMilli()));
-    // Check if the entry is stale
-    if (Instant.now().isAfter(entry.expiryTime)) {
-      // Entry is stale, try to acquire a lock to refresh it.
-      // tryLock() is non-blocking.
-      if (entry.refreshLock.tryLock()) {
-        logger.info(
-            String.format("Cache entry for '%s' is stale. Triggering asynchronous refresh.", key));
-        // Got the lock, so this thread is responsible for triggering the refresh.
-        CompletableFuture.runAsync(
-            () -> {
-              try {
-                Object newValue = entry.loader.apply(key);
-                entry.value = newValue;
-                entry.updateExpiry();
-                logger.info(String.format("Asynchronous refresh for '%s' complete.", key));
-              } catch (Exception e) {
-                logger.log(Level.SEVERE, "Error refreshing cache for key: " + key, e);
-              } finally {
-                // Always release the lock.
-                entry.refreshLock.unlock();
-              }
-            },
-            refreshExecutor);
+            "%s for '%s' complete%s; next refresh in %d s.",
+            first ? "Initial load" : "Refresh",
+            entry.key,
+            changed ? "" : " (unchanged)",
+            delayMillis / 1000));
+    scheduleRefresh(entry, delayMillis);
+  }
+
+  private void onLoadFailure(CacheEntry entry, Exception e) {
+    if (refreshExecutor.isShutdown()) {
+      // Most likely interrupted by shutdown(); there is nothing to retry.
+      return;
+    }
+    int failures = ++entry.consecutiveFailures;
+    if (failures >= retryPolicy.failureThreshold()) {
+      long openMillis = retryPolicy.openDuration().toMillis();
+      logger.log(
+          Level.SEVERE,
+          String.format(
+              "Circuit for '%s' open after %d consecutive failures; keeping the current value,"
+                  + " which %s, and trying again in %d s.",
+              entry.key, failures, entry.describeExpiry(), openMillis / 1000),
+          e);
+      scheduleRefresh(entry, openMillis);
+      return;
+    }
+    long retryMillis = retryPolicy.backoffMillis(failures);
+    logger.warning(
+        String.format(
+            "Error loading cache for key: %s (%s); keeping the current value, which %s,"
+                + " and retrying in %d ms (failure %d of %d before the circuit opens).",
+            entry.key,
+            e,
+            entry.describeExpiry(),
+            retryMillis,
+            failures,
+            retryPolicy.failureThreshold()));
+    scheduleRefresh(entry, retryMillis);
+  }
+
+  private void scheduleRefresh(CacheEntry entry, long delayMillis) {
+    synchronized (entry) {
+      if (refreshExecutor.isShutdown()) {
+        return;
+      }
+      if (entry.refreshRequested) {
+        entry.refreshRequested = false;
+        delayMillis = 0;
+      }
+      entry.pendingRefresh =
+          refreshExecutor.schedule(() -> refresh(entry), delayMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Reloads the value for a key now, instead of at its next scheduled refresh; for use when the
+   * source of the value is known to have changed. Loads of a key still never overlap: if a load is
+   * running, the next one starts as soon as it ends. Requests made in the meantime are coalesced.
+   *
+   * @param key the cache key, which must already have a registered loader.
+   * @throws IllegalStateException if no loader is registered for the key.
+   */
+  public void refreshNow(String key) {
+    CacheEntry entry = entryFor(key);
+    synchronized (entry) {
+      ScheduledFuture<?> pending = entry.pendingRefresh;
+      if (refreshExecutor.isShutdown()) {
+        return;
+      }
+      if (pending != null && pending.cancel(false)) {
+        entry.pendingRefresh = refreshExecutor.schedule(() -> refresh(entry), 0, TimeUnit.SECONDS);
+      } else {
+        // A load is running, or the first load has yet to start.
+        entry.refreshRequested = true;
       }
     }
-    // Always return the current value, which might be stale.
-    return entry.value;
   }
 
+  /**
+   * Stops loading values: no load starts after this, and loads that are running are interrupted.
+   * The values already loaded can still be read, but are no longer refreshed.
+   */
+  public void shutdown() {
+    refreshExecutor.shutdownNow();
+  }
+
+  /**
+   * Returns the time until the next refresh of a value just loaded: a fraction of its lifetime,
+   * plus or minus the jitter.
+   */
+  private long refreshDelayMillis(CacheEntry entry) {
+    long ttlMillis =
+        TimeUnit.NANOSECONDS.toMillis(entry.current.expiresAtNanos() - System.nanoTime());
+    double jitter = jitterFraction * ThreadLocalRandom.current().nextDouble(-1, 1);
+    long delayMillis = (long) (ttlMillis * Math.min(1, refreshFraction + jitter));
+    return Math.max(MIN_REFRESH_DELAY_MILLIS, delayMillis);
+  }
+
+  /**
+   * Registers a loader for a key, and starts loading its value in the background.
+   *
+   * @param key the cache key.
+   * @param loader loads the value; it is passed the key.
+   * @param durationInMinutes the TTL of each loaded value.
+   * @param dependsOn keys, already registered, whose values the loader uses. The first load waits
+   *     until all of them have loaded.
+   * @return this CacheService.
+   * @throws IllegalStateException if one of the dependencies is not registered.
+   */
   public CacheService registerLoader(
-      final String key, final Function<String, Object> loader, final long durationInMinutes) {
+      final String key,
+      final Function<String, Object> loader,
+      final long durationInMinutes,
+      final String... dependsOn) {
     if (caches.containsKey(key)) {
       logger.warning(String.format("Loader for key '%s' is already registered. Ignoring.", key));
       return this;
     }
+    CompletableFuture<Void> dependencies = whenReady(dependsOn);
     logger.info(
         String.format(
-            "Registering cache loader for key: '%s' with TTL: %d minutes.",
-            key, durationInMinutes));
-    // The constructor of CacheEntry performs the initial synchronous load.
-    caches.put(key, new CacheEntry(key, loader, durationInMinutes));
+            "Registering cache loader for key: '%s' with TTL: %d minutes%s.",
+            key,
+            durationInMinutes,
+            dependsOn.length == 0 ? "" : ", after " + String.join(", ", dependsOn)));
+    CacheEntry entry = new CacheEntry(key, loader, durationInMinutes);
+    caches.put(key, entry);
+    dependencies.thenRunAsync(() -> refresh(entry), refreshExecutor);
+    return this;
+  }
+
+  /**
+   * Provides a value to serve for a key until its first load completes, such as one persisted by an
+   * earlier run. The key is then ready, and its listeners are told, but the load still runs and
+   * replaces the value when it succeeds. Does nothing if a load has already completed.
+   *
+   * @param key the cache key, which must already have a registered loader.
+   * @param value the value to serve meanwhile.
+   * @return true if the value was used.
+   * @throws IllegalStateException if no loader is registered for the key.
+   */
+  public boolean seed(final String key, final Object value) {
+    CacheEntry entry = entryFor(key);
+    if (!entry.seed(value)) {
+      return false;
+    }
+    logger.info(String.format("Seeded cache key '%s'; it will be revalidated by its loader.", key));
+    entry.notifyListeners(value);
+    return true;
+  }
+
+  /**
+   * Registers a listener to be told about the value for a key. The listener is called right away
+   * with the current value, if there is one, and then again each time a load replaces the value. A
+   * load that returns the very instance already cached is not a replacement, and is not reported. A
+   * listener added while a load is completing may be called twice with the same value.
+   *
+   * @param key the cache key, which must already have a registered loader.
+   * @param listener receives each new value.
+   * @return this CacheService.
+   */
+  public CacheService addListener(final String key, final Consumer<Object> listener) {
+    CacheEntry entry = caches.get(key);
+    if (entry == null) {
+      logger.warning(String.format("No cache entry found for key: '%s'", key));
+      return this;
+    }
+    entry.listeners.add(listener);
+    Loaded loaded = entry.current;
+    if (loaded != NOT_LOADED) {
+      listener.accept(loaded.value());
+    }
     return this;
   }
 }
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+/**
+ * A {@link KeySource} that reads a key file, in one of the {@link KeyFileFormat}s, from the
+ * classpath: for example a default key set shipped in the jar, or a fixture for tests. The resource
+ * cannot change while the application runs, so it is read once, and later loads return the same
+ * snapshot.
+ */
+public final class ClasspathKeySource implements KeySource {
+  private final String resource;
+  private final ClassLoader classLoader;
+  private final boolean offHeap;
+  private KeySnapshot loaded;
+
+  /**
+   * @param resource the resource name, such as "keys/default.csv".
+   */
+  public ClasspathKeySource(String resource) {
+    this(resource, false);
+  }
+
+  /**
+   * @param resource the resource name.
+   * @param offHeap true to hold the keys in an {@link OffHeapKeyTable}.
+   */
+  public ClasspathKeySource(String resource, boolean offHeap) {
+    this(resource, ClasspathKeySource.class.getClassLoader(), offHeap);
+  }
+
+  public ClasspathKeySource(String resource, ClassLoader classLoader, boolean offHeap) {
+    this.resource = resource.startsWith("/") ? resource.substring(1) : resource;
+    this.classLoader = classLoader;
+    this.offHeap = offHeap;
+  }
+
+  @Override
+  public String describe() {
+    return "classpath resource " + resource;
+  }
+
+  @Override
+  public KeySnapshot load(KeySnapshot previous) throws IOException {
+    if (loaded != null) {
+      return loaded;
+    }
+    try (InputStream in = classLoader.getResourceAsStream(resource)) {
+      if (in == null) {
+        throw new IOException("No such classpath resource: " + resource);
+      }
+      KeySnapshot.Builder builder = new KeySnapshot.Builder(offHeap);
+      KeyFileFormat.forName(resource)
+          .read(new InputStreamReader(in, StandardCharsets.UTF_8), builder);
+      loaded = builder.build(Instant.now().toString(), previous);
+      return loaded;
+    }
+  }
+}
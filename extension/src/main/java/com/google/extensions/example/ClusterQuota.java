@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.example;
+
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Enforces the {@link RateLimit} of each API key across all the instances of the service, as a
+ * quota of requests in each window of the limit's period. Windows are aligned to the epoch, so
+ * all instances agree on them.
+ *
+ * <p>Requests never wait on the shared {@link QuotaStore}. Each instance admits requests from a
+ * local budget, its share of what is left of the key's quota, with one atomic decrement. At a
+ * fixed interval, the instance adds the requests it has admitted since the last sync to the store,
+ * in one batch for all keys, and reads back the totals. It then sets its share of each key to its
+ * part of the requests made since the previous sync, smoothed over syncs, and its budget to that
+ * share of the quota left. An instance that takes most of a key's traffic so gets most of its
+ * quota, and the cluster as a whole overshoots the quota by at most what the instances admit in
+ * one interval beyond their shares.
+ *
+ * <p>An instance starts each key it has not yet synced with a tenth of the key's quota, since it
+ * cannot tell how many other instances see the key too. So until its first sync, even a lone
+ * instance admits only a tenth of the quota; after that, its share grows towards its part of the
+ * traffic, by half the difference at each sync.
+ *
+ * <p>If the store cannot be reached, the counts are kept for the next sync, and each instance
+ * goes on with the budget it has. The interval should be well below the period of the limits:
+ * quotas per minute or per hour are enforced closely, limits per second only roughly.
+ */
+public final class ClusterQuota {
+  private static final Logger logger = Logger.getLogger(ClusterQuota.class.getName());
+
+  public static final Duration DEFAULT_SYNC_INTERVAL = Duration.ofSeconds(1);
+  // The share of a key an instance starts with, before it has seen the key's traffic. Small, so
+  // that instances that all see a new key at once do not each admit its whole quota.
+  static final double INITIAL_SHARE = 0.1;
+  // No instance gets less, so that one whose traffic for a key starts can admit some requests.
+  static final double MIN_SHARE = 0.01;
+  // The weight of the latest sync in the smoothed share.
+  private static final double SHARE_SMOOTHING = 0.5;
+
+  private final QuotaStore store;
+  private final LongSupplier clock;
+  private final long syncIntervalMillis;
+  private final Map<String, KeyQuota> quotas = new ConcurrentHashMap<>();
+
+  public ClusterQuota(QuotaStore store, Duration syncInterval) {
+    this(store, syncInterval, System::currentTimeMillis);
+    ScheduledExecutorService syncExecutor =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("quota-sync-%d").setDaemon(true).build());
+    syncExecutor.scheduleWithFixedDelay(
+        this::syncQuietly, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /** Without a sync thread; the caller calls {@link #sync()}, and supplies the time in millis. */
+  ClusterQuota(QuotaStore store, Duration syncInterval, LongSupplier clock) {
+    this.store = store;
+    this.clock = clock;
+    this.syncIntervalMillis = Math.max(1, syncInterval.toMillis());
+  }
+
+  /**
+   * Admits a request with the key, if its quota allows it.
+   *
+   * @return 0 if the request is admitted; otherwise the nanoseconds until one might be.
+   */
+  public long tryAcquire(String apikey, RateLimit limit) {
+    long now = clock.getAsLong();
+    while (true) {
+      KeyQuota quota = quotas.get(apikey);
+      if (quota == null) {
+        quota = quotas.computeIfAbsent(apikey, KeyQuota::new);
+      }
+      Window window = quota.window(limit, now);
+      if (window == null) {
+        // Retired by the sync, as idle; the next lookup finds a fresh one.
+        continue;
+      }
+      if (window.budget.getAndDecrement() > 0) {
+        window.pending.increment();
+        return 0;
+      }
+      // Once the cluster has used up the quota, nothing is admitted until the window ends;
+      // until then, the next sync may bring a larger budget.
+      long waitMillis = window.endMillis - now;
+      if (!window.exhausted) {
+        waitMillis = Math.min(syncIntervalMillis, waitMillis);
+      }
+      return TimeUnit.MILLISECONDS.toNanos(Math.max(1, waitMillis));
+    }
+  }
+
+  /** The number of keys whose quotas are tracked. */
+  int size() {
+    return quotas.size();
+  }
+
+  /** The share of the key's quota this instance has, or 0 if the key is not tracked. */
+  double share(String apikey) {
+    KeyQuota quota = quotas.get(apikey);
+    return quota != null ? quota.share : 0;
+  }
+
+  static String counterKey(String apikey) {
+    return Hashing.sha256().hashString(apikey, StandardCharsets.UTF_8).toString();
+  }
+
+  private void syncQuietly() {
+    try {
+      sync();
+    } catch (RuntimeException e) {
+      logger.log(Level.WARNING, "Error syncing quotas", e);
+    }
+  }
+
+  /**
+   * Adds the requests admitted since the last sync to the store, and sets each key's share and
+   * budget from the totals.
+   */
+  void sync() {
+    long now = clock.getAsLong();
+    List<Taken> taken = new ArrayList<>();
+    Map<QuotaStore.Counter, Long> deltas = new HashMap<>();
+    for (KeyQuota quota : quotas.values()) {
+      for (Window window : quota.windowsToSync(now)) {
+        long delta = window.pending.sumThenReset();
+        taken.add(new Taken(quota, window, delta));
+        deltas.merge(new QuotaStore.Counter(quota.counterKey, window.endMillis), delta, Long::sum);
+      }
+    }
+    if (deltas.isEmpty()) {
+      return;
+    }
+    Map<QuotaStore.Counter, Long> totals;
+    try {
+      totals = store.addAndGet(deltas);
+    } catch (IOException | RuntimeException e) {
+      logger.warning(
+          String.format("Cannot sync %d quota counters, will retry: %s", deltas.size(), e));
+      for (Taken t : taken) {
+        t.quota.retry(t.window, t.delta);
+      }
+      return;
+    }
+    for (Taken t : taken) {
+      Long total = totals.get(new QuotaStore.Counter(t.quota.counterKey, t.window.endMillis));
+      if (total != null) {
+        t.quota.update(t.window, t.delta, total);
+      }
+    }
+  }
+
+  private record Taken(KeyQuota quota, Window window, long delta) {}
+
+  /** The quota of one key in one window. */
+  private static final class Window {
+    final RateLimit limit;
+    final long endMillis;
+    // What this instance may still admit; negative when requests were turned away.
+    final AtomicLong budget;
+    // Admitted, but not yet added to the store.
+    final LongAdder pending = new LongAdder();
+    // The total over all instances at the last sync; only the sync thread sets it.
+    volatile long syncedTotal;
+    // Whether the cluster has used the whole quota, as of the last sync.
+    volatile boolean exhausted;
+
+    Window(RateLimit limit, long endMillis, long budget) {
+      this.limit = limit;
+      this.endMillis = endMillis;
+      this.budget = new AtomicLong(budget);
+    }
+  }
+
+  private final class KeyQuota {
+    final String apikey;
+    // The store sees a digest of the key, never the key itself.
+    final String counterKey;
+    volatile Window window;
+    volatile double share = INITIAL_SHARE;
+    // Windows that ended with requests not yet synced; guarded by this.
+    private final List<Window> ended = new ArrayList<>();
+    // Set when a sync finds nothing to sync, and the quota is dropped if the next one does not
+    // either; guarded by this.
+    private boolean idle;
+    // Set when the sync drops this quota as idle; guarded by this.
+    private boolean retired;
+
+    KeyQuota(String apikey) {
+      this.apikey = apikey;
+      this.counterKey = counterKey(apikey);
+    }
+
+    /** Returns the current window for the limit, or null if this quota has been retired. */
+    Window window(RateLimit limit, long now) {
+      Window current = window;
+      if (current != null && now < current.endMillis && current.limit.equals(limit)) {
+        return current;
+      }
+      synchronized (this) {
+        if (retired) {
+          return null;
+        }
+        current = window;
+        if (current != null && now < current.endMillis && current.limit.equals(limit)) {
+          return current;
+        }
+        long periodMillis = Math.max(1, limit.period().toMillis());
+        long endMillis = (now / periodMillis + 1) * periodMillis;
+        long budget = (long) Math.ceil(limit.permits() * share);
+        Window next = new Window(limit, endMillis, budget);
+        if (current != null) {
+          if (current.endMillis == endMillis) {
+            // The limit changed within the window; the counter in the store stays the same.
+            next.syncedTotal = current.syncedTotal;
+          }
+          ended.add(current);
+        }
+        window = next;
+        return next;
+      }
+    }
+
+    /**
+     * Returns the windows to sync: the current one, if it has not ended, and those that ended
+     * with requests not yet synced. A quota with nothing to sync at two syncs in a row is retired.
+     * Not at the first: a request may have taken the current window just before it ended, and
+     * count itself in the window only after this sync looked.
+     */
+    synchronized List<Window> windowsToSync(long now) {
+      List<Window> windows = new ArrayList<>(ended);
+      ended.clear();
+      Window current = window;
+      if (current != null && (now < current.endMillis || current.pending.sum() > 0)) {
+        windows.add(current);
+      }
+      if (!windows.isEmpty()) {
+        idle = false;
+      } else if (idle) {
+        retired = true;
+        quotas.remove(apikey, this);
+      } else {
+        idle = true;
+      }
+      return windows;
+    }
+
+    /** Puts back counts that could not be synced, to go with the next sync. */
+    synchronized void retry(Window w, long delta) {
+      w.pending.add(delta);
+      if (w != window && !ended.contains(w)) {
+        ended.add(w);
+      }
+    }
+
+    /** Sets the share and budget of the window from the total after a sync. */
+    void update(Window w, long localDelta, long total) {
+      long globalDelta = total - w.syncedTotal;
+      w.syncedTotal = total;
+      if (w != window) {
+        return;
+      }
+      double newShare = share;
+      if (globalDelta > 0) {
+        double observed = (double) localDelta / globalDelta;
+        newShare = SHARE_SMOOTHING * observed + (1 - SHARE_SMOOTHING) * share;
+        newShare = Math.min(1, Math.max(MIN_SHARE, newShare));
+        share = newShare;
+      }
+      long remaining = w.limit.permits() - total;
+      w.exhausted = remaining <= 0;
+      long allowance = remaining <= 0 ? 0 : (long) Math.ceil(remaining * newShare);
+      w.budget.set(allowance - w.pending.sum());
+    }
+  }
+}
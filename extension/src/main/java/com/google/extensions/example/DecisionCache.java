@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.example;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * A bounded cache of authorization decisions, keyed by (apikey, method, path).
+ *
+ * <p>The decisions are valid only for the {@link KeySnapshot} they were computed from. The cache
+ * is told about each new snapshot via {@link #onSnapshot(Object)}, and flushes itself then. When
+ * the new snapshot is a delta from the old one, only the decisions for the keys that changed are
+ * flushed. Decisions computed concurrently against an older snapshot are never left behind in the
+ * cache.
+ */
+public class DecisionCache {
+  private static final Logger logger = Logger.getLogger(DecisionCache.class.getName());
+
+  /** Computes a decision when it is not cached. */
+  @FunctionalInterface
+  public interface Decider {
+    ApikeyStatus decide(KeySnapshot snapshot, String apikey, String method, String path);
+  }
+
+  private record Key(String apikey, String method, String path) {}
+
+  private final Cache<Key, ApikeyStatus> cache;
+  private final long maximumSize;
+  private volatile KeySnapshot owner;
+  // The keys being flushed after a delta; their cached decisions must not be served meanwhile.
+  private volatile Set<String> flushingKeys;
+
+  public DecisionCache(long maximumSize) {
+    this.cache = Caffeine.newBuilder().maximumSize(maximumSize).recordStats().build();
+    this.maximumSize = maximumSize;
+  }
+
+  /**
+   * Returns the decision for a request, computing and caching it if necessary.
+   *
+   * @param snapshot the key snapshot the request is checked against.
+   * @param apikey the API key presented.
+   * @param method the request method.
+   * @param path the request path.
+   * @param decider computes the decision on a cache miss.
+   * @return the decision.
+   */
+  public ApikeyStatus get(
+      KeySnapshot snapshot, String apikey, String method, String path, Decider decider) {
+    if (snapshot != owner) {
+      // The snapshot is being replaced; do not mix decisions from two snapshots.
+      return decider.decide(snapshot, apikey, method, path);
+    }
+    Set<String> flushing = flushingKeys;
+    if (flushing != null && flushing.contains(apikey)) {
+      return decider.decide(snapshot, apikey, method, path);
+    }
+    Key key = new Key(apikey, method, path);
+    ApikeyStatus status = cache.getIfPresent(key);
+    if (status != null) {
+      return status;
+    }
+    status = decider.decide(snapshot, apikey, method, path);
+    cache.put(key, status);
+    if (snapshot != owner) {
+      // The snapshot was replaced while deciding, and the flush may have run before the put.
+      cache.asMap().remove(key, status);
+    }
+    return status;
+  }
+
+  /**
+   * Tells the cache about a new key snapshot, flushing the decisions made against older ones that
+   * it may change.
+   *
+   * @param value the new snapshot, as delivered by a {@link CacheService} listener.
+   */
+  public void onSnapshot(Object value) {
+    KeySnapshot snapshot = (KeySnapshot) value;
+    KeySnapshot previous = owner;
+    Set<String> changedKeys = snapshot.changedKeysSince(previous);
+    // Flushing by key scans the cache, so a large delta is cheaper to flush in full.
+    if (changedKeys != null && changedKeys.size() < maximumSize / 4) {
+      flushingKeys = changedKeys;
+      owner = snapshot;
+      cache.asMap().keySet().removeIf(key -> changedKeys.contains(key.apikey()));
+      flushingKeys = null;
+      logger.info(
+          String.format(
+              "Decision cache flushed for %d changed keys. %s", changedKeys.size(), stats()));
+      return;
+    }
+    owner = snapshot;
+    cache.invalidateAll();
+    if (previous != null) {
+      logger.info(String.format("Decision cache flushed for new key snapshot. %s", stats()));
+    }
+  }
+
+  public CacheStats stats() {
+    return cache.stats();
+  }
+}
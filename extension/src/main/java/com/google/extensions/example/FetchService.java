@@ -15,38 +15,95 @@
 
 package com.google.extensions.example;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
-import java.io.BufferedReader;
+import com.google.gson.stream.JsonReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Type;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.http.HttpClient;
-import java.net.http.HttpHeaders;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Function;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
 
+/**
+ * FetchService makes authenticated calls to Google APIs, with a GCP access token from a {@link
+ * GcpTokenProvider}, which keeps it in the CacheService.
+ *
+ * <p>All requests go through one long-lived HttpClient, so that connections, TLS sessions and
+ * HTTP/2 streams are reused across refreshes. Every exchange, from sending the request to reading
+ * the last byte of the response, must complete within the request timeout, so a hung upstream
+ * fails the load, and the CacheService retries it, rather than stalling the refresh thread. The
+ * response bodies of asynchronous fetches are read on threads of their own, never on those of the
+ * HttpClient.
+ */
 public class FetchService {
   private static final Logger logger = Logger.getLogger(FetchService.class.getName());
-  private static final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+  private static final Gson gson = new Gson();
   private static final Type mapType = new TypeToken<HashMap<String, Object>>() {}.getType();
-  private static final int TOKEN_TTL_MINUTES = 30;
-  private final CacheService cacheService;
+  public static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(10);
+  public static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.ofSeconds(30);
+  private final GcpTokenProvider tokenProvider;
+  private final HttpClient client;
+  private final Duration requestTimeout;
+  // Reads the bodies of asynchronous fetches, which block on the network.
+  private final ExecutorService bodyReaders =
+      Executors.newCachedThreadPool(
+          new ThreadFactoryBuilder().setNameFormat("fetch-body-%d").setDaemon(true).build());
+  // Closes the bodies of exchanges that run past their deadline, which ends a stalled read.
+  private final ScheduledExecutorService deadlines =
+      Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder().setNameFormat("fetch-deadline-%d").setDaemon(true).build());
+
+  /** Reads a JSON response body as it arrives, rather than after it is all in memory. */
+  @FunctionalInterface
+  public interface JsonBodyReader<T> {
+    T read(JsonReader reader) throws IOException;
+  }
 
   public FetchService(CacheService cache) {
-    this.cacheService = cache;
-    this.cacheService.registerLoader(
-        "gcptoken", (_ignoredKey) -> this.loadGcpAccessToken(_ignoredKey), TOKEN_TTL_MINUTES);
+    this(cache, DEFAULT_CONNECT_TIMEOUT, DEFAULT_REQUEST_TIMEOUT);
+  }
+
+  /**
+   * @param cache the CacheService to keep the GCP access token in.
+   * @param connectTimeout the time allowed to establish a connection.
+   * @param requestTimeout the time allowed for each exchange, including reading the response.
+   */
+  public FetchService(CacheService cache, Duration connectTimeout, Duration requestTimeout) {
+    this(cache, connectTimeout, requestTimeout, System.getenv());
+  }
+
+  /** With the given environment, which chooses the source of GCP access tokens. */
+  FetchService(
+      CacheService cache,
+      Duration connectTimeout,
+      Duration requestTimeout,
+      Map<String, String> env) {
+    this.requestTimeout = requestTimeout;
+    this.client =
+        HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(connectTimeout)
+            .build();
+    this.tokenProvider = new GcpTokenProvider(cache, client, requestTimeout, env);
   }
 
   public static boolean isRunningInCloud() {
@@ -55,63 +112,17 @@ public class FetchService {
     return kService != null && !kService.isEmpty();
   }
 
-  /**
-   * Cache loader function to retrieve a GCP access token. Checks if running in Cloud Run to
-   * determine the token retrieval method.
-   *
-   * @param ignoredKey The cache key (ignored in this implementation).
-   * @return The access token as a String, or null if an error occurs.
-   */
-  private Object loadGcpAccessToken(String _ignoredKey) {
-    if (isRunningInCloud()) {
-      logger.info("Running in Cloud Run, fetching token from metadata server...");
-      String metadataUrl =
-          "http://metadata.google.internal/computeMetadata/v1/instance/service-accounts/default/token";
-      try {
-        String responseBody = _fetch(metadataUrl, "GET", Map.of("Metadata-Flavor", "Google"), null);
-        if (responseBody != null) {
-          Map<String, Object> tokenResponse = gson.fromJson(responseBody, mapType);
-          if (tokenResponse != null && tokenResponse.containsKey("access_token")) {
-            String accessToken = (String) tokenResponse.get("access_token");
-            logger.info("Successfully fetched token from metadata server.");
-            return accessToken;
-          }
-        }
-      } catch (Exception e) {
-        logger.severe(
-            String.format(
-                "Unexpected error fetching/parsing token from metadata server (%s)", e.toString()));
-      }
-      return null;
-    }
-    logger.info("Not running in Cloud Run, using gcloud for token...");
-    String project = System.getenv("PROJECT_ID");
-    if (project == null) {
-      throw new RuntimeException("No PROJECT_ID set... cannot continue.");
-    }
-    String sa_email = System.getenv("SA_EMAIL");
-    if (sa_email == null) {
-      throw new RuntimeException("No SA_EMAIL set... cannot continue.");
-    }
-    return executeCommand(
-        "gcloud",
-        "auth",
-        "print-access-token",
-        "--impersonate-service-account",
-        sa_email,
-        "--project",
-        project,
-        "--scopes",
-        "https://www.googleapis.com/auth/spreadsheets.readonly",
-        "--quiet");
-  }
-
-  private static String _fetch(
+  private HttpRequest newRequest(
       String uri, String method, Map<String, String> requestHeaders, Map<String, Object> payload)
-      throws URISyntaxException, IOException, InterruptedException {
+      throws URISyntaxException {
     logger.fine(String.format("*** fetch [%s %s]...", method, uri));
 
-    HttpRequest.Builder builder = HttpRequest.newBuilder().uri(new URI(uri));
+    URI target = new URI(uri);
+    HttpRequest.Builder builder = HttpRequest.newBuilder().uri(target).timeout(requestTimeout);
+    if ("http".equals(target.getScheme())) {
+      // No h2c upgrade for plaintext endpoints like the metadata server.
+      builder.version(HttpClient.Version.HTTP_1_1);
+    }
     if (requestHeaders != null) {
       for (Map.Entry<String, String> entry : requestHeaders.entrySet()) {
         builder.header(entry.getKey(), entry.getValue());
@@ -131,94 +142,152 @@ public class FetchService {
       throw new RuntimeException("HTTP method not supported: " + method);
     }
 
-    HttpRequest request = builder.build();
-    HttpClient client = HttpClient.newHttpClient();
-    HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-    HttpHeaders responseHeaders = response.headers();
-    logger.fine(String.format("Response headers:\n%s", responseHeaders.toString()));
-    String body = response.body();
-    logger.fine(String.format("\n\n=>\n%s", body));
-    return body;
+    return builder.build();
   }
 
-  public Map<String, Object> fetch(String uri, String method, Map<String, Object> payload)
-      throws URISyntaxException, IOException, InterruptedException {
-    String accessToken = (String) this.cacheService.get("gcptoken");
-    String stringResult =
-        _fetch(uri, method, Map.of("Authorization", "Bearer " + accessToken), payload);
-    Map<String, Object> json = gson.fromJson(stringResult, mapType);
-    return json;
+  /**
+   * Reads the response body with the given reader, as it streams in. A response with a status other
+   * than 2xx is not read.
+   *
+   * @param deadlineNanos the {@link System#nanoTime()} by which the body must have been read. The
+   *     body is closed then, which ends a read that is waiting on a stalled upstream.
+   * @throws HttpTimeoutException if the body is not read by the deadline.
+   */
+  private <T> T readJson(
+      HttpRequest request,
+      HttpResponse<InputStream> response,
+      JsonBodyReader<T> bodyReader,
+      long deadlineNanos)
+      throws IOException {
+    try (InputStream body = response.body()) {
+      if (response.statusCode() / 100 != 2) {
+        throw new IOException(
+            String.format(
+                "%s %s returned status %d",
+                request.method(), request.uri(), response.statusCode()));
+      }
+      AtomicBoolean expired = new AtomicBoolean();
+      ScheduledFuture<?> closer = closeAtDeadline(body, deadlineNanos, expired);
+      try {
+        return bodyReader.read(new JsonReader(new InputStreamReader(body, StandardCharsets.UTF_8)));
+      } catch (IOException | RuntimeException e) {
+        if (expired.get()) {
+          // A closed stream reads as a truncated body; report the cause.
+          throw new HttpTimeoutException(
+              String.format(
+                  "%s %s did not complete within %s",
+                  request.method(), request.uri(), requestTimeout));
+        }
+        throw e;
+      } finally {
+        closer.cancel(false);
+      }
+    }
   }
 
-  public Map<String, Object> get(String path)
-      throws URISyntaxException, IOException, InterruptedException {
-    return fetch(path, "GET", null);
+  /** Sets the expired flag and closes the body at the deadline, unless cancelled first. */
+  private ScheduledFuture<?> closeAtDeadline(
+      InputStream body, long deadlineNanos, AtomicBoolean expired) {
+    return deadlines.schedule(
+        () -> {
+          expired.set(true);
+          try {
+            body.close();
+          } catch (IOException e) {
+            logger.fine("Error closing an expired response body: " + e);
+          }
+        },
+        deadlineNanos - System.nanoTime(),
+        TimeUnit.NANOSECONDS);
   }
 
-  public Map<String, Object> post(String path, Map<String, Object> payload)
+  private HttpRequest newAuthorizedRequest(String uri, String method, Map<String, Object> payload)
+      throws URISyntaxException, IOException {
+    GcpTokenProvider.AccessToken token = tokenProvider.current();
+    if (token == null) {
+      throw new IOException("No GCP access token is available yet.");
+    }
+    return newRequest(uri, method, Map.of("Authorization", "Bearer " + token.value()), payload);
+  }
+
+  /**
+   * Sends an authorized request, and reads the JSON response with the given reader as it streams
+   * in. Large responses are never held in memory as a whole.
+   *
+   * @param uri the URI to fetch.
+   * @param method GET, POST or DELETE.
+   * @param payload the JSON payload for a POST, or null.
+   * @param bodyReader reads the response.
+   * @return the value returned by the body reader.
+   * @throws IOException if the request fails, the status is not 2xx, or the body cannot be read.
+   */
+  public <T> T fetch(
+      String uri, String method, Map<String, Object> payload, JsonBodyReader<T> bodyReader)
       throws URISyntaxException, IOException, InterruptedException {
-    return fetch(path, "POST", payload);
+    long deadlineNanos = System.nanoTime() + requestTimeout.toNanos();
+    HttpRequest request = newAuthorizedRequest(uri, method, payload);
+    return readJson(
+        request,
+        client.send(request, HttpResponse.BodyHandlers.ofInputStream()),
+        bodyReader,
+        deadlineNanos);
   }
 
   /**
-   * Executes an external command and returns its standard output as a String. This method blocks
-   * until the command completes.
+   * Like {@link #fetch(String, String, Map, JsonBodyReader)}, but without blocking the caller, so
+   * that several fetches can overlap on the shared client.
    *
-   * @param command The command and its arguments to execute (e.g., "gcloud", "auth",
-   *     "print-identity-token").
-   * @return The standard output of the command, trimmed of leading/trailing whitespace.
-   * @throws IOException If an I/O error occurs during process creation or stream reading.
-   * @throws InterruptedException If the current thread is interrupted while waiting for the process
-   *     to complete.
-   * @throws RuntimeException If the command execution fails (non-zero exit code).
+   * @return a future for the value returned by the body reader. It completes exceptionally if the
+   *     request fails, or the status is not 2xx.
    */
-  private static String executeCommand(String... command) { // Changed to static method
+  public <T> CompletableFuture<T> fetchAsync(
+      String uri, String method, Map<String, Object> payload, JsonBodyReader<T> bodyReader) {
+    long deadlineNanos = System.nanoTime() + requestTimeout.toNanos();
+    HttpRequest request;
     try {
-      ProcessBuilder processBuilder = new ProcessBuilder(command);
-      logger.info(String.format("Executing command: %s", String.join(" ", command)));
-
-      Function<InputStream, String> slurp =
-          inputStream -> {
-            try {
-              StringBuilder output = new StringBuilder();
-              // Use try-with-resources to ensure the reader is closed automatically
-              try (BufferedReader reader =
-                  new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                  output.append(line).append(System.lineSeparator()); // Append lines as they come
-                }
+      request = newAuthorizedRequest(uri, method, payload);
+    } catch (URISyntaxException | IOException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    return client
+        .sendAsync(request, HttpResponse.BodyHandlers.ofInputStream())
+        .thenApplyAsync(
+            response -> {
+              try {
+                return readJson(request, response, bodyReader, deadlineNanos);
+              } catch (IOException e) {
+                throw new UncheckedIOException(e);
               }
-              return output.toString().trim();
-            } catch (java.lang.Exception exc1) {
-              logger.severe(String.format("Exception in slurp: %s", exc1.toString()));
-              return null;
-            }
-          };
-
-      Process process = processBuilder.start();
-      String output = slurp.apply(process.getInputStream());
-      boolean finished = process.waitFor(60, TimeUnit.SECONDS);
-      if (!finished) {
-        process.destroyForcibly();
-        throw new RuntimeException("Command timed out: " + String.join(" ", command));
-      }
-      int exitCode = process.exitValue();
+            },
+            bodyReaders);
+  }
 
-      if (exitCode != 0) {
-        // Read the error stream for more details if the command failed
-        String errorOutput = slurp.apply(process.getErrorStream());
-        throw new RuntimeException(
-            String.format(
-                "Command failed with exit code %d. [%s] error:%s",
-                exitCode, String.join(" ", command), errorOutput));
-      }
+  public Map<String, Object> fetch(String uri, String method, Map<String, Object> payload)
+      throws URISyntaxException, IOException, InterruptedException {
+    return fetch(uri, method, payload, reader -> gson.fromJson(reader, mapType));
+  }
 
-      return output;
-    } catch (java.lang.Exception exc1) {
-      logger.severe(String.format("Exception executing command: %s", exc1.toString()));
-      exc1.printStackTrace();
-    }
-    return null;
+  public CompletableFuture<Map<String, Object>> fetchAsync(
+      String uri, String method, Map<String, Object> payload) {
+    return fetchAsync(uri, method, payload, reader -> gson.fromJson(reader, mapType));
+  }
+
+  public <T> T get(String path, JsonBodyReader<T> bodyReader)
+      throws URISyntaxException, IOException, InterruptedException {
+    return fetch(path, "GET", null, bodyReader);
+  }
+
+  public <T> CompletableFuture<T> getAsync(String path, JsonBodyReader<T> bodyReader) {
+    return fetchAsync(path, "GET", null, bodyReader);
+  }
+
+  public Map<String, Object> get(String path)
+      throws URISyntaxException, IOException, InterruptedException {
+    return fetch(path, "GET", null);
+  }
+
+  public Map<String, Object> post(String path, Map<String, Object> payload)
+      throws URISyntaxException, IOException, InterruptedException {
+    return fetch(path, "POST", payload);
   }
 }
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.example;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A {@link KeySource} that reads a local key file, in one of the {@link KeyFileFormat}s chosen by
+ * its extension: for example a file mounted from a ConfigMap or Secret, in a deployment that should
+ * not depend on the Sheets API.
+ *
+ * <p>The source watches the directory that holds the file, and asks for a reload as soon as the
+ * file is created, modified, or replaced, rather than waiting for the refresh schedule. Events that
+ * arrive close together, as when an editor or a ConfigMap update writes the file in several steps,
+ * are coalesced into one reload. Each load is built as a delta from the previous snapshot, so a
+ * reload that finds the same keys returns the previous snapshot unchanged.
+ */
+public final class FileKeySource implements KeySource {
+  private static final Logger logger = Logger.getLogger(FileKeySource.class.getName());
+  private static final long DEBOUNCE_MILLIS = 100;
+
+  private final Path path;
+  private final KeyFileFormat format;
+  private final boolean offHeap;
+
+  /**
+   * @param path the key file. Files ending in .json are read as JSON, others as CSV.
+   */
+  public FileKeySource(Path path) {
+    this(path, false);
+  }
+
+  /**
+   * @param path the key file.
+   * @param offHeap true to hold the keys in an {@link OffHeapKeyTable}.
+   */
+  public FileKeySource(Path path, boolean offHeap) {
+    this.path = path.toAbsolutePath();
+    this.format = KeyFileFormat.forName(path.getFileName().toString());
+    this.offHeap = offHeap;
+  }
+
+  @Override
+  public String describe() {
+    return "file " + path;
+  }
+
+  @Override
+  public KeySnapshot load(KeySnapshot previous) throws IOException {
+    KeySnapshot.Builder builder = new KeySnapshot.Builder(offHeap);
+    try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+      format.read(reader, builder);
+    }
+    return builder.build(Instant.now().toString(), previous);
+  }
+
+  /**
+   * Starts a daemon thread that watches the directory of the key file, and calls onChange after
+   * each burst of changes to the file.
+   *
+   * @throws IllegalStateException if the directory cannot be watched.
+   */
+  @Override
+  public void watch(Runnable onChange) {
+    Path dir = path.getParent();
+    WatchService watcher;
+    try {
+      watcher = FileSystems.getDefault().newWatchService();
+      dir.register(
+          watcher,
+          StandardWatchEventKinds.ENTRY_CREATE,
+          StandardWatchEventKinds.ENTRY_MODIFY,
+          StandardWatchEventKinds.ENTRY_DELETE);
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot watch " + dir, e);
+    }
+    Thread thread = new Thread(() -> watchLoop(watcher, onChange), "key-file-watcher");
+    thread.setDaemon(true);
+    thread.start();
+    logger.info(String.format("watching %s for changes", path));
+  }
+
+  private void watchLoop(WatchService watcher, Runnable onChange) {
+    try {
+      while (true) {
+        WatchKey key = watcher.take();
+        boolean changed = drain(key);
+        // Wait for the burst to finish, so that a file written in several steps is read once.
+        while ((key = watcher.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+          changed |= drain(key);
+        }
+        if (changed) {
+          try {
+            onChange.run();
+          } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "reload after a change to " + path + " failed", e);
+          }
+        }
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      logger.info(String.format("stopped watching %s", path));
+    }
+  }
+
+  /** Reads and resets a signalled key; returns true if any event concerns the key file. */
+  private boolean drain(WatchKey key) {
+    boolean changed = false;
+    for (WatchEvent<?> event : key.pollEvents()) {
+      // An overflow means events were lost, any of which might have been for the file. A mounted
+      // ConfigMap replaces its files by swapping a "..data" symlink, not by writing the file.
+      changed |=
+          event.kind() == StandardWatchEventKinds.OVERFLOW
+              || path.getFileName().equals(event.context())
+              || event.context().toString().startsWith("..");
+    }
+    key.reset();
+    return changed;
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * A {@link QuotaStore} in a local file, which several processes on one machine can share, to try
+ * out cluster quotas without a shared service. Each call locks the file, reads it, adds the deltas,
+ * and writes it back, without the windows that have ended, so the file holds only the keys in use.
+ * It has a line for each key: the key, the end of its latest window, and the count.
+ */
+public final class FileQuotaStore implements QuotaStore {
+  // A file lock is held by the whole process, so stores in one process also lock in memory.
+  private static final Map<Path, Object> processLocks = new ConcurrentHashMap<>();
+
+  private final Path path;
+  private final LongSupplier clock;
+
+  public FileQuotaStore(Path path) {
+    this(path, System::currentTimeMillis);
+  }
+
+  /** With the time in millis, to decide which windows have ended, from the given clock. */
+  FileQuotaStore(Path path, LongSupplier clock) {
+    this.path = path.toAbsolutePath();
+    this.clock = clock;
+  }
+
+  @Override
+  public Map<Counter, Long> addAndGet(Map<Counter, Long> deltas) throws IOException {
+    synchronized (processLocks.computeIfAbsent(path, p -> new Object())) {
+      try (FileChannel channel =
+              FileChannel.open(
+                  path,
+                  StandardOpenOption.CREATE,
+                  StandardOpenOption.READ,
+                  StandardOpenOption.WRITE)) {
+        FileLock lock = channel.lock();
+        try {
+          Map<String, long[]> windows = read(channel);
+          Map<Counter, Long> totals = new HashMap<>(deltas.size());
+          deltas.forEach(
+              (counter, delta) ->
+                  totals.put(counter, InMemoryQuotaStore.add(windows, counter, delta)));
+          long now = clock.getAsLong();
+          windows.values().removeIf(window -> window[0] <= now);
+          write(channel, windows);
+          return totals;
+        } finally {
+          lock.release();
+        }
+      }
+    }
+  }
+
+  private static Map<String, long[]> read(FileChannel channel) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+    while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) {}
+    Map<String, long[]> windows = new HashMap<>();
+    String text = new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+    for (String line : text.split("\n")) {
+      String[] fields = line.split(" ");
+      if (fields.length == 3) {
+        try {
+          windows.put(
+              fields[0], new long[] {Long.parseLong(fields[1]), Long.parseLong(fields[2])});
+        } catch (NumberFormatException e) {
+          throw new IOException("Not a quota file: " + line, e);
+        }
+      }
+    }
+    return windows;
+  }
+
+  private static void write(FileChannel channel, Map<String, long[]> windows) throws IOException {
+    StringBuilder text = new StringBuilder();
+    windows.forEach(
+        (key, window) ->
+            text.append(key)
+                .append(' ')
+                .append(window[0])
+                .append(' ')
+                .append(window[1])
+                .append('\n'));
+    ByteBuffer buffer = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+    channel.truncate(0);
+    while (buffer.hasRemaining()) {
+      channel.write(buffer, buffer.position());
+    }
+  }
+}
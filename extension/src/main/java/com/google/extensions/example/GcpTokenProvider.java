@@ -0,0 +1,400 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.example;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * GcpTokenProvider keeps a GCP access token in the CacheService, under {@link #CACHE_KEY}.
+ *
+ * <p>Each token is an {@link AccessToken} that carries the expiry the token endpoint reported, so
+ * the CacheService fetches the next token in the background well before the current one expires,
+ * and keeps serving the current one meanwhile. The token comes from the first source that is
+ * configured:
+ *
+ * <ol>
+ *   <li>the metadata server, on Cloud Run, or the emulator named by GCE_METADATA_HOST;
+ *   <li>the service account key, or the authorized user, in the GOOGLE_APPLICATION_CREDENTIALS
+ *       file, exchanged for a token over HTTPS with no external process;
+ *   <li>as a last resort, {@code gcloud auth print-access-token}, impersonating SA_EMAIL.
+ * </ol>
+ */
+final class GcpTokenProvider {
+  private static final Logger logger = Logger.getLogger(GcpTokenProvider.class.getName());
+  private static final Gson gson = new Gson();
+  private static final Type mapType = new TypeToken<HashMap<String, Object>>() {}.getType();
+  static final String CACHE_KEY = "gcptoken";
+  static final List<String> SCOPES =
+      List.of(
+          "https://www.googleapis.com/auth/spreadsheets.readonly",
+          "https://www.googleapis.com/auth/drive.metadata.readonly");
+  private static final String DEFAULT_METADATA_HOST = "metadata.google.internal";
+  private static final String DEFAULT_TOKEN_URI = "https://oauth2.googleapis.com/token";
+  private static final Duration ASSERTION_LIFETIME = Duration.ofHours(1);
+  // gcloud does not report the expiry; its tokens last an hour, and this is on the safe side.
+  private static final Duration GCLOUD_TOKEN_LIFETIME = Duration.ofMinutes(30);
+
+  /** An OAuth access token, and when it expires. */
+  record AccessToken(String value, Instant expiresAt) implements CacheService.Expiring {
+    @Override
+    public String toString() {
+      return String.format("AccessToken[expiresAt=%s]", expiresAt);
+    }
+  }
+
+  @FunctionalInterface
+  private interface TokenSource {
+    AccessToken fetch() throws Exception;
+  }
+
+  private final HttpClient client;
+  private final Duration requestTimeout;
+  private final Map<String, String> env;
+  private final String description;
+  private final TokenSource source;
+  private final CacheService.Handle<AccessToken> token;
+
+  /**
+   * Chooses the token source, and registers its loader with the CacheService.
+   *
+   * @param cache the CacheService to keep the token in.
+   * @param client the HTTP client to call token endpoints with.
+   * @param requestTimeout the timeout for each call to a token endpoint.
+   * @param env the environment, normally {@link System#getenv()}.
+   * @throws IllegalStateException if GOOGLE_APPLICATION_CREDENTIALS names a file that cannot be
+   *     used.
+   */
+  GcpTokenProvider(
+      CacheService cache, HttpClient client, Duration requestTimeout, Map<String, String> env) {
+    this.client = client;
+    this.requestTimeout = requestTimeout;
+    this.env = env;
+    String metadataHost = env.get("GCE_METADATA_HOST");
+    String credentialsFile = env.get("GOOGLE_APPLICATION_CREDENTIALS");
+    if (metadataHost != null || FetchService.isRunningInCloud()) {
+      String host = metadataHost != null ? metadataHost : DEFAULT_METADATA_HOST;
+      this.description = "the metadata server at " + host;
+      this.source = () -> fetchFromMetadataServer(host);
+    } else if (credentialsFile != null) {
+      Map<String, Object> credentials = readCredentials(Path.of(credentialsFile));
+      Object type = credentials.get("type");
+      if ("service_account".equals(type)) {
+        PrivateKey key = parsePrivateKey((String) credentials.get("private_key"));
+        this.description = "the service account " + credentials.get("client_email");
+        this.source = () -> fetchWithServiceAccount(credentials, key);
+      } else if ("authorized_user".equals(type)) {
+        this.description = "the authorized user in " + credentialsFile;
+        this.source = () -> fetchWithRefreshToken(credentials);
+      } else {
+        throw new IllegalStateException(
+            String.format("Unsupported credential type '%s' in %s", type, credentialsFile));
+      }
+    } else {
+      this.description = "gcloud";
+      this.source = this::fetchWithGcloud;
+    }
+    logger.info(String.format("GCP access tokens will come from %s.", description));
+    cache.registerLoader(
+        CACHE_KEY, (_ignoredKey) -> this.load(), GCLOUD_TOKEN_LIFETIME.toMinutes());
+    this.token = cache.handle(CACHE_KEY, AccessToken.class);
+  }
+
+  /** Returns the current token, or null if none has loaded yet. */
+  AccessToken current() {
+    return token.get();
+  }
+
+  private AccessToken load() {
+    try {
+      AccessToken accessToken = source.fetch();
+      logger.info(
+          String.format(
+              "Fetched a GCP access token from %s, expiring at %s.",
+              description, accessToken.expiresAt()));
+      return accessToken;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while fetching a GCP access token.", e);
+    } catch (Exception e) {
+      throw new RuntimeException("Cannot fetch a GCP access token from " + description, e);
+    }
+  }
+
+  private AccessToken fetchFromMetadataServer(String host) throws Exception {
+    String uri =
+        String.format(
+            "http://%s/computeMetadata/v1/instance/service-accounts/default/token?scopes=%s",
+            host, String.join(",", SCOPES));
+    HttpRequest request =
+        HttpRequest.newBuilder()
+            .uri(new URI(uri))
+            .version(HttpClient.Version.HTTP_1_1)
+            .timeout(requestTimeout)
+            .header("Metadata-Flavor", "Google")
+            .GET()
+            .build();
+    return send(request);
+  }
+
+  private AccessToken fetchWithServiceAccount(Map<String, Object> credentials, PrivateKey key)
+      throws Exception {
+    String tokenUri = (String) credentials.getOrDefault("token_uri", DEFAULT_TOKEN_URI);
+    String assertion =
+        serviceAccountAssertion(
+            (String) credentials.get("client_email"),
+            (String) credentials.get("private_key_id"),
+            key,
+            tokenUri,
+            Instant.now());
+    return postForm(
+        tokenUri,
+        Map.of(
+            "grant_type", "urn:ietf:params:oauth:grant-type:jwt-bearer",
+            "assertion", assertion));
+  }
+
+  private AccessToken fetchWithRefreshToken(Map<String, Object> credentials) throws Exception {
+    return postForm(
+        (String) credentials.getOrDefault("token_uri", DEFAULT_TOKEN_URI),
+        Map.of(
+            "grant_type", "refresh_token",
+            "client_id", (String) credentials.get("client_id"),
+            "client_secret", (String) credentials.get("client_secret"),
+            "refresh_token", (String) credentials.get("refresh_token")));
+  }
+
+  private AccessToken fetchWithGcloud() {
+    String project = env.get("PROJECT_ID");
+    if (project == null) {
+      throw new RuntimeException("No PROJECT_ID set... cannot continue.");
+    }
+    String sa_email = env.get("SA_EMAIL");
+    if (sa_email == null) {
+      throw new RuntimeException("No SA_EMAIL set... cannot continue.");
+    }
+    Instant requestedAt = Instant.now();
+    String value =
+        executeCommand(
+            "gcloud",
+            "auth",
+            "print-access-token",
+            "--impersonate-service-account",
+            sa_email,
+            "--project",
+            project,
+            "--scopes",
+            String.join(",", SCOPES),
+            "--quiet");
+    return value == null ? null : new AccessToken(value, requestedAt.plus(GCLOUD_TOKEN_LIFETIME));
+  }
+
+  private AccessToken postForm(String uri, Map<String, String> form) throws Exception {
+    String body =
+        form.entrySet().stream()
+            .map(
+                e ->
+                    URLEncoder.encode(e.getKey(), StandardCharsets.UTF_8)
+                        + "="
+                        + URLEncoder.encode(e.getValue(), StandardCharsets.UTF_8))
+            .collect(Collectors.joining("&"));
+    HttpRequest request =
+        HttpRequest.newBuilder()
+            .uri(new URI(uri))
+            .timeout(requestTimeout)
+            .header("Content-Type", "application/x-www-form-urlencoded")
+            .POST(HttpRequest.BodyPublishers.ofString(body))
+            .build();
+    return send(request);
+  }
+
+  private AccessToken send(HttpRequest request) throws IOException, InterruptedException {
+    // The expiry counts from before the request, to be on the safe side.
+    Instant requestedAt = Instant.now();
+    HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+    if (response.statusCode() / 100 != 2) {
+      throw new IOException(
+          String.format(
+              "%s %s returned status %d", request.method(), request.uri(), response.statusCode()));
+    }
+    return toAccessToken(gson.fromJson(response.body(), mapType), requestedAt);
+  }
+
+  /**
+   * Reads a token endpoint response.
+   *
+   * @param response the parsed JSON response, with access_token and expires_in.
+   * @param requestedAt when the token was requested; expires_in counts from then.
+   * @return the token.
+   * @throws IOException if the response has no access_token.
+   */
+  static AccessToken toAccessToken(Map<String, Object> response, Instant requestedAt)
+      throws IOException {
+    Object value = response != null ? response.get("access_token") : null;
+    if (!(value instanceof String accessToken)) {
+      throw new IOException("The token response has no access_token.");
+    }
+    Object expiresIn = response.get("expires_in");
+    long seconds =
+        expiresIn instanceof Number number ? number.longValue() : GCLOUD_TOKEN_LIFETIME.toSeconds();
+    return new AccessToken(accessToken, requestedAt.plusSeconds(seconds));
+  }
+
+  private static Map<String, Object> readCredentials(Path file) {
+    try {
+      return gson.fromJson(Files.readString(file), mapType);
+    } catch (IOException | RuntimeException e) {
+      throw new IllegalStateException("Cannot read the credentials in " + file, e);
+    }
+  }
+
+  static PrivateKey parsePrivateKey(String pem) {
+    try {
+      String base64 = pem.replaceAll("-----[A-Z ]+-----", "").replaceAll("\\s", "");
+      return KeyFactory.getInstance("RSA")
+          .generatePrivate(new PKCS8EncodedKeySpec(Base64.getDecoder().decode(base64)));
+    } catch (GeneralSecurityException | RuntimeException e) {
+      throw new IllegalStateException("Cannot read the service account private key.", e);
+    }
+  }
+
+  /**
+   * Builds the signed JWT that a service account exchanges for an access token.
+   *
+   * @return the assertion, in compact form.
+   */
+  static String serviceAccountAssertion(
+      String clientEmail, String keyId, PrivateKey key, String audience, Instant now)
+      throws GeneralSecurityException {
+    Map<String, Object> header = new LinkedHashMap<>();
+    header.put("alg", "RS256");
+    header.put("typ", "JWT");
+    if (keyId != null) {
+      header.put("kid", keyId);
+    }
+    Map<String, Object> claims = new LinkedHashMap<>();
+    claims.put("iss", clientEmail);
+    claims.put("scope", String.join(" ", SCOPES));
+    claims.put("aud", audience);
+    claims.put("iat", now.getEpochSecond());
+    claims.put("exp", now.plus(ASSERTION_LIFETIME).getEpochSecond());
+
+    Base64.Encoder base64 = Base64.getUrlEncoder().withoutPadding();
+    String signingInput =
+        base64.encodeToString(gson.toJson(header).getBytes(StandardCharsets.UTF_8))
+            + "."
+            + base64.encodeToString(gson.toJson(claims).getBytes(StandardCharsets.UTF_8));
+    Signature signer = Signature.getInstance("SHA256withRSA");
+    signer.initSign(key);
+    signer.update(signingInput.getBytes(StandardCharsets.US_ASCII));
+    return signingInput + "." + base64.encodeToString(signer.sign());
+  }
+
+  /**
+   * Executes an external command and returns its standard output as a String. This method blocks
+   * until the command completes.
+   *
+   * @param command The command and its arguments to execute (e.g., "gcloud", "auth",
+   *     "print-identity-token").
+   * @return The standard output of the command, trimmed of leading/trailing whitespace.
+   * @throws IOException If an I/O error occurs during process creation or stream reading.
+   * @throws InterruptedException If the current thread is interrupted while waiting for the process
+   *     to complete.
+   * @throws RuntimeException If the command execution fails (non-zero exit code).
+   */
+  private static String executeCommand(String... command) {
+    try {
+      ProcessBuilder processBuilder = new ProcessBuilder(command);
+      logger.info(String.format("Executing command: %s", String.join(" ", command)));
+
+      Function<InputStream, String> slurp =
+          inputStream -> {
+            try {
+              StringBuilder output = new StringBuilder();
+              // Use try-with-resources to ensure the reader is closed automatically
+              try (BufferedReader reader =
+                  new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                  output.append(line).append(System.lineSeparator()); // Append lines as they come
+                }
+              }
+              return output.toString().trim();
+            } catch (java.lang.Exception exc1) {
+              logger.severe(String.format("Exception in slurp: %s", exc1.toString()));
+              return null;
+            }
+          };
+
+      Process process = processBuilder.start();
+      String output = slurp.apply(process.getInputStream());
+      boolean finished = process.waitFor(60, TimeUnit.SECONDS);
+      if (!finished) {
+        process.destroyForcibly();
+        throw new RuntimeException("Command timed out: " + String.join(" ", command));
+      }
+      int exitCode = process.exitValue();
+
+      if (exitCode != 0) {
+        // Read the error stream for more details if the command failed
+        String errorOutput = slurp.apply(process.getErrorStream());
+        throw new RuntimeException(
+            String.format(
+                "Command failed with exit code %d. [%s] error:%s",
+                exitCode, String.join(" ", command), errorOutput));
+      }
+
+      return output;
+    } catch (java.lang.Exception exc1) {
+      logger.log(
+          Level.SEVERE,
+          String.format("Exception executing command: %s", String.join(" ", command)),
+          exc1);
+    }
+    return null;
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.example;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link QuotaStore} in memory, for tests, or for several {@link ClusterQuota}s in one process.
+ * It keeps the latest window of each key.
+ */
+public final class InMemoryQuotaStore implements QuotaStore {
+  // The latest window of each key, and its count.
+  private final Map<String, long[]> windows = new HashMap<>();
+
+  @Override
+  public synchronized Map<Counter, Long> addAndGet(Map<Counter, Long> deltas) {
+    Map<Counter, Long> totals = new HashMap<>(deltas.size());
+    deltas.forEach((counter, delta) -> totals.put(counter, add(windows, counter, delta)));
+    return totals;
+  }
+
+  /**
+   * Adds to a counter in a map of the latest window of each key, and returns the new total.
+   * Shared with {@link FileQuotaStore}.
+   */
+  static long add(Map<String, long[]> windows, Counter counter, long delta) {
+    long[] window = windows.get(counter.key());
+    if (window == null || window[0] < counter.windowEndMillis()) {
+      window = new long[] {counter.windowEndMillis(), 0};
+      windows.put(counter.key(), window);
+    } else if (window[0] > counter.windowEndMillis()) {
+      return 0;
+    }
+    window[1] += delta;
+    return window[1];
+  }
+}
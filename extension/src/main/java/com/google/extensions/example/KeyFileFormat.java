@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.example;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The formats of local key files. Both hold the same rows as the key sheet: the API key, the
+ * allowed path, the comma-separated allowed methods, and optionally a {@link RateLimit}.
+ *
+ * <ul>
+ *   <li>JSON: an array of rows, each an array of strings, or a Sheets ValueRange object with such
+ *       an array as its "values", so that a saved API response can be used as is.
+ *   <li>CSV: one row per line, such as {@code key,/v1/*,"GET,POST",10/s}. The methods may also
+ *       be left unquoted. Blank lines and lines starting with # are ignored.
+ * </ul>
+ */
+enum KeyFileFormat {
+  JSON {
+    @Override
+    void read(Reader reader, KeySnapshot.Builder builder) throws IOException {
+      JsonReader json = new JsonReader(reader);
+      if (json.peek() == JsonToken.BEGIN_ARRAY) {
+        SheetValues.readRows(json, builder, null);
+      } else {
+        SheetValues.readValueRange(json, builder);
+      }
+    }
+  },
+  CSV {
+    @Override
+    void read(Reader reader, KeySnapshot.Builder builder) throws IOException {
+      BufferedReader lines = new BufferedReader(reader);
+      String line;
+      while ((line = lines.readLine()) != null) {
+        String trimmed = line.strip();
+        if (!trimmed.isEmpty() && !trimmed.startsWith("#")) {
+          builder.addRow(parseCsvLine(trimmed));
+        }
+      }
+    }
+  };
+
+  /**
+   * Reads the rows of a key file into the builder.
+   *
+   * @throws IOException if the file cannot be read.
+   * @throws IllegalStateException if a JSON file does not have the expected shape.
+   */
+  abstract void read(Reader reader, KeySnapshot.Builder builder) throws IOException;
+
+  /** Chooses the format from the file name: JSON for .json, CSV otherwise. */
+  static KeyFileFormat forName(String name) {
+    return name.toLowerCase(Locale.ROOT).endsWith(".json") ? JSON : CSV;
+  }
+
+  /**
+   * Splits a CSV line into the key, the path, the methods, and the rate limit if there is one. The
+   * methods need not be quoted: the fields after the path are all methods, except a last one that
+   * starts with a digit, which is the rate limit. A rate limit that does not parse is passed on
+   * as is, to be logged and ignored like one read from the sheet.
+   */
+  static List<String> parseCsvLine(String line) {
+    List<String> fields = new ArrayList<>(4);
+    StringBuilder field = new StringBuilder();
+    boolean quoted = false;
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (quoted) {
+        if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+          field.append('"');
+          i++;
+        } else if (c == '"') {
+          quoted = false;
+        } else {
+          field.append(c);
+        }
+      } else if (c == '"') {
+        quoted = true;
+      } else if (c == ',') {
+        fields.add(field.toString().strip());
+        field.setLength(0);
+      } else {
+        field.append(c);
+      }
+    }
+    fields.add(field.toString().strip());
+    if (fields.size() <= 3) {
+      return fields;
+    }
+    int methodsEnd = fields.size();
+    if (isRateLimitField(fields.get(methodsEnd - 1))) {
+      methodsEnd--;
+    }
+    List<String> row = new ArrayList<>(4);
+    row.add(fields.get(0));
+    row.add(fields.get(1));
+    row.add(String.join(",", fields.subList(2, methodsEnd)));
+    if (methodsEnd < fields.size()) {
+      row.add(fields.get(methodsEnd));
+    }
+    return row;
+  }
+
+  // HTTP methods are tokens of letters, so a field that starts with a digit is a rate limit.
+  private static boolean isRateLimitField(String field) {
+    return !field.isEmpty() && Character.isDigit(field.charAt(0));
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.example;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Enforces a {@link RateLimit} for one API key, without locks, using the generic cell rate
+ * algorithm (GCRA). The whole state of a bucket is a single long, the theoretical arrival time of
+ * the next request; admitting a request is one read and one compare-and-set that moves it on by
+ * the emission interval, and a request is refused when that time is further ahead than the burst
+ * allows.
+ *
+ * <p>A busy key would make every core contend for that one long, so the limiter splits the limit
+ * as evenly as it can over several stripes, each a bucket of its own on its own cache line, with
+ * any remainder of the burst in the first stripes. A thread starts at the stripe chosen by its id,
+ * and tries the others only when that one is exhausted, so the limit as a whole is still exact.
+ * Each stripe must be able to hold at least one request, so a limit of a few requests per period
+ * has fewer stripes.
+ */
+public final class KeyRateLimiter {
+  // Longs per stripe: one to use, the rest to keep stripes on separate cache lines.
+  private static final int PADDING = 8;
+  private static final int MAX_STRIPES =
+      Math.min(16, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1));
+
+  private final RateLimit limit;
+  private final long origin = System.nanoTime();
+  private final AtomicLongArray theoreticalArrival;
+  private final int mask;
+  private final long intervalNanos;
+  private final long toleranceNanos;
+  // The stripes, the first ones, that hold one request more than the others.
+  private final int largerStripes;
+
+  public KeyRateLimiter(RateLimit limit) {
+    this(limit, MAX_STRIPES);
+  }
+
+  KeyRateLimiter(RateLimit limit, int maxStripes) {
+    this.limit = limit;
+    int stripes = (int) Math.min(maxStripes, Long.highestOneBit(limit.permits()));
+    this.mask = stripes - 1;
+    this.theoreticalArrival = new AtomicLongArray(stripes * PADDING);
+    // Each stripe admits its share of the requests in each period, all at once if it is idle;
+    // when the permits do not divide evenly, the first stripes take one more each.
+    long burst = limit.permits() / stripes;
+    this.largerStripes = (int) (limit.permits() % stripes);
+    this.intervalNanos = Math.max(1, limit.period().toNanos() * stripes / limit.permits());
+    this.toleranceNanos = intervalNanos * (burst - 1);
+  }
+
+  public RateLimit limit() {
+    return limit;
+  }
+
+  /**
+   * Admits a request, if the limit allows it.
+   *
+   * @return 0 if the request is admitted; otherwise the nanoseconds until one would be.
+   */
+  public long tryAcquire() {
+    long now = System.nanoTime() - origin;
+    int first = (int) Thread.currentThread().threadId() & mask;
+    long wait = tryAcquire(first, now);
+    if (wait == 0 || mask == 0) {
+      return wait;
+    }
+    for (int i = 1; i <= mask; i++) {
+      long next = tryAcquire((first + i) & mask, now);
+      if (next == 0) {
+        return 0;
+      }
+      wait = Math.min(wait, next);
+    }
+    return wait;
+  }
+
+  /** Returns the whole seconds until a request would be admitted, for a Retry-After header. */
+  static long retryAfterSeconds(long waitNanos) {
+    return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+  }
+
+  private long tryAcquire(int stripe, long now) {
+    int index = stripe * PADDING;
+    long tolerance = stripe < largerStripes ? toleranceNanos + intervalNanos : toleranceNanos;
+    while (true) {
+      long tat = theoreticalArrival.get(index);
+      long start = Math.max(tat, now);
+      if (start - now > tolerance) {
+        return start - now - tolerance;
+      }
+      if (theoreticalArrival.compareAndSet(index, tat, start + intervalNanos)) {
+        return 0;
+      }
+    }
+  }
+}
@@ -0,0 +1,495 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.example;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.google.protobuf.ByteString;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.logging.Logger;
+import utils.PersistentHashMap;
+
+/**
+ * An immutable, compiled view of the API keys loaded from the key store.
+ *
+ * <p>Each load produces a new snapshot; the rows are grouped by API key and the routes for each key
+ * are compiled once into a {@link RouteMatcher}. Request handling then needs only a single hash
+ * lookup to find the grants for a key, and a single walk of the path to check them. Snapshots are
+ * never modified after construction, so they can be swapped into the {@link CacheService} and read
+ * concurrently without locking.
+ *
+ * <p>Each snapshot also carries a Bloom filter over its keys, so that a key which is definitely
+ * unknown can be rejected via {@link #mightContain(String)} before any other work is done.
+ *
+ * <p>A snapshot can be built as a delta from the one before it, with {@link Builder#build(String,
+ * KeySnapshot)}. The keys are held in a {@link PersistentHashMap}, so the new snapshot shares the
+ * compiled grants of every unchanged key, and the map nodes that hold them, with the previous one.
+ * Keys added since the Bloom filter was built are tracked beside it, until there are enough
+ * changes to make rebuilding the filter worthwhile. The keys that changed are available from
+ * {@link #changedKeysSince(KeySnapshot)}, so that caches derived from the previous snapshot can
+ * drop only what is affected.
+ *
+ * <p>For very large key sets, a snapshot can instead hold its keys in an {@link OffHeapKeyTable},
+ * built by a {@link Builder#Builder(boolean) Builder(true)}. Such a snapshot keeps only digests of
+ * the keys, outside the heap, and needs no Bloom filter, since a lookup in the table is as cheap
+ * and exact. Its keys cannot be enumerated, so it cannot be saved by the {@link KeySnapshotStore},
+ * and it is always built in full, never as a delta.
+ */
+public final class KeySnapshot {
+  private static final Logger logger = Logger.getLogger(KeySnapshot.class.getName());
+  private static final double BLOOM_FALSE_POSITIVE_RATE = 0.01;
+  // Rebuild the Bloom filter once the changes since it was built exceed 1/8 of the keys.
+  private static final int FILTER_DRIFT_DIVISOR = 8;
+  private static final int MIN_FILTER_DRIFT = 1024;
+  private static final AtomicLong generations = new AtomicLong();
+
+  private final PersistentHashMap<String, KeyGrants> grantsByKey;
+  private final BloomFilter<CharSequence> knownKeys;
+  // Keys added since the Bloom filter was built, and the number of keys added or removed since.
+  private final PersistentHashMap<String, Boolean> keysAddedSinceFilter;
+  private final int filterDrift;
+  private final String loadedAt;
+  private final int rowCount;
+  private final long generation = generations.incrementAndGet();
+  // The generation this snapshot is a delta from, and the keys that differ from it; or 0 and null.
+  private final long baseGeneration;
+  private final Set<String> changedKeys;
+  // Holds the keys instead of the map and the filter; or null.
+  private final OffHeapKeyTable offHeapKeys;
+
+  private KeySnapshot(
+      PersistentHashMap<String, KeyGrants> grantsByKey,
+      BloomFilter<CharSequence> knownKeys,
+      PersistentHashMap<String, Boolean> keysAddedSinceFilter,
+      int filterDrift,
+      String loadedAt,
+      int rowCount,
+      long baseGeneration,
+      Set<String> changedKeys,
+      OffHeapKeyTable offHeapKeys) {
+    this.grantsByKey = grantsByKey;
+    this.knownKeys = knownKeys;
+    this.keysAddedSinceFilter = keysAddedSinceFilter;
+    this.filterDrift = filterDrift;
+    this.loadedAt = loadedAt;
+    this.rowCount = rowCount;
+    this.baseGeneration = baseGeneration;
+    this.changedKeys = changedKeys;
+    this.offHeapKeys = offHeapKeys;
+  }
+
+  /**
+   * Checks the membership filter for a key. A false result means the key is definitely not in this
+   * snapshot; a true result means it probably is.
+   *
+   * @param apikey the API key presented by the client.
+   * @return false if the key is definitely unknown.
+   */
+  public boolean mightContain(String apikey) {
+    if (offHeapKeys != null) {
+      return offHeapKeys.find(apikey) != null;
+    }
+    return knownKeys.mightContain(apikey)
+        || (!keysAddedSinceFilter.isEmpty() && keysAddedSinceFilter.containsKey(apikey));
+  }
+
+  /**
+   * Returns the grants for the given API key.
+   *
+   * @param apikey the API key presented by the client.
+   * @return the compiled grants, or null if the key is not known.
+   */
+  public KeyGrants grantsFor(String apikey) {
+    return offHeapKeys != null ? offHeapKeys.find(apikey) : grantsByKey.get(apikey);
+  }
+
+  /**
+   * Returns the grants for an API key given as the UTF-8 bytes of the request header. An off-heap
+   * snapshot hashes the bytes as they are; otherwise they are decoded first.
+   *
+   * @param apikey the API key presented by the client.
+   * @return the compiled grants, or null if the key is not known.
+   */
+  public KeyGrants grantsFor(ByteString apikey) {
+    return offHeapKeys != null ? offHeapKeys.find(apikey) : grantsByKey.get(apikey.toStringUtf8());
+  }
+
+  /** Returns true if the keys are held in an {@link OffHeapKeyTable}. */
+  public boolean isOffHeap() {
+    return offHeapKeys != null;
+  }
+
+  /** Returns a description of when this snapshot was loaded; "startup" for the fixed keys. */
+  public String loadedAt() {
+    return loadedAt;
+  }
+
+  public int keyCount() {
+    return offHeapKeys != null ? offHeapKeys.size() : grantsByKey.size();
+  }
+
+  public int rowCount() {
+    return rowCount;
+  }
+
+  /**
+   * Returns the keys whose grants differ between the given snapshot and this one, including keys
+   * added or removed, if this snapshot was built as a delta from it.
+   *
+   * @param previous the snapshot this one replaces.
+   * @return the changed keys, or null if this snapshot was not built from previous, in which case
+   *     any key may have changed.
+   */
+  public Set<String> changedKeysSince(KeySnapshot previous) {
+    return previous != null && baseGeneration == previous.generation ? changedKeys : null;
+  }
+
+  /**
+   * Calls the action for each key and its grants, in no particular order.
+   *
+   * @throws UnsupportedOperationException if the snapshot is off-heap, and has no keys to give.
+   */
+  public void forEach(BiConsumer<String, KeyGrants> action) {
+    if (offHeapKeys != null) {
+      throw new UnsupportedOperationException("An off-heap snapshot holds only digests of keys.");
+    }
+    grantsByKey.forEach(action);
+  }
+
+  /**
+   * Compiles a snapshot from the rows returned by the Sheets API. Each row is expected to hold the
+   * API key, the allowed path, a comma-separated list of allowed methods, and optionally a {@link
+   * RateLimit} for the key.
+   *
+   * @param rows the rows of the key range. Null is treated as empty.
+   * @param loadedAt a description of when the rows were loaded.
+   * @return the compiled snapshot.
+   */
+  public static KeySnapshot fromRows(List<List<String>> rows, String loadedAt) {
+    Builder builder = new Builder();
+    if (rows != null) {
+      rows.forEach(builder::addRow);
+    }
+    return builder.build(loadedAt);
+  }
+
+  /**
+   * Accumulates key rows and compiles them into a {@link KeySnapshot}, either from scratch or as a
+   * delta from an earlier snapshot.
+   */
+  public static final class Builder {
+    private final Map<String, List<Grant>> rowsByKey = new LinkedHashMap<>();
+    // Takes the rows instead of rowsByKey when building an off-heap snapshot; or null.
+    private final OffHeapKeyTable.Builder offHeapRows;
+    private int rowCount;
+
+    public Builder() {
+      this(false);
+    }
+
+    /**
+     * @param offHeap true to build a snapshot that holds its keys in an {@link OffHeapKeyTable}.
+     */
+    public Builder(boolean offHeap) {
+      this.offHeapRows = offHeap ? new OffHeapKeyTable.Builder() : null;
+    }
+
+    public Builder addRow(List<String> keyrow) {
+      if (keyrow == null || keyrow.isEmpty()) {
+        return this;
+      }
+      rowCount++;
+      if (offHeapRows != null) {
+        offHeapRows.add(keyrow.get(0), keyrow.size() >= 3 ? grantOf(keyrow) : null);
+        return this;
+      }
+      List<Grant> grants = rowsByKey.computeIfAbsent(keyrow.get(0), k -> new ArrayList<>(1));
+      // A short row still marks the key as known, but grants no access.
+      if (keyrow.size() >= 3) {
+        grants.add(grantOf(keyrow));
+      }
+      return this;
+    }
+
+    private static Grant grantOf(List<String> keyrow) {
+      return new Grant(keyrow.get(1), keyrow.get(2), keyrow.size() >= 4 ? keyrow.get(3) : "");
+    }
+
+    /**
+     * Adds all the rows of another builder, after the rows already added. The other builder should
+     * not be used afterwards.
+     *
+     * @throws IllegalArgumentException if one builder is off-heap and the other is not.
+     */
+    public Builder addAll(Builder other) {
+      if ((offHeapRows == null) != (other.offHeapRows == null)) {
+        throw new IllegalArgumentException("Cannot merge off-heap and heap rows.");
+      }
+      if (offHeapRows != null) {
+        offHeapRows.addAll(other.offHeapRows);
+        rowCount += other.rowCount;
+        return this;
+      }
+      other.rowsByKey.forEach(
+          (key, grants) -> {
+            List<Grant> mine = rowsByKey.putIfAbsent(key, grants);
+            if (mine != null) {
+              mine.addAll(grants);
+            }
+          });
+      rowCount += other.rowCount;
+      return this;
+    }
+
+    public KeySnapshot build(String loadedAt) {
+      if (offHeapRows != null) {
+        return new KeySnapshot(
+            PersistentHashMap.empty(),
+            null,
+            PersistentHashMap.empty(),
+            0,
+            loadedAt,
+            rowCount,
+            0,
+            null,
+            offHeapRows.build());
+      }
+      PersistentHashMap.Builder<String, KeyGrants> map = PersistentHashMap.builder();
+      rowsByKey.forEach((key, grants) -> map.put(key, KeyGrants.compile(grants)));
+      PersistentHashMap<String, KeyGrants> grantsByKey = map.build();
+      return new KeySnapshot(
+          grantsByKey,
+          bloomFilterOf(grantsByKey),
+          PersistentHashMap.empty(),
+          0,
+          loadedAt,
+          rowCount,
+          0,
+          null,
+          null);
+    }
+
+    /**
+     * Compiles the rows as a delta from an earlier snapshot. Keys whose grants are unchanged keep
+     * their compiled grants from the base, so the work done, and the memory allocated, grows with
+     * the number of changed keys rather than the number of keys.
+     *
+     * <p>An off-heap snapshot is always built in full, and is compared with the base only to
+     * return the base if they hold the same keys and grants.
+     *
+     * @param loadedAt a description of when the rows were loaded.
+     * @param base the snapshot to build from, or null to build from scratch.
+     * @return the new snapshot; or the base itself, if the rows hold exactly its keys and grants.
+     */
+    public KeySnapshot build(String loadedAt, KeySnapshot base) {
+      if (base == null) {
+        return build(loadedAt);
+      }
+      if (offHeapRows != null) {
+        KeySnapshot snapshot = build(loadedAt);
+        return base.offHeapKeys != null
+                && base.rowCount == rowCount
+                && snapshot.offHeapKeys.sameEntriesAs(base.offHeapKeys)
+            ? base
+            : snapshot;
+      }
+      if (base.offHeapKeys != null) {
+        return build(loadedAt);
+      }
+      PersistentHashMap.Builder<String, KeyGrants> map = base.grantsByKey.toBuilder();
+      ImmutableSet.Builder<String> changed = ImmutableSet.builder();
+      PersistentHashMap.Builder<String, Boolean> added = base.keysAddedSinceFilter.toBuilder();
+      int retained = 0;
+      for (Map.Entry<String, List<Grant>> entry : rowsByKey.entrySet()) {
+        KeyGrants current = base.grantsByKey.get(entry.getKey());
+        if (current != null) {
+          retained++;
+          if (current.grants().equals(entry.getValue())) {
+            continue;
+          }
+        } else {
+          added.put(entry.getKey(), Boolean.TRUE);
+        }
+        map.put(entry.getKey(), KeyGrants.compile(entry.getValue(), current));
+        changed.add(entry.getKey());
+      }
+      if (retained < base.keyCount()) {
+        base.grantsByKey.forEach(
+            (key, grants) -> {
+              if (!rowsByKey.containsKey(key)) {
+                map.remove(key);
+                added.remove(key);
+                changed.add(key);
+              }
+            });
+      }
+      Set<String> changedKeys = changed.build();
+      if (changedKeys.isEmpty() && rowCount == base.rowCount) {
+        return base;
+      }
+
+      PersistentHashMap<String, KeyGrants> grantsByKey = map.build();
+      int filterDrift = base.filterDrift + changedKeys.size();
+      if (filterDrift > Math.max(MIN_FILTER_DRIFT, grantsByKey.size() / FILTER_DRIFT_DIVISOR)) {
+        return new KeySnapshot(
+            grantsByKey,
+            bloomFilterOf(grantsByKey),
+            PersistentHashMap.empty(),
+            0,
+            loadedAt,
+            rowCount,
+            base.generation,
+            changedKeys,
+            null);
+      }
+      // Removed keys stay in the shared filter; they are then found missing from the map.
+      return new KeySnapshot(
+          grantsByKey,
+          base.knownKeys,
+          added.build(),
+          filterDrift,
+          loadedAt,
+          rowCount,
+          base.generation,
+          changedKeys,
+          null);
+    }
+
+    private static BloomFilter<CharSequence> bloomFilterOf(
+        PersistentHashMap<String, KeyGrants> grantsByKey) {
+      BloomFilter<CharSequence> knownKeys =
+          BloomFilter.create(
+              Funnels.stringFunnel(StandardCharsets.UTF_8),
+              Math.max(grantsByKey.size(), 1),
+              BLOOM_FALSE_POSITIVE_RATE);
+      grantsByKey.forEach((key, grants) -> knownKeys.put(key));
+      return knownKeys;
+    }
+  }
+
+  /**
+   * The compiled grants for a single API key, and its rate limit. Unless the grants are shared by
+   * several keys, as in an off-heap snapshot, they also hold the limiter that enforces the limit.
+   */
+  public static final class KeyGrants {
+    private final List<Grant> grants;
+    private final RouteMatcher routes;
+    private final RateLimit rateLimit;
+    private final KeyRateLimiter rateLimiter;
+
+    private KeyGrants(
+        List<Grant> grants, RouteMatcher routes, RateLimit rateLimit, KeyRateLimiter rateLimiter) {
+      this.grants = grants;
+      this.routes = routes;
+      this.rateLimit = rateLimit;
+      this.rateLimiter = rateLimiter;
+    }
+
+    static KeyGrants compile(List<Grant> grants) {
+      return compile(grants, null);
+    }
+
+    /**
+     * Compiles the grants for a key, keeping the limiter of its previous grants if the limit is
+     * unchanged, so that a reload does not refill the key's bucket.
+     */
+    static KeyGrants compile(List<Grant> grants, KeyGrants previous) {
+      RateLimit rateLimit = rateLimitOf(grants);
+      KeyRateLimiter rateLimiter = null;
+      if (rateLimit != null) {
+        rateLimiter =
+            previous != null && rateLimit.equals(previous.rateLimit)
+                ? previous.rateLimiter
+                : new KeyRateLimiter(rateLimit);
+      }
+      return new KeyGrants(ImmutableList.copyOf(grants), routesOf(grants), rateLimit, rateLimiter);
+    }
+
+    /** Compiles grants to be shared by several keys, without a limiter. */
+    static KeyGrants compileShared(List<Grant> grants) {
+      return new KeyGrants(
+          ImmutableList.copyOf(grants), routesOf(grants), rateLimitOf(grants), null);
+    }
+
+    private static RouteMatcher routesOf(List<Grant> grants) {
+      RouteMatcher.Builder routes = new RouteMatcher.Builder();
+      grants.forEach(grant -> routes.add(grant.path(), grant.methods()));
+      return routes.build();
+    }
+
+    /** Returns the strictest valid limit in the grants; an invalid one is logged and ignored. */
+    private static RateLimit rateLimitOf(List<Grant> grants) {
+      RateLimit strictest = null;
+      for (Grant grant : grants) {
+        try {
+          RateLimit limit = RateLimit.parse(grant.rateLimit());
+          if (limit != null && (strictest == null || limit.isStricterThan(strictest))) {
+            strictest = limit;
+          }
+        } catch (IllegalArgumentException e) {
+          logger.warning(
+              String.format("Ignoring the rate limit for %s: %s", grant, e.getMessage()));
+        }
+      }
+      return strictest;
+    }
+
+    /**
+     * Checks whether any grant for this key allows the given request.
+     *
+     * @param method the HTTP method of the request.
+     * @param path the request path.
+     * @return true if the request is allowed.
+     */
+    public boolean allows(String method, String path) {
+      return routes.matches(method, path);
+    }
+
+    public List<Grant> grants() {
+      return grants;
+    }
+
+    /** Returns the rate limit for the key, or null if it has none. */
+    public RateLimit rateLimit() {
+      return rateLimit;
+    }
+
+    /** Returns the limiter for the key, or null if it has no limit or the grants are shared. */
+    public KeyRateLimiter rateLimiter() {
+      return rateLimiter;
+    }
+  }
+
+  /**
+   * A single row as loaded: the path pattern, the comma-separated allowed methods, and the rate
+   * limit for the key, or "" for none.
+   */
+  public record Grant(String path, String methods, String rateLimit) {
+    public Grant(String path, String methods) {
+      this(path, methods, "");
+    }
+  }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.example;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * KeySnapshotStore persists a {@link KeySnapshot} to a local file, so that an instance can serve
+ * the last known keys as soon as it starts, before it has fetched them again.
+ *
+ * <p>The file is a compact binary encoding of the keys and their grants, read back through a
+ * memory-mapped buffer:
+ *
+ * <pre>
+ *   int     magic "AKS2"
+ *   string  loadedAt
+ *   int     key count
+ *   for each key:
+ *     string  key
+ *     int     grant count
+ *     for each grant: string path, string methods, string rate limit
+ *   long    CRC32 of everything above
+ * </pre>
+ *
+ * where each string is an int byte length followed by UTF-8 bytes. Writes go to a temporary file
+ * that is forced to disk and then moved into place, so readers never see a partial file, even
+ * after a crash.
+ *
+ * <p>Files in the earlier "AKS1" format, whose grants have no rate limit, can still be read.
+ */
+final class KeySnapshotStore {
+  private static final int MAGIC = 0x414B5332; // "AKS2"
+  private static final int MAGIC_V1 = 0x414B5331; // "AKS1", without rate limits
+
+  private final Path path;
+
+  KeySnapshotStore(Path path) {
+    this.path = path;
+  }
+
+  Path path() {
+    return path;
+  }
+
+  /**
+   * Writes the snapshot to the file, replacing any previous one.
+   *
+   * @param snapshot the snapshot to persist.
+   * @throws IOException if the file cannot be written.
+   */
+  void save(KeySnapshot snapshot) throws IOException {
+    Path parent = path.toAbsolutePath().getParent();
+    Files.createDirectories(parent);
+    Path temp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+    try {
+      try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+        OutputStream file = Channels.newOutputStream(channel);
+        CRC32 crc = new CRC32();
+        DataOutputStream out =
+            new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(file), crc));
+        out.writeInt(MAGIC);
+        writeString(out, snapshot.loadedAt());
+        out.writeInt(snapshot.keyCount());
+        try {
+          snapshot.forEach(
+              (key, grants) -> {
+                try {
+                  writeString(out, key);
+                  out.writeInt(grants.grants().size());
+                  for (KeySnapshot.Grant grant : grants.grants()) {
+                    writeString(out, grant.path());
+                    writeString(out, grant.methods());
+                    writeString(out, grant.rateLimit());
+                  }
+                } catch (IOException e) {
+                  throw new UncheckedIOException(e);
+                }
+              });
+        } catch (UncheckedIOException e) {
+          throw e.getCause();
+        }
+        out.flush();
+        // the checksum is not itself checksummed
+        DataOutputStream trailer = new DataOutputStream(file);
+        trailer.writeLong(crc.getValue());
+        trailer.flush();
+        // On disk before the rename, or a crash could leave the new name on a torn file.
+        channel.force(true);
+      }
+      try {
+        Files.move(
+            temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * Reads the snapshot from the file.
+   *
+   * @return the snapshot, or null if there is no file.
+   * @throws IOException if the file cannot be read, or is not a valid snapshot.
+   */
+  KeySnapshot load() throws IOException {
+    MappedByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+    try {
+      return decode(buffer);
+    } catch (BufferUnderflowException | IllegalArgumentException e) {
+      throw new IOException("Not a valid key snapshot: " + path, e);
+    }
+  }
+
+  private static KeySnapshot decode(ByteBuffer buffer) throws IOException {
+    if (buffer.remaining() < Integer.BYTES + Long.BYTES
+        || (buffer.getInt(0) != MAGIC && buffer.getInt(0) != MAGIC_V1)) {
+      throw new IOException("Not a key snapshot file.");
+    }
+    boolean hasRateLimits = buffer.getInt(0) == MAGIC;
+    int bodyLength = buffer.limit() - Long.BYTES;
+    CRC32 crc = new CRC32();
+    crc.update(buffer.duplicate().limit(bodyLength));
+    if (crc.getValue() != buffer.getLong(bodyLength)) {
+      throw new IOException("The key snapshot checksum does not match.");
+    }
+
+    ByteBuffer body = buffer.duplicate().limit(bodyLength).position(Integer.BYTES);
+    String loadedAt = readString(body);
+    int keyCount = body.getInt();
+    KeySnapshot.Builder builder = new KeySnapshot.Builder();
+    for (int i = 0; i < keyCount; i++) {
+      String key = readString(body);
+      int grantCount = body.getInt();
+      if (grantCount == 0) {
+        builder.addRow(List.of(key));
+      }
+      for (int g = 0; g < grantCount; g++) {
+        String path = readString(body);
+        String methods = readString(body);
+        builder.addRow(List.of(key, path, methods, hasRateLimits ? readString(body) : ""));
+      }
+    }
+    return builder.build(loadedAt);
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length < 0 || length > buffer.remaining()) {
+      throw new IllegalArgumentException("Bad string length " + length);
+    }
+    String s = StandardCharsets.UTF_8.decode(buffer.slice(buffer.position(), length)).toString();
+    buffer.position(buffer.position() + length);
+    return s;
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.example;
+
+/**
+ * A source of API keys, registered with {@link ApikeyAuthorization.Builder#withKeySource}. The
+ * CacheService calls {@link #load(KeySnapshot)} on its refresh schedule, never more than once at a
+ * time, so implementations may keep state between loads without locking.
+ *
+ * <p>Bundled sources: {@link SheetsKeySource} for a Google Sheet, {@link FileKeySource} for a local
+ * JSON or CSV file that is reloaded as soon as it changes, and {@link ClasspathKeySource} for a
+ * resource shipped with the application.
+ */
+public interface KeySource {
+
+  /**
+   * Loads the current keys.
+   *
+   * @param previous the snapshot currently served, or null. A source may build the new snapshot as
+   *     a delta from it, with {@link KeySnapshot.Builder#build(String, KeySnapshot)}, and should
+   *     return it unchanged if the keys have not changed.
+   * @return the keys.
+   * @throws Exception if the keys cannot be loaded. The CacheService keeps the previous snapshot,
+   *     and retries.
+   */
+  KeySnapshot load(KeySnapshot previous) throws Exception;
+
+  /** Describes the source, for logs. */
+  String describe();
+
+  /** Returns the cache keys that must be loaded before the first load, such as a token. */
+  default String[] dependsOn() {
+    return new String[0];
+  }
+
+  /**
+   * Starts watching the source for changes, if it can. Called once, after the source is
+   * registered.
+   *
+   * @param onChange to be called when the keys may have changed, to load them again right away.
+   */
+  default void watch(Runnable onChange) {}
+}
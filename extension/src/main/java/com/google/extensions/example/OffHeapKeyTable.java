@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.example;
+
+import com.google.protobuf.ByteString;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact table of API keys, for key sets too large to hold comfortably as Strings on the heap.
+ *
+ * <p>Each key is stored as the first 16 bytes of its SHA-256 digest, beside an int that identifies
+ * its grants, in an open-addressing hash table with linear probing. The table lives in a direct
+ * {@link ByteBuffer}, outside the heap, where it takes 20 bytes for each slot, or 27 to 53 bytes
+ * for each key with the table between 3/8 and 3/4 full. The grants themselves are interned: keys
+ * with the same grants share one compiled {@link KeySnapshot.KeyGrants}, so the heap holds one
+ * object for each distinct set of grants, however many keys there are, and the garbage collector
+ * has nothing to trace for the keys.
+ *
+ * <p>The digests are computed from the UTF-8 bytes of the key, so a lookup can hash the bytes of
+ * the request header directly, without decoding them. Two different keys collide only if their
+ * 128-bit digests do, which for any realistic key set does not happen.
+ *
+ * <p>The keys themselves cannot be recovered from the table, so a snapshot backed by one cannot be
+ * enumerated, saved, or built as a delta.
+ */
+final class OffHeapKeyTable {
+  private static final int DIGEST_BYTES = 16;
+  private static final int SLOT_BYTES = DIGEST_BYTES + Integer.BYTES;
+  private static final int MIN_CAPACITY = 1024;
+  private static final int MAX_CAPACITY = Integer.highestOneBit(Integer.MAX_VALUE / SLOT_BYTES);
+  private static final VarHandle LONGS =
+      MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+  private static final MessageDigest SHA_256;
+  // Each thread hashes keys with its own digest and output buffer, so lookups allocate nothing.
+  private static final ThreadLocal<Hasher> HASHER = ThreadLocal.withInitial(Hasher::new);
+
+  static {
+    try {
+      SHA_256 = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // Each slot holds the digest, as two longs, and 1 + the index of the grants; 0 marks it empty.
+  private final ByteBuffer slots;
+  private final int mask;
+  private final int size;
+  private final KeySnapshot.KeyGrants[] grants;
+
+  private OffHeapKeyTable(ByteBuffer slots, int size, KeySnapshot.KeyGrants[] grants) {
+    this.slots = slots;
+    this.mask = slots.capacity() / SLOT_BYTES - 1;
+    this.size = size;
+    this.grants = grants;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /** Returns the number of distinct sets of grants, each held once on the heap. */
+  int grantSetCount() {
+    return grants.length;
+  }
+
+  /** Returns the size of the table outside the heap, in bytes. */
+  long offHeapBytes() {
+    return slots.capacity();
+  }
+
+  KeySnapshot.KeyGrants find(String apikey) {
+    Hasher hasher = HASHER.get();
+    hasher.digest.update(apikey.getBytes(StandardCharsets.UTF_8));
+    return find(hasher.finish());
+  }
+
+  /**
+   * Finds the grants for a key given as UTF-8 bytes, such as a slice of a request header.
+   *
+   * @param apikey the bytes of the key.
+   * @return the grants, or null if the key is not in the table.
+   */
+  KeySnapshot.KeyGrants find(ByteString apikey) {
+    Hasher hasher = HASHER.get();
+    // A ByteString of a header slice exposes its bytes without copying them.
+    for (ByteBuffer buffer : apikey.asReadOnlyByteBufferList()) {
+      hasher.digest.update(buffer);
+    }
+    return find(hasher.finish());
+  }
+
+  private KeySnapshot.KeyGrants find(byte[] digest) {
+    long hi = (long) LONGS.get(digest, 0);
+    long lo = (long) LONGS.get(digest, Long.BYTES);
+    int id = slots.getInt(probe(slots, mask, hi, lo) + DIGEST_BYTES);
+    return id == 0 ? null : grants[id - 1];
+  }
+
+  /** Checks whether the two tables hold the same keys, each with the same grants. */
+  boolean sameEntriesAs(OffHeapKeyTable other) {
+    if (size != other.size) {
+      return false;
+    }
+    for (int offset = 0; offset < slots.capacity(); offset += SLOT_BYTES) {
+      int id = slots.getInt(offset + DIGEST_BYTES);
+      if (id == 0) {
+        continue;
+      }
+      long hi = slots.getLong(offset);
+      long lo = slots.getLong(offset + Long.BYTES);
+      int otherId = other.slots.getInt(probe(other.slots, other.mask, hi, lo) + DIGEST_BYTES);
+      if (otherId == 0 || !grants[id - 1].grants().equals(other.grants[otherId - 1].grants())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the offset of the slot that holds the digest, or else of the empty slot where it
+   * belongs. The table is never full, so the probe always ends.
+   */
+  private static int probe(ByteBuffer slots, int mask, long hi, long lo) {
+    // The digest bits are uniformly distributed, so any of them make a good index.
+    int index = (int) lo & mask;
+    while (true) {
+      int offset = index * SLOT_BYTES;
+      if (slots.getInt(offset + DIGEST_BYTES) == 0
+          || (slots.getLong(offset) == hi && slots.getLong(offset + Long.BYTES) == lo)) {
+        return offset;
+      }
+      index = (index + 1) & mask;
+    }
+  }
+
+  /** A SHA-256 digest, and a buffer for its output. */
+  private static final class Hasher {
+    final MessageDigest digest;
+    final byte[] output = new byte[32];
+
+    Hasher() {
+      try {
+        // Cloning skips the provider lookup, which matters to short-lived virtual threads.
+        digest = (MessageDigest) SHA_256.clone();
+      } catch (CloneNotSupportedException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    /** Completes the digest of what was passed to it, and returns the reused output buffer. */
+    byte[] finish() {
+      try {
+        digest.digest(output, 0, output.length);
+      } catch (DigestException e) {
+        throw new IllegalStateException(e);
+      }
+      return output;
+    }
+  }
+
+  /**
+   * Accumulates keys and their grants. The rows for a key may come in any order. They are kept on
+   * the heap, as the digest and grants of each row in primitive arrays, until {@link #build()}
+   * allocates the table outside the heap once, sized for the number of rows.
+   */
+  static final class Builder {
+    // The digest of the key in each row, as two longs, and the index of its grants.
+    private long[] his = new long[MIN_CAPACITY];
+    private long[] los = new long[MIN_CAPACITY];
+    private int[] ids = new int[MIN_CAPACITY];
+    private int rows;
+    // Each distinct list of grants seen, and its index; a key's grants are appended to row by row.
+    private final Map<List<KeySnapshot.Grant>, Integer> grantIds = new HashMap<>();
+    private final List<List<KeySnapshot.Grant>> grantLists = new ArrayList<>();
+
+    /**
+     * Adds a row for a key.
+     *
+     * @param apikey the key.
+     * @param grant the grant in the row, or null for a row that only marks the key as known.
+     */
+    Builder add(String apikey, KeySnapshot.Grant grant) {
+      Hasher hasher = HASHER.get();
+      hasher.digest.update(apikey.getBytes(StandardCharsets.UTF_8));
+      byte[] digest = hasher.finish();
+      addRow(
+          (long) LONGS.get(digest, 0),
+          (long) LONGS.get(digest, Long.BYTES),
+          intern(grant == null ? List.of() : List.of(grant)));
+      return this;
+    }
+
+    /** Adds all the keys of another builder, with their grants after any already added. */
+    Builder addAll(Builder other) {
+      for (int row = 0; row < other.rows; row++) {
+        addRow(other.his[row], other.los[row], intern(other.grantLists.get(other.ids[row])));
+      }
+      return this;
+    }
+
+    private void addRow(long hi, long lo, int id) {
+      if (rows == his.length) {
+        int length = his.length * 2;
+        his = Arrays.copyOf(his, length);
+        los = Arrays.copyOf(los, length);
+        ids = Arrays.copyOf(ids, length);
+      }
+      his[rows] = hi;
+      los[rows] = lo;
+      ids[rows] = id;
+      rows++;
+    }
+
+    private int intern(List<KeySnapshot.Grant> grants) {
+      Integer id = grantIds.get(grants);
+      if (id == null) {
+        id = grantLists.size();
+        List<KeySnapshot.Grant> copy = List.copyOf(grants);
+        grantLists.add(copy);
+        grantIds.put(copy, id);
+      }
+      return id;
+    }
+
+    /** Returns the number of slots for the rows: a power of two, at most 3/4 full. */
+    static int capacityFor(int rows) {
+      int capacity = MIN_CAPACITY;
+      while (capacity / 4 * 3 < rows) {
+        if (capacity >= MAX_CAPACITY) {
+          throw new IllegalStateException(
+              String.format("The off-heap key table cannot hold %d keys.", rows));
+        }
+        capacity *= 2;
+      }
+      return capacity;
+    }
+
+    /**
+     * Compiles the grants and returns the table. The builder can no longer be used afterwards.
+     */
+    OffHeapKeyTable build() {
+      int capacity = capacityFor(rows);
+      int mask = capacity - 1;
+      // Direct buffers start zeroed, so every slot starts empty.
+      ByteBuffer slots =
+          ByteBuffer.allocateDirect(capacity * SLOT_BYTES).order(ByteOrder.nativeOrder());
+      int size = 0;
+      for (int row = 0; row < rows; row++) {
+        int offset = probe(slots, mask, his[row], los[row]);
+        int id = slots.getInt(offset + DIGEST_BYTES);
+        if (id == 0) {
+          slots.putLong(offset, his[row]);
+          slots.putLong(offset + Long.BYTES, los[row]);
+          slots.putInt(offset + DIGEST_BYTES, ids[row] + 1);
+          size++;
+        } else if (!grantLists.get(ids[row]).isEmpty()) {
+          List<KeySnapshot.Grant> current = grantLists.get(id - 1);
+          List<KeySnapshot.Grant> more = grantLists.get(ids[row]);
+          List<KeySnapshot.Grant> merged = new ArrayList<>(current.size() + more.size());
+          merged.addAll(current);
+          merged.addAll(more);
+          slots.putInt(offset + DIGEST_BYTES, intern(merged) + 1);
+        }
+      }
+      // Compile only the lists still in use, not the partial ones left behind by keys whose
+      // grants came in several rows.
+      int[] renumbered = new int[grantLists.size()];
+      List<KeySnapshot.KeyGrants> compiled = new ArrayList<>();
+      for (int offset = 0; offset < slots.capacity(); offset += SLOT_BYTES) {
+        int id = slots.getInt(offset + DIGEST_BYTES);
+        if (id == 0) {
+          continue;
+        }
+        if (renumbered[id - 1] == 0) {
+          compiled.add(KeySnapshot.KeyGrants.compileShared(grantLists.get(id - 1)));
+          renumbered[id - 1] = compiled.size();
+        }
+        slots.putInt(offset + DIGEST_BYTES, renumbered[id - 1]);
+      }
+      OffHeapKeyTable table =
+          new OffHeapKeyTable(slots, size, compiled.toArray(new KeySnapshot.KeyGrants[0]));
+      his = null;
+      los = null;
+      ids = null;
+      grantIds.clear();
+      grantLists.clear();
+      return table;
+    }
+  }
+}
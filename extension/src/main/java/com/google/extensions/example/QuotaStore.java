@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.example;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Shared counters for {@link ClusterQuota}: the number of requests made with each API key in the
+ * current quota window, summed over all the instances of the service. Each instance adds what it
+ * has counted since its last sync, in one batch, and reads back the totals.
+ *
+ * <p>A production deployment backs this with a store that all instances reach, such as Redis or
+ * Firestore, where each call is a single round trip. {@link InMemoryQuotaStore} and {@link
+ * FileQuotaStore} stand in for one in tests, and on a single machine.
+ */
+public interface QuotaStore {
+
+  /**
+   * A counter: the requests made with a key in the window that ends at the given time. Windows are
+   * aligned to the epoch, so all instances name the same window the same way.
+   *
+   * @param key identifies the API key; a digest, so the keys themselves never leave the instance.
+   * @param windowEndMillis the end of the window, in milliseconds since the epoch.
+   */
+  record Counter(String key, long windowEndMillis) {}
+
+  /**
+   * Adds to the counters, and returns their totals. A store need keep only the latest window of
+   * each key: a counter for an earlier window than one it holds may be dropped, and reported as 0.
+   *
+   * @param deltas the number of requests to add to each counter; may be 0, to read the total.
+   * @return the total of each counter after the addition, over all instances.
+   * @throws IOException if the store cannot be reached; no counter has then been changed.
+   */
+  Map<Counter, Long> addAndGet(Map<Counter, Long> deltas) throws IOException;
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.example;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A rate limit for an API key, as given in the fourth column of the key rows: a number of requests
+ * per unit of time, such as "10/s", "600/min", "5000/hour" or "100000/day". The full number of
+ * requests may arrive at once, as a burst, after the key has been idle for the period.
+ *
+ * @param permits the number of requests allowed in each period.
+ * @param period the period.
+ */
+public record RateLimit(long permits, Duration period) {
+  private static final Pattern FORMAT =
+      Pattern.compile("\\s*(\\d+)\\s*/\\s*([a-z]+)\\s*", Pattern.CASE_INSENSITIVE);
+
+  public RateLimit {
+    if (permits < 1 || period.isNegative() || period.isZero()) {
+      throw new IllegalArgumentException("A rate limit must allow requests over a period.");
+    }
+  }
+
+  /**
+   * Parses a rate limit.
+   *
+   * @param spec the limit, such as "10/s"; may be null or blank.
+   * @return the limit, or null if spec is null or blank.
+   * @throws IllegalArgumentException if spec is not a valid limit.
+   */
+  public static RateLimit parse(String spec) {
+    if (spec == null || spec.isBlank()) {
+      return null;
+    }
+    Matcher m = FORMAT.matcher(spec);
+    if (!m.matches()) {
+      throw new IllegalArgumentException("Not a rate limit: " + spec);
+    }
+    Duration period =
+        switch (m.group(2).toLowerCase(Locale.ROOT)) {
+          case "s", "sec", "second" -> Duration.ofSeconds(1);
+          case "m", "min", "minute" -> Duration.ofMinutes(1);
+          case "h", "hr", "hour" -> Duration.ofHours(1);
+          case "d", "day" -> Duration.ofDays(1);
+          default -> throw new IllegalArgumentException("Unknown rate limit unit: " + spec);
+        };
+    try {
+      return new RateLimit(Long.parseLong(m.group(1)), period);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Not a rate limit: " + spec, e);
+    }
+  }
+
+  /** Returns true if this limit allows fewer requests over time than the other. */
+  boolean isStricterThan(RateLimit other) {
+    return (double) permits / period.toNanos() < (double) other.permits / other.period.toNanos();
+  }
+
+  @Override
+  public String toString() {
+    String unit =
+        switch ((int) Math.min(period.toSeconds(), Integer.MAX_VALUE)) {
+          case 1 -> "s";
+          case 60 -> "min";
+          case 3600 -> "hour";
+          case 86400 -> "day";
+          default -> period.toString();
+        };
+    return permits + "/" + unit;
+  }
+}
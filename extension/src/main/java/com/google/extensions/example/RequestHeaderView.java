@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.example;
+
+import com.google.protobuf.ByteString;
+import io.envoyproxy.envoy.config.core.v3.HeaderValue;
+import io.envoyproxy.envoy.service.ext_proc.v3.HttpHeaders;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * The request headers that the authorizer needs, extracted from an ext_proc {@link HttpHeaders}
+ * message in a single pass.
+ *
+ * <p>Header names are compared as bytes, case-insensitively, against the wire representation, and
+ * the values are kept as {@link ByteString} references into the message. Values are decoded into
+ * Strings only when asked for, and the method decodes to a shared constant for the standard HTTP
+ * methods.
+ */
+public final class RequestHeaderView {
+
+  private static final byte[] AUTHORIZATION = bytes("authorization");
+  private static final byte[] PATH = bytes(":path");
+  private static final byte[] METHOD = bytes(":method");
+  private static final byte[] APIKEY_SCHEME = bytes("apikey");
+  private static final String[] METHODS = {
+    "GET", "HEAD", "POST", "PUT", "DELETE", "PATCH", "OPTIONS", "CONNECT", "TRACE"
+  };
+  private static final byte[][] METHOD_BYTES = new byte[METHODS.length][];
+
+  static {
+    for (int i = 0; i < METHODS.length; i++) {
+      METHOD_BYTES[i] = bytes(METHODS[i]);
+    }
+  }
+
+  private final ByteString authorization;
+  private final ByteString path;
+  private final ByteString method;
+
+  private RequestHeaderView(ByteString authorization, ByteString path, ByteString method) {
+    this.authorization = authorization;
+    this.path = path;
+    this.method = method;
+  }
+
+  /**
+   * Extracts the Authorization, :path and :method headers. If a header appears more than once, the
+   * first occurrence wins.
+   *
+   * @param headers the request headers received from the proxy.
+   * @return the extracted view.
+   */
+  public static RequestHeaderView of(HttpHeaders headers) {
+    ByteString authorization = null;
+    ByteString path = null;
+    ByteString method = null;
+    List<HeaderValue> list = headers.getHeaders().getHeadersList();
+    for (int i = 0; i < list.size(); i++) {
+      HeaderValue header = list.get(i);
+      ByteString key = header.getKeyBytes();
+      if (authorization == null && equalsIgnoreCase(key, 0, key.size(), AUTHORIZATION)) {
+        authorization = header.getRawValue();
+      } else if (path == null && equalsIgnoreCase(key, 0, key.size(), PATH)) {
+        path = header.getRawValue();
+      } else if (method == null && equalsIgnoreCase(key, 0, key.size(), METHOD)) {
+        method = header.getRawValue();
+      }
+    }
+    return new RequestHeaderView(authorization, path, method);
+  }
+
+  public boolean hasAuthorization() {
+    return authorization != null;
+  }
+
+  /**
+   * Returns the API key from an Authorization header of the form "APIKEY key".
+   *
+   * @return the key, or null if the header is absent or is not in that form.
+   */
+  public String apikey() {
+    ByteString apikey = apikeyBytes();
+    return apikey == null ? null : apikey.toStringUtf8();
+  }
+
+  /**
+   * Returns the API key from an Authorization header of the form "APIKEY key", as a view of the
+   * header bytes, without decoding it.
+   *
+   * @return the key, or null if the header is absent or is not in that form.
+   */
+  public ByteString apikeyBytes() {
+    if (authorization == null) {
+      return null;
+    }
+    int schemeLength = APIKEY_SCHEME.length;
+    int end = authorization.size();
+    while (end > schemeLength && authorization.byteAt(end - 1) == ' ') {
+      end--;
+    }
+    if (end <= schemeLength + 1
+        || authorization.byteAt(schemeLength) != ' '
+        || !equalsIgnoreCase(authorization, 0, schemeLength, APIKEY_SCHEME)) {
+      return null;
+    }
+    for (int i = schemeLength + 1; i < end; i++) {
+      if (authorization.byteAt(i) == ' ') {
+        return null;
+      }
+    }
+    return authorization.substring(schemeLength + 1, end);
+  }
+
+  /** Returns the request path, including any query string, or null if absent. */
+  public String path() {
+    return path == null ? null : path.toStringUtf8();
+  }
+
+  /** Returns the request method, or null if absent. */
+  public String method() {
+    if (method == null) {
+      return null;
+    }
+    for (int i = 0; i < METHOD_BYTES.length; i++) {
+      if (equals(method, METHOD_BYTES[i])) {
+        return METHODS[i];
+      }
+    }
+    return method.toStringUtf8();
+  }
+
+  private static boolean equals(ByteString value, byte[] expected) {
+    if (value.size() != expected.length) {
+      return false;
+    }
+    for (int i = 0; i < expected.length; i++) {
+      if (value.byteAt(i) != expected[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Compares a region of ASCII bytes against a lower-case constant, ignoring case. */
+  private static boolean equalsIgnoreCase(ByteString value, int from, int to, byte[] lowerCase) {
+    if (to - from != lowerCase.length) {
+      return false;
+    }
+    for (int i = 0; i < lowerCase.length; i++) {
+      byte b = value.byteAt(from + i);
+      if (b >= 'A' && b <= 'Z') {
+        b = (byte) (b + ('a' - 'A'));
+      }
+      if (b != lowerCase[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static byte[] bytes(String s) {
+    return s.getBytes(StandardCharsets.US_ASCII);
+  }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Matches request methods and paths against a set of allowed routes, compiled once into a segment
+ * trie.
+ *
+ * <p>A route is a path pattern plus a comma-separated list of methods. Within a pattern, a '*'
+ * matches one or more characters within a single path segment, so "/v1/items/*" matches
+ * "/v1/items/42" but not "/v1/items/42/parts", and "/v1/item-*" matches "/v1/item-42". All other
+ * characters match literally. Any query string or fragment on the request path is ignored.
+ *
+ * <p>Matching walks the request path one segment at a time, with no regex and no allocation. The
+ * allowed methods are kept as a bitmask on the terminal node of each route.
+ */
+public final class RouteMatcher {
+
+  private static final String[] STANDARD_METHODS = {
+    "GET", "HEAD", "POST", "PUT", "DELETE", "PATCH", "OPTIONS", "CONNECT", "TRACE"
+  };
+  private static final String[] NO_STRINGS = new String[0];
+  private static final Node[] NO_NODES = new Node[0];
+
+  private final Node root;
+
+  private RouteMatcher(Node root) {
+    this.root = root;
+  }
+
+  /**
+   * Returns the bit used to represent a standard HTTP method, or 0 if the method is not one of the
+   * standard methods.
+   */
+  public static int methodBit(String method) {
+    // Envoy always sends the method in upper case, so check for that first.
+    switch (method) {
+      case "GET":
+        return 1;
+      case "HEAD":
+        return 1 << 1;
+      case "POST":
+        return 1 << 2;
+      case "PUT":
+        return 1 << 3;
+      case "DELETE":
+        return 1 << 4;
+      default:
+        for (int i = 0; i < STANDARD_METHODS.length; i++) {
+          if (STANDARD_METHODS[i].equalsIgnoreCase(method)) {
+            return 1 << i;
+          }
+        }
+        return 0;
+    }
+  }
+
+  /**
+   * Checks whether any route allows the request.
+   *
+   * @param method the HTTP method of the request.
+   * @param path the request path, possibly including a query string.
+   * @return true if some route matches both the method and the path.
+   */
+  public boolean matches(String method, String path) {
+    return match(root, path, 0, pathEnd(path), methodBit(method), method);
+  }
+
+  /**
+   * Returns the path without any query string or fragment, which no route looks at.
+   *
+   * @param path the request path.
+   * @return the path up to the first '?' or '#'; the path itself, if it has neither.
+   */
+  public static String withoutQuery(String path) {
+    int end = pathEnd(path);
+    return end == path.length() ? path : path.substring(0, end);
+  }
+
+  private static int pathEnd(String path) {
+    int end = path.length();
+    for (int i = 0; i < end; i++) {
+      char c = path.charAt(i);
+      if (c == '?' || c == '#') {
+        return i;
+      }
+    }
+    return end;
+  }
+
+  private static boolean match(
+      Node node, String path, int start, int end, int methodBit, String method) {
+    int segmentEnd = path.indexOf('/', start);
+    if (segmentEnd < 0 || segmentEnd > end) {
+      segmentEnd = end;
+    }
+    boolean last = segmentEnd == end;
+    int segmentLength = segmentEnd - start;
+
+    for (int i = 0; i < node.literals.length; i++) {
+      String literal = node.literals[i];
+      if (literal.length() == segmentLength && path.startsWith(literal, start)) {
+        if (accept(node.literalChildren[i], path, segmentEnd, end, last, methodBit, method)) {
+          return true;
+        }
+      }
+    }
+    for (int i = 0; i < node.globs.length; i++) {
+      if (globMatches(node.globs[i], 0, path, start, segmentEnd)) {
+        if (accept(node.globChildren[i], path, segmentEnd, end, last, methodBit, method)) {
+          return true;
+        }
+      }
+    }
+    if (node.wildcard != null && segmentLength > 0) {
+      return accept(node.wildcard, path, segmentEnd, end, last, methodBit, method);
+    }
+    return false;
+  }
+
+  private static boolean accept(
+      Node child,
+      String path,
+      int segmentEnd,
+      int end,
+      boolean last,
+      int methodBit,
+      String method) {
+    if (last) {
+      return child.allows(methodBit, method);
+    }
+    return match(child, path, segmentEnd + 1, end, methodBit, method);
+  }
+
+  /** Matches one segment against a glob in which each '*' stands for one or more characters. */
+  private static boolean globMatches(String glob, int gi, String path, int pi, int end) {
+    while (gi < glob.length()) {
+      char g = glob.charAt(gi);
+      if (g == '*') {
+        for (int next = pi + 1; next <= end; next++) {
+          if (globMatches(glob, gi + 1, path, next, end)) {
+            return true;
+          }
+        }
+        return false;
+      }
+      if (pi >= end || path.charAt(pi) != g) {
+        return false;
+      }
+      gi++;
+      pi++;
+    }
+    return pi == end;
+  }
+
+  private static final class Node {
+    String[] literals = NO_STRINGS;
+    Node[] literalChildren = NO_NODES;
+    String[] globs = NO_STRINGS;
+    Node[] globChildren = NO_NODES;
+    Node wildcard;
+    int methodMask;
+    String[] otherMethods = NO_STRINGS;
+
+    boolean allows(int methodBit, String method) {
+      if (methodBit != 0) {
+        return (methodMask & methodBit) != 0;
+      }
+      for (String other : otherMethods) {
+        if (other.equalsIgnoreCase(method)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    Node child(String segment) {
+      if ("*".equals(segment)) {
+        if (wildcard == null) {
+          wildcard = new Node();
+        }
+        return wildcard;
+      }
+      boolean glob = segment.indexOf('*') >= 0;
+      String[] labels = glob ? globs : literals;
+      Node[] children = glob ? globChildren : literalChildren;
+      for (int i = 0; i < labels.length; i++) {
+        if (labels[i].equals(segment)) {
+          return children[i];
+        }
+      }
+      Node node = new Node();
+      labels = Arrays.copyOf(labels, labels.length + 1);
+      children = Arrays.copyOf(children, children.length + 1);
+      labels[labels.length - 1] = segment;
+      children[children.length - 1] = node;
+      if (glob) {
+        globs = labels;
+        globChildren = children;
+      } else {
+        literals = labels;
+        literalChildren = children;
+      }
+      return node;
+    }
+
+    void allow(String methods) {
+      List<String> others = new ArrayList<>(Arrays.asList(otherMethods));
+      for (String m : methods.split(",")) {
+        String method = m.trim();
+        if (method.isEmpty()) {
+          continue;
+        }
+        int bit = methodBit(method);
+        if (bit != 0) {
+          methodMask |= bit;
+        } else if (others.stream().noneMatch(method::equalsIgnoreCase)) {
+          others.add(method);
+        }
+      }
+      otherMethods = others.toArray(NO_STRINGS);
+    }
+  }
+
+  /** Compiles routes into a {@link RouteMatcher}. */
+  public static final class Builder {
+    private final Node root = new Node();
+
+    /**
+     * Adds a route.
+     *
+     * @param pathPattern the path pattern, e.g. "/v1/items/*".
+     * @param methods a comma-separated list of methods, e.g. "GET, POST".
+     * @return this builder.
+     */
+    public Builder add(String pathPattern, String methods) {
+      Node node = root;
+      int start = 0;
+      while (true) {
+        int slash = pathPattern.indexOf('/', start);
+        if (slash < 0) {
+          node = node.child(pathPattern.substring(start));
+          break;
+        }
+        node = node.child(pathPattern.substring(start, slash));
+        start = slash + 1;
+      }
+      node.allow(methods);
+      return this;
+    }
+
+    public RouteMatcher build() {
+      return new RouteMatcher(root);
+    }
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.example;
+
+import com.google.common.hash.Hasher;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the responses of the Sheets API with a pull parser, adding each row to a {@link
+ * KeySnapshot.Builder} as it is read. Only the compiled snapshot is kept, never the whole response
+ * or an intermediate list of rows.
+ */
+final class SheetValues {
+
+  private static final byte UNIT_SEPARATOR = 0x1f;
+  private static final byte RECORD_SEPARATOR = 0x1e;
+
+  private SheetValues() {}
+
+  /**
+   * Reads one ValueRange object, as returned by spreadsheets.values.get, into the builder.
+   *
+   * @param reader positioned at the start of the ValueRange object.
+   * @param builder receives each row of the "values" array.
+   * @return the number of rows read.
+   * @throws IOException if the response cannot be read.
+   * @throws IllegalStateException if the response is not a ValueRange.
+   */
+  static int readValueRange(JsonReader reader, KeySnapshot.Builder builder) throws IOException {
+    return readValueRange(reader, builder, null);
+  }
+
+  /**
+   * Reads one ValueRange object into the builder, and also feeds each cell to a hasher, so that
+   * the caller can tell whether the values have changed since an earlier read.
+   *
+   * @param hasher receives the cells, or null.
+   */
+  static int readValueRange(JsonReader reader, KeySnapshot.Builder builder, Hasher hasher)
+      throws IOException {
+    int rows = 0;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      if (!reader.nextName().equals("values")) {
+        reader.skipValue();
+        continue;
+      }
+      rows += readRows(reader, builder, hasher);
+    }
+    reader.endObject();
+    return rows;
+  }
+
+  /**
+   * Reads an array of rows, each an array of cells, into the builder: the "values" of a
+   * ValueRange, or a key file in the same shape.
+   *
+   * @param reader positioned at the start of the array.
+   * @param hasher receives the cells, or null.
+   * @return the number of rows read.
+   */
+  static int readRows(JsonReader reader, KeySnapshot.Builder builder, Hasher hasher)
+      throws IOException {
+    int rows = 0;
+    List<String> row = new ArrayList<>(3);
+    reader.beginArray();
+    while (reader.hasNext()) {
+      row.clear();
+      reader.beginArray();
+      while (reader.hasNext()) {
+        String cell = readCell(reader);
+        row.add(cell);
+        if (hasher != null) {
+          hasher.putString(cell, StandardCharsets.UTF_8).putByte(UNIT_SEPARATOR);
+        }
+      }
+      reader.endArray();
+      if (hasher != null) {
+        hasher.putByte(RECORD_SEPARATOR);
+      }
+      // The builder copies what it keeps, so the row list can be reused.
+      builder.addRow(row);
+      rows++;
+    }
+    reader.endArray();
+    return rows;
+  }
+
+  /**
+   * Reads the number of rows in the named sheet from a Spreadsheet object, as returned by
+   * spreadsheets.get with fields=sheets.properties(title,gridProperties(rowCount)).
+   *
+   * @param reader positioned at the start of the Spreadsheet object.
+   * @param title the title of the sheet.
+   * @return the row count of the sheet, or -1 if there is no sheet with that title.
+   * @throws IOException if the response cannot be read.
+   */
+  static int readRowCount(JsonReader reader, String title) throws IOException {
+    int found = -1;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      if (!reader.nextName().equals("sheets")) {
+        reader.skipValue();
+        continue;
+      }
+      reader.beginArray();
+      while (reader.hasNext()) {
+        String sheetTitle = null;
+        int rowCount = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+          if (!reader.nextName().equals("properties")) {
+            reader.skipValue();
+            continue;
+          }
+          reader.beginObject();
+          while (reader.hasNext()) {
+            switch (reader.nextName()) {
+              case "title" -> sheetTitle = reader.nextString();
+              case "gridProperties" -> rowCount = readGridRowCount(reader);
+              default -> reader.skipValue();
+            }
+          }
+          reader.endObject();
+        }
+        reader.endObject();
+        if (title.equals(sheetTitle)) {
+          found = rowCount;
+        }
+      }
+      reader.endArray();
+    }
+    reader.endObject();
+    return found;
+  }
+
+  private static int readGridRowCount(JsonReader reader) throws IOException {
+    int rowCount = 0;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      if (reader.nextName().equals("rowCount")) {
+        rowCount = reader.nextInt();
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    return rowCount;
+  }
+
+  private static String readCell(JsonReader reader) throws IOException {
+    JsonToken token = reader.peek();
+    if (token == JsonToken.NULL) {
+      reader.nextNull();
+      return "";
+    }
+    if (token == JsonToken.BOOLEAN) {
+      return Boolean.toString(reader.nextBoolean());
+    }
+    // Formatted values are strings; unformatted numbers are read as their text.
+    return reader.nextString();
+  }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.example;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A {@link KeySource} that loads the API keys from a Google Sheet.
+ *
+ * <p>The source first reads the number of rows in the key sheet, then fetches the rows in chunks,
+ * all at once over the shared HTTP/2 client. Each chunk is parsed into its own {@link
+ * KeySnapshot.Builder} as it streams in, and the chunks are merged in row order, so a refresh takes
+ * about as long as the slowest chunk rather than growing with the total number of rows.
+ *
+ * <p>Before reading any rows, the loader asks Drive for the version of the spreadsheet, which
+ * changes with every edit. If that is the version it last read, it returns the snapshot it last
+ * built, without fetching the rows. When Drive cannot be asked, for example because the token lacks
+ * a Drive scope, the source reads the rows and compares a hash of the values instead, which still
+ * saves compiling a new snapshot. Either way an unchanged sheet yields the same snapshot instance,
+ * which the CacheService does not report to its listeners as a new value.
+ */
+final class SheetsKeySource implements KeySource {
+  private static final Logger logger = Logger.getLogger(SheetsKeySource.class.getName());
+  private static final String SHEETS_API = "https://sheets.googleapis.com/v4/spreadsheets/";
+  private static final String DRIVE_FILES_API = "https://www.googleapis.com/drive/v3/files/";
+  static final String KEY_SHEET = "Keys";
+  static final int FIRST_ROW = 2; // row 1 holds the column headings
+  static final int DEFAULT_CHUNK_ROWS = 10_000;
+
+  private final FetchService fetch;
+  private final String sheetId;
+  private final int chunkRows;
+  private final boolean offHeap;
+
+  // Only accessed by load, which the CacheService runs once at a time.
+  private KeySnapshot lastSnapshot;
+  private String lastVersion;
+  private HashCode lastContentHash;
+  private boolean warnedNoVersion;
+
+  private record Chunk(KeySnapshot.Builder builder, HashCode contentHash) {}
+
+  SheetsKeySource(FetchService fetch, String sheetId, int chunkRows, boolean offHeap) {
+    if (chunkRows < 1) {
+      throw new IllegalArgumentException("chunkRows must be positive: " + chunkRows);
+    }
+    this.fetch = fetch;
+    this.sheetId = sheetId;
+    this.chunkRows = chunkRows;
+    this.offHeap = offHeap;
+  }
+
+  @Override
+  public String describe() {
+    return "sheet " + sheetId;
+  }
+
+  /** The Sheets API calls need the GCP access token. */
+  @Override
+  public String[] dependsOn() {
+    return new String[] {GcpTokenProvider.CACHE_KEY};
+  }
+
+  /**
+   * Reads all the keys in the key sheet.
+   *
+   * @return the compiled snapshot.
+   * @throws Exception if the sheet or any chunk of it cannot be read.
+   */
+  @Override
+  public KeySnapshot load(KeySnapshot previous) throws Exception {
+    String version = fetchVersion();
+    if (version != null && lastSnapshot != null && version.equals(lastVersion)) {
+      logger.fine(String.format("sheet %s is unchanged at version %s", sheetId, version));
+      return lastSnapshot;
+    }
+
+    String metadataUri =
+        SHEETS_API + sheetId + "?fields=sheets.properties(title,gridProperties(rowCount))";
+    int rowCount = fetch.get(metadataUri, (reader) -> SheetValues.readRowCount(reader, KEY_SHEET));
+    if (rowCount < 0) {
+      throw new IllegalStateException("The spreadsheet has no sheet named " + KEY_SHEET);
+    }
+    List<String> ranges = chunkRanges(KEY_SHEET, FIRST_ROW, rowCount, chunkRows);
+    logger.info(
+        String.format(
+            "fetching %d rows of %s in %d chunks", rowCount - 1, sheetId, ranges.size()));
+
+    List<CompletableFuture<Chunk>> chunks = new ArrayList<>(ranges.size());
+    for (String range : ranges) {
+      chunks.add(
+          fetch.getAsync(
+              SHEETS_API + sheetId + "/values/" + range,
+              (reader) -> {
+                KeySnapshot.Builder chunk = new KeySnapshot.Builder(offHeap);
+                Hasher hasher = Hashing.sha256().newHasher();
+                SheetValues.readValueRange(reader, chunk, hasher);
+                return new Chunk(chunk, hasher.hash());
+              }));
+    }
+    KeySnapshot.Builder builder = new KeySnapshot.Builder(offHeap);
+    List<HashCode> chunkHashes = new ArrayList<>(chunks.size());
+    try {
+      // Merge each chunk as soon as it and the chunks before it have arrived.
+      for (CompletableFuture<Chunk> future : chunks) {
+        Chunk chunk = future.join();
+        builder.addAll(chunk.builder());
+        chunkHashes.add(chunk.contentHash());
+      }
+    } catch (CompletionException e) {
+      chunks.forEach(chunk -> chunk.cancel(true));
+      throw e.getCause() instanceof Exception cause ? cause : e;
+    }
+
+    HashCode contentHash = contentHash(chunkHashes);
+    lastVersion = version;
+    if (lastSnapshot != null && contentHash.equals(lastContentHash)) {
+      logger.fine(String.format("sheet %s has the same values as before", sheetId));
+      return lastSnapshot;
+    }
+    // Only the keys that changed are compiled again.
+    lastSnapshot =
+        builder.build(Instant.now().toString(), lastSnapshot != null ? lastSnapshot : previous);
+    lastContentHash = contentHash;
+    return lastSnapshot;
+  }
+
+  /**
+   * Asks Drive for the version of the spreadsheet.
+   *
+   * @return the version, or null if it cannot be had.
+   */
+  private String fetchVersion() {
+    try {
+      Map<String, Object> file =
+          fetch.get(DRIVE_FILES_API + sheetId + "?fields=version&supportsAllDrives=true");
+      Object version = file != null ? file.get("version") : null;
+      if (version != null) {
+        return version.toString();
+      }
+      throw new IllegalStateException("The Drive response has no version.");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (Exception e) {
+      if (!warnedNoVersion) {
+        warnedNoVersion = true;
+        logger.log(
+            Level.WARNING,
+            "Cannot read the spreadsheet version from Drive; comparing the values instead.",
+            e);
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Combines the hashes of the chunks, in order, into the hash of the whole sheet. A sheet with
+   * only its header row has no chunks, and hashes as empty.
+   */
+  static HashCode contentHash(List<HashCode> chunkHashes) {
+    return switch (chunkHashes.size()) {
+      case 0 -> Hashing.sha256().hashBytes(new byte[0]);
+      case 1 -> chunkHashes.get(0);
+      default -> Hashing.combineOrdered(chunkHashes);
+    };
+  }
+
+  /**
+   * Splits the rows from firstRow to lastRow, inclusive, into A1 ranges of columns A to D (key,
+   * path, methods and rate limit), of at most chunkRows rows each.
+   */
+  static List<String> chunkRanges(String sheet, int firstRow, int lastRow, int chunkRows) {
+    List<String> ranges = new ArrayList<>();
+    for (int start = firstRow; start <= lastRow; start += chunkRows) {
+      int end = Math.min(lastRow, start + chunkRows - 1);
+      ranges.add(String.format("%s!A%d:D%d", sheet, start, end));
+    }
+    return ranges;
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * BlockingWatchdog detects callout handlers that run for too long on a thread that must not block,
+ * such as a Netty event loop. Each handler invocation is bracketed by {@link #enter()} and {@link
+ * Slot#exit()}, which only write a timestamp into a per-thread slot. A background thread scans the
+ * slots periodically and logs the stack of any thread that has been inside a handler for longer
+ * than the threshold.
+ */
+class BlockingWatchdog {
+  private static final Logger logger = Logger.getLogger(BlockingWatchdog.class.getName());
+  private static final long IDLE = Long.MIN_VALUE;
+
+  private final long thresholdNanos;
+  private final List<Slot> slots = new CopyOnWriteArrayList<>();
+  private final ThreadLocal<Slot> currentSlot = ThreadLocal.withInitial(this::newSlot);
+  private final ScheduledExecutorService scanner;
+
+  /** The handler state of one thread. */
+  final class Slot {
+    private final Thread thread;
+    private volatile long startNanos = IDLE;
+    // Only accessed by the scanner thread.
+    private long reportedStartNanos = IDLE;
+
+    private Slot(Thread thread) {
+      this.thread = thread;
+    }
+
+    /** Marks the end of a handler invocation on this thread. */
+    void exit() {
+      long start = startNanos;
+      startNanos = IDLE;
+      long elapsedNanos = System.nanoTime() - start;
+      if (elapsedNanos > thresholdNanos) {
+        logger.warning(
+            String.format(
+                "Callout handler on %s blocked for %d ms (threshold %d ms)",
+                thread.getName(),
+                TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                TimeUnit.NANOSECONDS.toMillis(thresholdNanos)));
+      }
+    }
+  }
+
+  BlockingWatchdog(long thresholdMillis) {
+    this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    this.scanner =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("callout-watchdog").setDaemon(true).build());
+    long intervalMillis = Math.max(10, thresholdMillis / 2);
+    scanner.scheduleAtFixedRate(this::scan, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private Slot newSlot() {
+    Slot slot = new Slot(Thread.currentThread());
+    slots.add(slot);
+    return slot;
+  }
+
+  /**
+   * Marks the start of a handler invocation on the current thread.
+   *
+   * @return the slot to call {@link Slot#exit()} on when the handler returns.
+   */
+  Slot enter() {
+    Slot slot = currentSlot.get();
+    slot.startNanos = System.nanoTime();
+    return slot;
+  }
+
+  private void scan() {
+    long now = System.nanoTime();
+    for (Slot slot : slots) {
+      long start = slot.startNanos;
+      if (start != IDLE && now - start > thresholdNanos && slot.reportedStartNanos != start) {
+        slot.reportedStartNanos = start;
+        StringBuilder sb = new StringBuilder();
+        for (StackTraceElement element : slot.thread.getStackTrace()) {
+          sb.append("\n    at ").append(element);
+        }
+        logger.warning(
+            String.format(
+                "Callout handler on %s has been running for %d ms; it may be blocking:%s",
+                slot.thread.getName(), TimeUnit.NANOSECONDS.toMillis(now - start), sb));
+      }
+    }
+  }
+
+  void shutdown() {
+    scanner.shutdownNow();
+  }
+}
@@ -19,6 +19,7 @@ package com.google.extensions.service;
 import static utils.SslUtils.createSslContext;
 import static utils.SslUtils.readFileToBytes;
 
+import com.google.common.util.concurrent.MoreExecutors;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
@@ -28,16 +29,33 @@ import io.envoyproxy.envoy.service.ext_proc.v3.HttpHeaders;
 import io.envoyproxy.envoy.service.ext_proc.v3.ProcessingRequest;
 import io.envoyproxy.envoy.service.ext_proc.v3.ProcessingResponse;
 import io.grpc.Server;
-import io.grpc.ServerBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
 import io.grpc.netty.NettyServerBuilder;
 import io.grpc.stub.StreamObserver;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -49,8 +67,8 @@ import java.util.logging.Logger;
 public class ServiceCallout {
   private static final Logger logger = Logger.getLogger(ServiceCallout.class.getName());
 
-  private Server server;
-  private Server plaintextServer;
+  private final List<Server> servers = new ArrayList<>();
+  private final List<Server> plaintextServers = new ArrayList<>();
   private HttpServer healthCheckServer;
   private String ip;
   private int port;
@@ -65,6 +83,33 @@ public class ServiceCallout {
   private String certKeyPath;
   private int serverThreadCount;
   private boolean enablePlainTextPort;
+  private ExecutorMode executorMode;
+  private long blockingThresholdMillis;
+  private ExecutorService callbackExecutor;
+  private BlockingWatchdog watchdog;
+  private boolean useEpoll;
+  private Integer bossEventLoopThreads;
+  private Integer workerEventLoopThreads;
+  private boolean pooledAllocator;
+  private int reusePortListeners;
+  private EventLoopGroup bossGroup;
+  private EventLoopGroup workerGroup;
+  private Class<? extends ServerChannel> channelType;
+  private String inProcessName;
+
+  /** How the gRPC servers run the callout handlers. */
+  public enum ExecutorMode {
+    /** A bounded pool of serverThreadCount platform threads. */
+    FIXED,
+    /** A new virtual thread for each task, so handlers that block do not hold up other streams. */
+    VIRTUAL,
+    /**
+     * Directly on the Netty event loop, with no thread hop. Only for subclasses whose handlers
+     * never block; see {@link ServiceCallout#isNonBlocking()}. Handlers that run longer than the
+     * blocking threshold are logged.
+     */
+    DIRECT
+  }
 
   protected ServiceCallout(Builder<?> builder) {
     this.ip = Optional.ofNullable(builder.ip).orElse("0.0.0.0");
@@ -89,6 +134,15 @@ public class ServiceCallout {
 
     this.serverThreadCount = Optional.ofNullable(builder.serverThreadCount).orElse(2);
     this.enablePlainTextPort = Optional.ofNullable(builder.enablePlainTextPort).orElse(true);
+    this.executorMode = Optional.ofNullable(builder.executorMode).orElse(ExecutorMode.FIXED);
+    this.blockingThresholdMillis =
+        Optional.ofNullable(builder.blockingThresholdMillis).orElse(50L);
+    this.useEpoll = Optional.ofNullable(builder.useEpoll).orElse(false);
+    this.bossEventLoopThreads = builder.bossEventLoopThreads;
+    this.workerEventLoopThreads = builder.workerEventLoopThreads;
+    this.pooledAllocator = Optional.ofNullable(builder.pooledAllocator).orElse(false);
+    this.reusePortListeners = Optional.ofNullable(builder.reusePortListeners).orElse(1);
+    this.inProcessName = builder.inProcessName;
 
     // Initialize health check server if enabled
     if (!this.combinedHealthCheck) {
@@ -116,6 +170,14 @@ public class ServiceCallout {
     private String certKeyPath;
     private Integer serverThreadCount;
     private Boolean enablePlainTextPort;
+    private ExecutorMode executorMode;
+    private Long blockingThresholdMillis;
+    private Boolean useEpoll;
+    private Integer bossEventLoopThreads;
+    private Integer workerEventLoopThreads;
+    private Boolean pooledAllocator;
+    private Integer reusePortListeners;
+    private String inProcessName;
 
     public T setIp(String ip) {
       this.ip = ip;
@@ -182,6 +244,63 @@ public class ServiceCallout {
       return self();
     }
 
+    public T setExecutorMode(ExecutorMode executorMode) {
+      this.executorMode = executorMode;
+      return self();
+    }
+
+    /** Sets how long a handler may run in DIRECT mode before it is logged as blocking. */
+    public T setBlockingThresholdMillis(Long blockingThresholdMillis) {
+      this.blockingThresholdMillis = blockingThresholdMillis;
+      return self();
+    }
+
+    /** Use the native epoll transport, if it is available on this platform. */
+    public T setUseEpoll(Boolean useEpoll) {
+      this.useEpoll = useEpoll;
+      return self();
+    }
+
+    /**
+     * Sets the number of threads that accept connections. The default is one for each listener
+     * bound to a port; see {@link #setReusePortListeners(Integer)}.
+     */
+    public T setBossEventLoopThreads(Integer bossEventLoopThreads) {
+      this.bossEventLoopThreads = bossEventLoopThreads;
+      return self();
+    }
+
+    /** Sets the number of threads that perform connection I/O. */
+    public T setWorkerEventLoopThreads(Integer workerEventLoopThreads) {
+      this.workerEventLoopThreads = workerEventLoopThreads;
+      return self();
+    }
+
+    /** Allocate connection buffers from the pooled direct ByteBuf allocator. */
+    public T setPooledAllocator(Boolean pooledAllocator) {
+      this.pooledAllocator = pooledAllocator;
+      return self();
+    }
+
+    /**
+     * Sets the number of listeners bound to each port with SO_REUSEPORT, so that the kernel spreads
+     * incoming connections across them. Requires the epoll transport.
+     */
+    public T setReusePortListeners(Integer reusePortListeners) {
+      this.reusePortListeners = reusePortListeners;
+      return self();
+    }
+
+    /**
+     * Also serve the callout in-process, under the given name, for clients in the same JVM that
+     * connect with {@link io.grpc.inprocess.InProcessChannelBuilder#forName(String)}. Used for
+     * load testing without the network stack.
+     */
+    public T setInProcessName(String inProcessName) {
+      this.inProcessName = inProcessName;
+      return self();
+    }
+
     // Return type is generic to allow subclass builders to work correctly
     protected T self() {
       return (T) this;
@@ -199,7 +318,7 @@ public class ServiceCallout {
    */
   private void initHealthCheckServer() throws IOException {
     healthCheckServer = HttpServer.create(new InetSocketAddress(healthCheckIp, healthCheckPort), 0);
-    healthCheckServer.createContext(healthCheckPath, new HealthCheckHandler());
+    healthCheckServer.createContext(healthCheckPath, new HealthCheckHandler(this::isReady));
     healthCheckServer.setExecutor(Executors.newFixedThreadPool(1)); // Single-threaded executor
   }
 
@@ -211,32 +330,62 @@ public class ServiceCallout {
    */
   public void start() throws IOException {
     ExternalProcessorImpl processor = new ExternalProcessorImpl();
+    // Asked only now, once the subclass is fully constructed.
+    if (executorMode == ExecutorMode.DIRECT && !isNonBlocking()) {
+      logger.warning(
+          String.format(
+              "%s does not declare itself non-blocking; using executor mode FIXED, not DIRECT.",
+              getClass().getSimpleName()));
+      executorMode = ExecutorMode.FIXED;
+    }
+    // Both servers share a single executor.
+    callbackExecutor = createCallbackExecutor();
+    Executor serverExecutor = callbackExecutor;
+    if (executorMode == ExecutorMode.DIRECT) {
+      serverExecutor = MoreExecutors.directExecutor();
+      watchdog = new BlockingWatchdog(blockingThresholdMillis);
+    }
+
+    initTransport();
 
     if (cert != null && certKey != null) {
       logger.info("Secure server starting...");
 
-      server =
-          NettyServerBuilder.forPort(port)
-              .sslContext(createSslContext(cert, certKey))
-              .addService(processor)
-              .executor(Executors.newFixedThreadPool(serverThreadCount)) // Configurable thread pool
-              .build()
-              .start();
+      for (int i = 0; i < reusePortListeners; i++) {
+        servers.add(
+            nettyServerBuilder(port)
+                .sslContext(createSslContext(cert, certKey))
+                .addService(processor)
+                .executor(serverExecutor)
+                .build()
+                .start());
+      }
 
       logger.info("Secure Server started, listening on " + port);
     }
     if (enablePlainTextPort) {
       logger.info("Plaintext server starting...");
 
-      plaintextServer =
-          ServerBuilder.forPort(plaintextPort)
-              .addService(processor)
-              .executor(Executors.newFixedThreadPool(serverThreadCount)) // Configurable thread pool
-              .build()
-              .start();
+      for (int i = 0; i < reusePortListeners; i++) {
+        plaintextServers.add(
+            nettyServerBuilder(plaintextPort)
+                .addService(processor)
+                .executor(serverExecutor)
+                .build()
+                .start());
+      }
 
       logger.info("Plaintext Server started, listening on " + plaintextPort);
     }
+    if (inProcessName != null) {
+      servers.add(
+          InProcessServerBuilder.forName(inProcessName)
+              .addService(processor)
+              .executor(serverExecutor)
+              .build()
+              .start());
+      logger.info("In-process server started, with name " + inProcessName);
+    }
 
     // Start Health Check Server if enabled
     if (!combinedHealthCheck) {
@@ -264,21 +413,115 @@ public class ServiceCallout {
                 }));
   }
 
+  /**
+   * Sets up the Netty transport shared by all the servers. With no transport options, the gRPC
+   * defaults (NIO, with shared event loop groups) are used.
+   */
+  private void initTransport() {
+    boolean epoll = useEpoll && Epoll.isAvailable();
+    if (useEpoll && !epoll) {
+      logger.log(
+          Level.WARNING,
+          "The epoll transport is not available; using NIO.",
+          Epoll.unavailabilityCause());
+    }
+    if (reusePortListeners > 1 && !epoll) {
+      logger.warning("SO_REUSEPORT listeners require the epoll transport; using one listener.");
+      reusePortListeners = 1;
+    }
+    if (!epoll && bossEventLoopThreads == null && workerEventLoopThreads == null) {
+      return;
+    }
+    // One boss thread for each listener, so that SO_REUSEPORT listeners also accept in parallel.
+    int bossThreads = Optional.ofNullable(bossEventLoopThreads).orElse(reusePortListeners);
+    // zero means the Netty default, twice the number of cores
+    int workerThreads = Optional.ofNullable(workerEventLoopThreads).orElse(0);
+    ThreadFactory bossThreadFactory = new DefaultThreadFactory("callout-boss", true);
+    ThreadFactory workerThreadFactory = new DefaultThreadFactory("callout-worker", true);
+    if (epoll) {
+      bossGroup = new EpollEventLoopGroup(bossThreads, bossThreadFactory);
+      workerGroup = new EpollEventLoopGroup(workerThreads, workerThreadFactory);
+      channelType = EpollServerSocketChannel.class;
+    } else {
+      bossGroup = new NioEventLoopGroup(bossThreads, bossThreadFactory);
+      workerGroup = new NioEventLoopGroup(workerThreads, workerThreadFactory);
+      channelType = NioServerSocketChannel.class;
+    }
+    logger.info(
+        String.format(
+            "Transport %s, boss threads %d, worker threads %s, listeners per port %d",
+            epoll ? "epoll" : "nio",
+            bossThreads,
+            workerThreads == 0 ? "default" : String.valueOf(workerThreads),
+            reusePortListeners));
+  }
+
+  private NettyServerBuilder nettyServerBuilder(int listenPort) {
+    NettyServerBuilder builder = NettyServerBuilder.forPort(listenPort);
+    if (bossGroup != null) {
+      builder
+          .bossEventLoopGroup(bossGroup)
+          .workerEventLoopGroup(workerGroup)
+          .channelType(channelType);
+    }
+    if (pooledAllocator) {
+      builder
+          .withOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+          .withChildOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+    }
+    if (reusePortListeners > 1) {
+      builder.withOption(EpollChannelOption.SO_REUSEPORT, true);
+    }
+    return builder;
+  }
+
+  /** Returns the executor mode the handlers run with, which is only settled by {@link #start()}. */
+  ExecutorMode executorMode() {
+    return executorMode;
+  }
+
+  private ExecutorService createCallbackExecutor() {
+    logger.info(
+        String.format(
+            "Callout handlers run with executor mode %s%s",
+            executorMode,
+            executorMode == ExecutorMode.FIXED ? " (" + serverThreadCount + " threads)" : ""));
+    return switch (executorMode) {
+      case DIRECT -> null;
+      case VIRTUAL ->
+          Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("callout-", 0).factory());
+      default -> Executors.newFixedThreadPool(serverThreadCount);
+    };
+  }
+
   /**
    * Stops the gRPC server gracefully. This method will attempt to shut down the server within a
    * 30-second timeout.
    *
    * @throws InterruptedException If the shutdown process is interrupted.
    */
-  private void stop() throws InterruptedException {
-    if (server != null) {
+  void stop() throws InterruptedException {
+    for (Server server : servers) {
       server.shutdown().awaitTermination(30, TimeUnit.SECONDS);
     }
 
-    if (plaintextServer != null) {
+    for (Server plaintextServer : plaintextServers) {
       plaintextServer.shutdown().awaitTermination(30, TimeUnit.SECONDS);
     }
 
+    if (bossGroup != null) {
+      bossGroup.shutdownGracefully();
+      workerGroup.shutdownGracefully();
+    }
+
+    if (callbackExecutor != null) {
+      callbackExecutor.shutdown();
+    }
+
+    if (watchdog != null) {
+      watchdog.shutdown();
+    }
+
     if (!combinedHealthCheck && healthCheckServer != null) {
       healthCheckServer.stop(0); // 0 delay for immediate stop
       logger.info("Health Check Server stopped.");
@@ -292,11 +535,11 @@ public class ServiceCallout {
    * @throws InterruptedException If interrupted while waiting for the server to shut down.
    */
   public void blockUntilShutdown() throws InterruptedException {
-    if (server != null) {
+    for (Server server : servers) {
       server.awaitTermination();
     }
 
-    if (plaintextServer != null) {
+    for (Server plaintextServer : plaintextServers) {
       plaintextServer.awaitTermination();
     }
   }
@@ -334,6 +577,28 @@ public class ServiceCallout {
     return builder.build();
   }
 
+  /**
+   * Declares whether the handlers of this callout never block: they do no I/O, take no locks that
+   * may be held for long, and wait on nothing. Only a non-blocking callout may use {@link
+   * ExecutorMode#DIRECT}, which runs handlers on the Netty event loop.
+   *
+   * @return true if the handlers never block. The default is false.
+   */
+  protected boolean isNonBlocking() {
+    return false;
+  }
+
+  /**
+   * Reports whether the callout is ready to handle requests. Until it is, the health check
+   * responds with 503, so that the load balancer holds off sending traffic. Subclasses that load
+   * data in the background at startup override this to report when the data is available.
+   *
+   * @return true if the callout can handle requests. The default is true.
+   */
+  protected boolean isReady() {
+    return true;
+  }
+
   /**
    * Handles incoming request headers and allows for modification or response generation.
    *
@@ -379,7 +644,16 @@ public class ServiceCallout {
       return new StreamObserver<ProcessingRequest>() {
         @Override
         public void onNext(ProcessingRequest request) {
-          responseObserver.onNext(processRequest(request));
+          if (watchdog == null) {
+            responseObserver.onNext(processRequest(request));
+            return;
+          }
+          BlockingWatchdog.Slot slot = watchdog.enter();
+          try {
+            responseObserver.onNext(processRequest(request));
+          } finally {
+            slot.exit();
+          }
         }
 
         @Override
@@ -398,12 +672,22 @@ public class ServiceCallout {
     }
   }
 
-  /** Health Check Handler responds with a simple "OK" message to indicate the server is healthy. */
+  /**
+   * Health Check Handler responds with a simple "OK" message to indicate the server is healthy, or
+   * with a 503 while the server is not yet ready to handle callouts.
+   */
   private static class HealthCheckHandler implements HttpHandler {
+    private final BooleanSupplier ready;
+
+    HealthCheckHandler(BooleanSupplier ready) {
+      this.ready = ready;
+    }
+
     @Override
     public void handle(HttpExchange exchange) throws IOException {
-      String response = "OK";
-      exchange.sendResponseHeaders(200, response.length());
+      boolean isReady = ready.getAsBoolean();
+      String response = isReady ? "OK" : "NOT READY";
+      exchange.sendResponseHeaders(isReady ? 200 : 503, response.length());
       try (OutputStream os = exchange.getResponseBody()) {
         os.write(response.getBytes());
       }
@@ -0,0 +1,247 @@
+package utils;
+
+/*
+ * Copyright 2025 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+
+/**
+ * AsyncLogHandler hands log records to a bounded ring buffer and returns immediately; a single
+ * daemon thread drains the buffer into a delegate handler. When the buffer is full, records are
+ * dropped rather than blocking the caller, and the number dropped is reported later.
+ *
+ * <p>The ring buffer takes no locks: a thread that logs claims a slot with one compare-and-set,
+ * and the drainer thread, its only reader, frees slots without one. The drainer
+ * parks when the buffer is empty, and a thread that logs wakes it only if it is parked.
+ *
+ * <p>Configured through logging.properties:
+ *
+ * <pre>
+ * utils.AsyncLogHandler.capacity=8192
+ * utils.AsyncLogHandler.target=java.util.logging.ConsoleHandler
+ * utils.AsyncLogHandler.level=INFO
+ * </pre>
+ */
+public final class AsyncLogHandler extends Handler {
+  private static final int DEFAULT_CAPACITY = 8192;
+  private static final int DRAIN_BATCH = 256;
+  // How long the drainer parks when there is nothing to drain, at most.
+  private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private final Ring ring;
+  private final Handler target;
+  private final AtomicLong dropped = new AtomicLong();
+  private final Thread drainer;
+  private volatile boolean closed;
+  private volatile boolean drainerParked;
+
+  public AsyncLogHandler() {
+    this(
+        capacity(property("capacity")), createTarget(property("target")), level(property("level")));
+  }
+
+  AsyncLogHandler(int capacity, Handler target, Level level) {
+    this.ring = new Ring(capacity);
+    this.target = target;
+    setLevel(level);
+    this.drainer = new Thread(this::drain, "async-log");
+    this.drainer.setDaemon(true);
+    this.drainer.start();
+  }
+
+  private static String property(String name) {
+    return LogManager.getLogManager().getProperty(AsyncLogHandler.class.getName() + "." + name);
+  }
+
+  private static int capacity(String value) {
+    try {
+      return value != null ? Integer.parseInt(value.trim()) : DEFAULT_CAPACITY;
+    } catch (NumberFormatException e) {
+      return DEFAULT_CAPACITY;
+    }
+  }
+
+  private static Level level(String value) {
+    return value != null ? Level.parse(value.trim()) : Level.ALL;
+  }
+
+  private static Handler createTarget(String className) {
+    if (className == null) {
+      return new ConsoleHandler();
+    }
+    try {
+      return (Handler)
+          ClassLoader.getSystemClassLoader()
+              .loadClass(className.trim())
+              .getDeclaredConstructor()
+              .newInstance();
+    } catch (ReflectiveOperationException e) {
+      System.err.println("Cannot create log handler " + className + ": " + e);
+      return new ConsoleHandler();
+    }
+  }
+
+  @Override
+  public void publish(LogRecord record) {
+    if (closed || !isLoggable(record)) {
+      return;
+    }
+    if (!ring.offer(record)) {
+      dropped.incrementAndGet();
+      return;
+    }
+    if (drainerParked) {
+      LockSupport.unpark(drainer);
+    }
+  }
+
+  private void drain() {
+    while (true) {
+      int published = 0;
+      LogRecord record;
+      while (published < DRAIN_BATCH && (record = ring.poll()) != null) {
+        if (published == 0) {
+          reportDropped();
+        }
+        publishQuietly(record);
+        published++;
+      }
+      if (published > 0) {
+        target.flush();
+      } else if (closed) {
+        reportDropped();
+        target.flush();
+        return;
+      } else {
+        drainerParked = true;
+        // Checked again after parking is announced, so a record offered meanwhile is not missed.
+        if (ring.isEmpty() && !closed) {
+          LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+        }
+        drainerParked = false;
+      }
+    }
+  }
+
+  private void publishQuietly(LogRecord record) {
+    try {
+      target.publish(record);
+    } catch (RuntimeException e) {
+      reportError("Error publishing log record", e, 0);
+    }
+  }
+
+  private void reportDropped() {
+    long count = dropped.getAndSet(0);
+    if (count > 0) {
+      LogRecord record =
+          new LogRecord(Level.WARNING, String.format("%d log records were dropped", count));
+      record.setLoggerName(AsyncLogHandler.class.getName());
+      publishQuietly(record);
+    }
+  }
+
+  @Override
+  public void flush() {
+    target.flush();
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    LockSupport.unpark(drainer);
+    try {
+      drainer.join(TimeUnit.SECONDS.toMillis(5));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    target.close();
+  }
+
+  /**
+   * A bounded queue for many writers and one reader, after Dmitry Vyukov's bounded queue. Each
+   * slot carries a sequence number that says whether it is free for the writer of a given
+   * position, or holds the record for the reader of that position.
+   */
+  static final class Ring {
+    private final AtomicReferenceArray<LogRecord> slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    // Only the reader uses the head.
+    private long head;
+
+    Ring(int capacity) {
+      int size = 2;
+      while (size < capacity) {
+        size <<= 1;
+      }
+      this.slots = new AtomicReferenceArray<>(size);
+      this.sequences = new AtomicLongArray(size);
+      this.mask = size - 1;
+      for (int i = 0; i < size; i++) {
+        sequences.set(i, i);
+      }
+    }
+
+    /** Adds a record, unless the ring is full. Safe to call from any thread. */
+    boolean offer(LogRecord record) {
+      while (true) {
+        long position = tail.get();
+        int index = (int) position & mask;
+        long available = sequences.get(index) - position;
+        if (available == 0) {
+          if (tail.compareAndSet(position, position + 1)) {
+            slots.set(index, record);
+            sequences.set(index, position + 1);
+            return true;
+          }
+        } else if (available < 0) {
+          // The slot still holds the record from a lap ago.
+          return false;
+        }
+        // Otherwise another writer took this position first; try the next.
+      }
+    }
+
+    /** Removes the oldest record, or returns null if there is none. Only for the reader. */
+    LogRecord poll() {
+      int index = (int) head & mask;
+      if (sequences.get(index) != head + 1) {
+        return null;
+      }
+      LogRecord record = slots.get(index);
+      slots.set(index, null);
+      sequences.set(index, head + mask + 1);
+      head++;
+      return record;
+    }
+
+    /** Only for the reader. */
+    boolean isEmpty() {
+      return sequences.get((int) head & mask) != head + 1;
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package utils;
+
+/*
+ * Copyright 2025 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * JsonLogFormatter formats each record as a single line of JSON, using the field names that Cloud
+ * Logging recognizes in structured logs written to stdout or stderr. Structured fields attached by
+ * {@link StructuredLogger} are emitted as additional top-level fields.
+ */
+public class JsonLogFormatter extends Formatter {
+
+  @Override
+  public String format(LogRecord record) {
+    StringBuilder sb = new StringBuilder(256);
+    sb.append("{\"severity\":\"").append(severity(record.getLevel())).append('"');
+    sb.append(",\"time\":\"").append(record.getInstant()).append('"');
+    field(sb, "logger", record.getLoggerName());
+    field(sb, "message", messageOf(record));
+    Map<?, ?> fields = StructuredLogger.fieldsOf(record);
+    if (fields != null) {
+      for (Map.Entry<?, ?> entry : fields.entrySet()) {
+        Object value = entry.getValue();
+        if (value instanceof Number || value instanceof Boolean) {
+          sb.append(",\"");
+          escape(sb, String.valueOf(entry.getKey()));
+          sb.append("\":").append(value);
+        } else {
+          field(sb, String.valueOf(entry.getKey()), String.valueOf(value));
+        }
+      }
+    }
+    return sb.append("}\n").toString();
+  }
+
+  private String messageOf(LogRecord record) {
+    String message =
+        StructuredLogger.fieldsOf(record) != null ? record.getMessage() : formatMessage(record);
+    if (record.getThrown() == null) {
+      return message;
+    }
+    StringWriter sw = new StringWriter();
+    sw.append(message).append('\n');
+    record.getThrown().printStackTrace(new PrintWriter(sw));
+    return sw.toString();
+  }
+
+  private static String severity(Level level) {
+    int value = level.intValue();
+    if (value >= Level.SEVERE.intValue()) {
+      return "ERROR";
+    }
+    if (value >= Level.WARNING.intValue()) {
+      return "WARNING";
+    }
+    if (value >= Level.INFO.intValue()) {
+      return "INFO";
+    }
+    return "DEBUG";
+  }
+
+  private static void field(StringBuilder sb, String name, String value) {
+    if (value == null) {
+      return;
+    }
+    sb.append(",\"");
+    escape(sb, name);
+    sb.append("\":\"");
+    escape(sb, value);
+    sb.append('"');
+  }
+
+  private static void escape(StringBuilder sb, String s) {
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      switch (c) {
+        case '"' -> sb.append("\\\"");
+        case '\\' -> sb.append("\\\\");
+        case '\n' -> sb.append("\\n");
+        case '\r' -> sb.append("\\r");
+        case '\t' -> sb.append("\\t");
+        default -> {
+          if (c < 0x20) {
+            sb.append(String.format("\\u%04x", (int) c));
+          } else {
+            sb.append(c);
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,413 @@
+package utils;
+
+/*
+ * Copyright 2025 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+/**
+ * PersistentHashMap is an immutable hash array mapped trie. Each change returns a new map that
+ * shares every node off the path to the changed entry with the original, so a change costs a few
+ * small arrays however large the map is, and the original stays valid for readers that still hold
+ * it.
+ *
+ * <p>Bulk changes go through a {@link Builder}, which copies each node on the path of its first
+ * change and then edits its own copies in place. Building a map of n entries, or applying k
+ * changes to an existing one, therefore allocates in proportion to n or to k.
+ *
+ * <p>Null keys and values are not allowed. Iteration order is unspecified.
+ */
+public final class PersistentHashMap<K, V> {
+  private static final int BITS = 5;
+  private static final int MASK = (1 << BITS) - 1;
+  private static final PersistentHashMap<?, ?> EMPTY =
+      new PersistentHashMap<>(BitmapNode.EMPTY, 0);
+
+  private final Node root;
+  private final int size;
+
+  private PersistentHashMap(Node root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  @SuppressWarnings("unchecked")
+  public static <K, V> PersistentHashMap<K, V> empty() {
+    return (PersistentHashMap<K, V>) EMPTY;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /** Returns the value for the key, or null if there is none. */
+  @SuppressWarnings("unchecked")
+  public V get(Object key) {
+    return size == 0 ? null : (V) root.find(0, hash(key), key);
+  }
+
+  public boolean containsKey(Object key) {
+    return get(key) != null;
+  }
+
+  /** Returns a map with the key set to the value; this map, if it already holds that value. */
+  public PersistentHashMap<K, V> with(K key, V value) {
+    return toBuilder().put(key, value).build();
+  }
+
+  /** Returns a map without the key; this map, if it has no such key. */
+  public PersistentHashMap<K, V> without(K key) {
+    return toBuilder().remove(key).build();
+  }
+
+  @SuppressWarnings("unchecked")
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    root.forEach((BiConsumer<Object, Object>) action);
+  }
+
+  /** Returns a builder that starts from the entries of this map, without copying them. */
+  public Builder<K, V> toBuilder() {
+    return new Builder<>(this);
+  }
+
+  public static <K, V> Builder<K, V> builder() {
+    return PersistentHashMap.<K, V>empty().toBuilder();
+  }
+
+  /**
+   * Accumulates changes to a map. The builder owns the nodes it has copied, and edits them in
+   * place; nodes shared with the map it started from are copied before their first change. After
+   * {@link #build()}, the builder can no longer be used.
+   */
+  public static final class Builder<K, V> {
+    private Object edit = new Object();
+    private final PersistentHashMap<K, V> origin;
+    private Node root;
+    private int size;
+    private final Change change = new Change();
+
+    private Builder(PersistentHashMap<K, V> origin) {
+      this.origin = origin;
+      this.root = origin.root;
+      this.size = origin.size;
+    }
+
+    public Builder<K, V> put(K key, V value) {
+      Objects.requireNonNull(key, "key");
+      Objects.requireNonNull(value, "value");
+      change.happened = false;
+      root = root.assoc(editToken(), 0, hash(key), key, value, change);
+      if (change.happened) {
+        size++;
+      }
+      return this;
+    }
+
+    public Builder<K, V> remove(K key) {
+      change.happened = false;
+      Node newRoot = root.without(editToken(), 0, hash(key), key, change);
+      root = newRoot == null ? BitmapNode.EMPTY : newRoot;
+      if (change.happened) {
+        size--;
+      }
+      return this;
+    }
+
+    public int size() {
+      return size;
+    }
+
+    public PersistentHashMap<K, V> build() {
+      editToken();
+      // Nodes that carry the old token can never be edited again.
+      edit = null;
+      if (root == origin.root) {
+        return origin;
+      }
+      return size == 0 ? empty() : new PersistentHashMap<>(root, size);
+    }
+
+    private Object editToken() {
+      if (edit == null) {
+        throw new IllegalStateException("The builder has already built its map.");
+      }
+      return edit;
+    }
+  }
+
+  /** Records whether an entry was added or removed, as opposed to replaced or left alone. */
+  private static final class Change {
+    boolean happened;
+  }
+
+  private static int hash(Object key) {
+    int h = key.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+  private static int bitpos(int hash, int shift) {
+    return 1 << ((hash >>> shift) & MASK);
+  }
+
+  private interface Node {
+    Object find(int shift, int hash, Object key);
+
+    /** Returns this node if nothing changed. */
+    Node assoc(Object edit, int shift, int hash, Object key, Object value, Change added);
+
+    /** Returns this node if nothing changed, or null if the node is left empty. */
+    Node without(Object edit, int shift, int hash, Object key, Change removed);
+
+    void forEach(BiConsumer<Object, Object> action);
+  }
+
+  /**
+   * An interior node. The array holds a pair of slots for each bit set in the bitmap: a key and
+   * its value, or null and a child node.
+   */
+  private static final class BitmapNode implements Node {
+    static final BitmapNode EMPTY = new BitmapNode(null, 0, new Object[0]);
+
+    final Object edit;
+    int bitmap;
+    Object[] array;
+
+    BitmapNode(Object edit, int bitmap, Object[] array) {
+      this.edit = edit;
+      this.bitmap = bitmap;
+      this.array = array;
+    }
+
+    private int index(int bit) {
+      return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    @Override
+    public Object find(int shift, int hash, Object key) {
+      int bit = bitpos(hash, shift);
+      if ((bitmap & bit) == 0) {
+        return null;
+      }
+      int idx = index(bit);
+      Object k = array[2 * idx];
+      Object v = array[2 * idx + 1];
+      if (k == null) {
+        return ((Node) v).find(shift + BITS, hash, key);
+      }
+      return key.equals(k) ? v : null;
+    }
+
+    @Override
+    public Node assoc(Object edit, int shift, int hash, Object key, Object value, Change added) {
+      int bit = bitpos(hash, shift);
+      int idx = index(bit);
+      if ((bitmap & bit) != 0) {
+        Object k = array[2 * idx];
+        Object v = array[2 * idx + 1];
+        if (k == null) {
+          Node child = ((Node) v).assoc(edit, shift + BITS, hash, key, value, added);
+          return child == v ? this : set(edit, 2 * idx + 1, child);
+        }
+        if (key.equals(k)) {
+          return v == value ? this : set(edit, 2 * idx + 1, value);
+        }
+        added.happened = true;
+        Node child = pair(edit, shift + BITS, k, v, hash, key, value);
+        BitmapNode node = ensureEditable(edit);
+        node.array[2 * idx] = null;
+        node.array[2 * idx + 1] = child;
+        return node;
+      }
+      added.happened = true;
+      int n = Integer.bitCount(bitmap);
+      Object[] newArray = new Object[2 * (n + 1)];
+      System.arraycopy(array, 0, newArray, 0, 2 * idx);
+      newArray[2 * idx] = key;
+      newArray[2 * idx + 1] = value;
+      System.arraycopy(array, 2 * idx, newArray, 2 * (idx + 1), 2 * (n - idx));
+      if (edit != null && edit == this.edit) {
+        bitmap |= bit;
+        array = newArray;
+        return this;
+      }
+      return new BitmapNode(edit, bitmap | bit, newArray);
+    }
+
+    @Override
+    public Node without(Object edit, int shift, int hash, Object key, Change removed) {
+      int bit = bitpos(hash, shift);
+      if ((bitmap & bit) == 0) {
+        return this;
+      }
+      int idx = index(bit);
+      Object k = array[2 * idx];
+      Object v = array[2 * idx + 1];
+      if (k == null) {
+        Node child = ((Node) v).without(edit, shift + BITS, hash, key, removed);
+        if (child == v) {
+          return this;
+        }
+        if (child != null) {
+          return set(edit, 2 * idx + 1, child);
+        }
+      } else if (!key.equals(k)) {
+        return this;
+      } else {
+        removed.happened = true;
+      }
+      if (bitmap == bit) {
+        return null;
+      }
+      int n = Integer.bitCount(bitmap);
+      Object[] newArray = new Object[2 * (n - 1)];
+      System.arraycopy(array, 0, newArray, 0, 2 * idx);
+      System.arraycopy(array, 2 * (idx + 1), newArray, 2 * idx, 2 * (n - idx - 1));
+      if (edit != null && edit == this.edit) {
+        bitmap ^= bit;
+        array = newArray;
+        return this;
+      }
+      return new BitmapNode(edit, bitmap ^ bit, newArray);
+    }
+
+    @Override
+    public void forEach(BiConsumer<Object, Object> action) {
+      for (int i = 0; i < array.length; i += 2) {
+        if (array[i] == null) {
+          ((Node) array[i + 1]).forEach(action);
+        } else {
+          action.accept(array[i], array[i + 1]);
+        }
+      }
+    }
+
+    private BitmapNode ensureEditable(Object edit) {
+      if (edit != null && edit == this.edit) {
+        return this;
+      }
+      return new BitmapNode(edit, bitmap, array.clone());
+    }
+
+    private BitmapNode set(Object edit, int i, Object a) {
+      BitmapNode node = ensureEditable(edit);
+      node.array[i] = a;
+      return node;
+    }
+
+    /** Creates the node for two entries that fell into the same slot at the shift before. */
+    private static Node pair(
+        Object edit, int shift, Object k1, Object v1, int h2, Object k2, Object v2) {
+      int h1 = hash(k1);
+      if (h1 == h2) {
+        return new CollisionNode(edit, h1, new Object[] {k1, v1, k2, v2});
+      }
+      Change ignored = new Change();
+      return EMPTY.assoc(edit, shift, h1, k1, v1, ignored).assoc(edit, shift, h2, k2, v2, ignored);
+    }
+  }
+
+  /** A leaf for keys whose hashes are equal in all 32 bits; the array holds key, value pairs. */
+  private static final class CollisionNode implements Node {
+    final Object edit;
+    final int hash;
+    Object[] array;
+
+    CollisionNode(Object edit, int hash, Object[] array) {
+      this.edit = edit;
+      this.hash = hash;
+      this.array = array;
+    }
+
+    private int indexOf(Object key) {
+      for (int i = 0; i < array.length; i += 2) {
+        if (key.equals(array[i])) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    public Object find(int shift, int hash, Object key) {
+      if (hash != this.hash) {
+        return null;
+      }
+      int i = indexOf(key);
+      return i < 0 ? null : array[i + 1];
+    }
+
+    @Override
+    public Node assoc(Object edit, int shift, int hash, Object key, Object value, Change added) {
+      if (hash != this.hash) {
+        // Push this leaf down a level, beside the new entry.
+        return new BitmapNode(edit, bitpos(this.hash, shift), new Object[] {null, this})
+            .assoc(edit, shift, hash, key, value, added);
+      }
+      int i = indexOf(key);
+      Object[] newArray;
+      if (i >= 0) {
+        if (array[i + 1] == value) {
+          return this;
+        }
+        newArray = array.clone();
+        newArray[i + 1] = value;
+      } else {
+        added.happened = true;
+        newArray = new Object[array.length + 2];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        newArray[array.length] = key;
+        newArray[array.length + 1] = value;
+      }
+      if (edit != null && edit == this.edit) {
+        array = newArray;
+        return this;
+      }
+      return new CollisionNode(edit, hash, newArray);
+    }
+
+    @Override
+    public Node without(Object edit, int shift, int hash, Object key, Change removed) {
+      int i = hash == this.hash ? indexOf(key) : -1;
+      if (i < 0) {
+        return this;
+      }
+      removed.happened = true;
+      if (array.length == 2) {
+        return null;
+      }
+      Object[] newArray = new Object[array.length - 2];
+      System.arraycopy(array, 0, newArray, 0, i);
+      System.arraycopy(array, i + 2, newArray, i, array.length - i - 2);
+      if (edit != null && edit == this.edit) {
+        array = newArray;
+        return this;
+      }
+      return new CollisionNode(edit, hash, newArray);
+    }
+
+    @Override
+    public void forEach(BiConsumer<Object, Object> action) {
+      for (int i = 0; i < array.length; i += 2) {
+        action.accept(array[i], array[i + 1]);
+      }
+    }
+  }
+}
@@ -0,0 +1,141 @@
+package utils;
+
+/*
+ * Copyright 2025 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * StructuredLogger wraps a {@link Logger} for use on hot paths. Each message is named by an event,
+ * built only if the level is enabled, and may be sampled so that only about one in every N
+ * occurrences of an event is logged. The event name and sampling details travel with the record as
+ * structured fields, which {@link JsonLogFormatter} emits as JSON.
+ *
+ * <p>Sampling is meant for request paths, so it shares no hot counter between threads: each
+ * occurrence is chosen with {@link ThreadLocalRandom}, and occurrences are counted in a {@link
+ * LongAdder}, which is summed only when a record is logged.
+ */
+public final class StructuredLogger {
+
+  /** Marks the parameters of a record created by this class. */
+  private record Fields(Map<String, Object> values) {}
+
+  private final Logger logger;
+  private final Map<String, EventCount> eventCounts = new ConcurrentHashMap<>();
+
+  /** The occurrences of a sampled event. */
+  private static final class EventCount {
+    final LongAdder occurrences = new LongAdder();
+    // Set once the first occurrence has been logged.
+    volatile boolean logged;
+  }
+
+  private StructuredLogger(Logger logger) {
+    this.logger = logger;
+  }
+
+  public static StructuredLogger getLogger(String name) {
+    return new StructuredLogger(Logger.getLogger(name));
+  }
+
+  public boolean isLoggable(Level level) {
+    return logger.isLoggable(level);
+  }
+
+  /**
+   * Logs an event. The message supplier is called only if the level is enabled.
+   *
+   * @param level the level.
+   * @param event a short, stable name for the event.
+   * @param message supplies the message.
+   */
+  public void log(Level level, String event, Supplier<String> message) {
+    if (logger.isLoggable(level)) {
+      publish(level, message.get(), Map.of("event", event));
+    }
+  }
+
+  /**
+   * Logs the first occurrence of an event, and after it, each occurrence with a probability of one
+   * in {@code sampleRate}. The message supplier is called only for the occurrences that are
+   * logged.
+   *
+   * @param level the level.
+   * @param event a short, stable name for the event; occurrences are counted per event.
+   * @param sampleRate log about one occurrence in this many.
+   * @param message supplies the message.
+   */
+  public void sampled(Level level, String event, int sampleRate, Supplier<String> message) {
+    if (!logger.isLoggable(level)) {
+      return;
+    }
+    EventCount count = eventCounts.get(event);
+    if (count == null) {
+      count = eventCounts.computeIfAbsent(event, k -> new EventCount());
+    }
+    count.occurrences.increment();
+    if (sampleRate <= 1 || !count.logged || ThreadLocalRandom.current().nextInt(sampleRate) == 0) {
+      if (!count.logged) {
+        count.logged = true;
+      }
+      publish(
+          level,
+          message.get(),
+          Map.of(
+              "event", event, "sampleRate", sampleRate, "occurrences", count.occurrences.sum()));
+    }
+  }
+
+  public void info(String event, Supplier<String> message) {
+    log(Level.INFO, event, message);
+  }
+
+  public void warning(String event, Supplier<String> message) {
+    log(Level.WARNING, event, message);
+  }
+
+  public void fine(String event, Supplier<String> message) {
+    log(Level.FINE, event, message);
+  }
+
+  private void publish(Level level, String message, Map<String, Object> fields) {
+    LogRecord record = new LogRecord(level, message);
+    record.setLoggerName(logger.getName());
+    record.setParameters(new Object[] {new Fields(fields)});
+    logger.log(record);
+  }
+
+  /**
+   * Returns the structured fields of a record logged through a StructuredLogger.
+   *
+   * @param record the record.
+   * @return the fields, or null if the record did not come from a StructuredLogger.
+   */
+  static Map<String, Object> fieldsOf(LogRecord record) {
+    Object[] params = record.getParameters();
+    if (params != null && params.length == 1 && params[0] instanceof Fields fields) {
+      return fields.values();
+    }
+    return null;
+  }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.example;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.Range;
+import com.google.protobuf.ByteString;
+import io.envoyproxy.envoy.config.core.v3.HeaderMap;
+import io.envoyproxy.envoy.config.core.v3.HeaderValue;
+import io.envoyproxy.envoy.service.ext_proc.v3.HttpHeaders;
+import io.envoyproxy.envoy.service.ext_proc.v3.ImmediateResponse;
+import io.envoyproxy.envoy.service.ext_proc.v3.ProcessingResponse;
+import io.envoyproxy.envoy.type.v3.StatusCode;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/** Tests of how the authorizer answers requests, through {@code onRequestHeaders}. */
+public class ApikeyAuthorizationRequestTest {
+  private final Logger logger = Logger.getLogger(ApikeyAuthorization.class.getName());
+  private final List<LogRecord> logged = new CopyOnWriteArrayList<>();
+  private final Handler capture =
+      new Handler() {
+        @Override
+        public void publish(LogRecord record) {
+          logged.add(record);
+        }
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public void close() {}
+      };
+  private final CacheService cache = new CacheService();
+
+  @BeforeEach
+  public void setUp() throws ClassNotFoundException {
+    // Initializing the class reads logging.properties, which would remove the handler.
+    Class.forName(ApikeyAuthorization.class.getName());
+    logger.addHandler(capture);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    logger.removeHandler(capture);
+    cache.shutdown();
+  }
+
+  /** Builds an authorizer that serves the given keys. */
+  private ApikeyAuthorization.Builder authorizer(KeySnapshot snapshot) {
+    cache.registerLoader("apikeys", (key) -> snapshot, 60);
+    cache.whenReady("apikeys").join();
+    // With the health check served on the main port, building the server binds no port.
+    return new ApikeyAuthorization.Builder().withCacheService(cache).setCombinedHealthCheck(true);
+  }
+
+  private long loggedEvents(String messagePrefix) {
+    return logged.stream().filter(record -> record.getMessage().startsWith(messagePrefix)).count();
+  }
+
+  @Test
+  public void testRevokedKeyIsLoggedOnce() {
+    KeySnapshot base =
+        KeySnapshot.fromRows(
+            List.of(List.of("kept", "/status", "GET"), List.of("revoked", "/status", "GET")),
+            "startup");
+    KeySnapshot.Builder delta = new KeySnapshot.Builder();
+    delta.addRow(List.of("kept", "/status", "GET"));
+    KeySnapshot snapshot = delta.build("later", base);
+    // The filter is shared with the base, so it still lets the revoked key through.
+    assertThat(snapshot.mightContain("revoked")).isTrue();
+
+    ApikeyAuthorization authorizer = authorizer(snapshot).withDecisionCacheSize(0).build();
+    for (int i = 0; i < 5; i++) {
+      assertThat(statusOf(respond(authorizer, "revoked", "/status")))
+          .isEqualTo(StatusCode.Forbidden);
+    }
+    assertThat(loggedEvents("Did not find that API Key")).isEqualTo(1);
+  }
+
+  @Test
+  public void testDecisionCacheIgnoresQueryStrings() {
+    KeySnapshot snapshot = KeySnapshot.fromRows(List.of(List.of("key", "/status", "GET")), "t");
+    ApikeyAuthorization authorizer = authorizer(snapshot).withDecisionCacheSize(100).build();
+    for (int i = 0; i < 10; i++) {
+      assertThat(respond(authorizer, "key", "/status?nonce=" + i).hasImmediateResponse())
+          .isFalse();
+    }
+    assertThat(statusOf(respond(authorizer, "key", "/other?nonce=0")))
+        .isEqualTo(StatusCode.Forbidden);
+    // One decision for each path, however many query strings it came with.
+    assertThat(authorizer.decisionCacheStats().missCount()).isEqualTo(2);
+    assertThat(authorizer.decisionCacheStats().hitCount()).isEqualTo(9);
+  }
+
+  @Test
+  public void testNotReadyUntilKeysLoad() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    KeySnapshot snapshot = KeySnapshot.fromRows(List.of(List.of("key", "/status", "GET")), "t");
+    cache.registerLoader(
+        "apikeys",
+        (key) -> {
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+          }
+          return snapshot;
+        },
+        60);
+    ApikeyAuthorization authorizer =
+        new ApikeyAuthorization.Builder()
+            .withCacheService(cache)
+            .setCombinedHealthCheck(true)
+            .build();
+    // The health check answers 503 while the callout is not ready.
+    assertThat(authorizer.isReady()).isFalse();
+    for (int i = 0; i < 1000; i++) {
+      assertThat(statusOf(respond(authorizer, "key", "/status"))).isEqualTo(StatusCode.Forbidden);
+    }
+    // Sampled, so a flood of requests before the first load does not flood the log.
+    assertThat(loggedEvents("Could not load apikeys")).isIn(Range.closed(1L, 100L));
+
+    release.countDown();
+    cache.whenReady("apikeys").get(10, TimeUnit.SECONDS);
+    assertThat(authorizer.isReady()).isTrue();
+    assertThat(respond(authorizer, "key", "/status").hasImmediateResponse()).isFalse();
+  }
+
+  private static final List<List<String>> LIMITED_ROWS =
+      List.of(
+          List.of("limited", "/status", "GET", "2/hour"), List.of("unlimited", "/status", "GET"));
+
+  @Test
+  public void testAnswers429() {
+    assertAnswers429(authorizer(KeySnapshot.fromRows(LIMITED_ROWS, "startup")).build());
+  }
+
+  @Test
+  public void testAnswers429OffHeap() {
+    KeySnapshot.Builder builder = new KeySnapshot.Builder(true);
+    LIMITED_ROWS.forEach(builder::addRow);
+    assertAnswers429(authorizer(builder.build("startup")).build());
+  }
+
+  private static void assertAnswers429(ApikeyAuthorization authorizer) {
+    for (int i = 0; i < 2; i++) {
+      assertThat(respond(authorizer, "limited", "/status").hasImmediateResponse()).isFalse();
+    }
+    ImmediateResponse immediate = respond(authorizer, "limited", "/status").getImmediateResponse();
+    assertThat(immediate.getStatus().getCode()).isEqualTo(StatusCode.TooManyRequests);
+    HeaderValue retryAfter = immediate.getHeaders().getSetHeaders(0).getHeader();
+    assertThat(retryAfter.getKey()).isEqualTo("Retry-After");
+    assertThat(Long.parseLong(retryAfter.getRawValue().toStringUtf8())).isGreaterThan(1000L);
+
+    for (int i = 0; i < 10; i++) {
+      assertThat(respond(authorizer, "unlimited", "/status").hasImmediateResponse()).isFalse();
+    }
+  }
+
+  static StatusCode statusOf(ProcessingResponse response) {
+    return response.getImmediateResponse().getStatus().getCode();
+  }
+
+  static ProcessingResponse respond(ApikeyAuthorization authorizer, String apikey, String path) {
+    HeaderMap.Builder headers = HeaderMap.newBuilder();
+    String[] keysAndValues = {":method", "GET", ":path", path, "authorization", "APIKEY " + apikey};
+    for (int i = 0; i < keysAndValues.length; i += 2) {
+      headers.addHeaders(
+          HeaderValue.newBuilder()
+              .setKey(keysAndValues[i])
+              .setRawValue(ByteString.copyFromUtf8(keysAndValues[i + 1])));
+    }
+    ProcessingResponse.Builder response = ProcessingResponse.newBuilder();
+    authorizer.onRequestHeaders(response, HttpHeaders.newBuilder().setHeaders(headers).build());
+    return response.build();
+  }
+}
@@ -0,0 +1,351 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.example;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.google.common.collect.Range;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class CacheServiceTest {
+  private final List<CacheService> caches = new ArrayList<>();
+
+  /** Keeps a cache to shut down after the test, so that its loaders stop with it. */
+  private CacheService track(CacheService cache) {
+    caches.add(cache);
+    return cache;
+  }
+
+  @AfterEach
+  public void tearDown() {
+    caches.forEach(CacheService::shutdown);
+  }
+
+  @Test
+  public void testReadsDoNotTriggerLoads() {
+    AtomicInteger loads = new AtomicInteger();
+    CacheService cache = track(new CacheService());
+    cache.registerLoader("k", (key) -> loads.incrementAndGet(), 60);
+    cache.whenReady("k").join();
+    for (int i = 0; i < 1000; i++) {
+      assertThat(cache.get("k")).isEqualTo(1);
+    }
+    assertThat(loads.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void testRefreshesAheadOfExpiry() throws InterruptedException {
+    AtomicInteger loads = new AtomicInteger();
+    List<Object> seen = new CopyOnWriteArrayList<>();
+    // With a one minute TTL, the first refresh comes after 1.2 seconds.
+    CacheService cache = track(new CacheService(0.02, 0));
+    cache.registerLoader("k", (key) -> loads.incrementAndGet(), 1);
+    cache.addListener("k", seen::add);
+
+    // Listeners are told after the value is published, so once the second has been seen, the
+    // cache serves the second load or a later one.
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (seen.size() < 2 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(seen.subList(0, 2)).containsExactly(1, 2).inOrder();
+    assertThat((Integer) cache.get("k")).isAtLeast(2);
+    // Between refreshes, the cache serves the latest load.
+    boolean caughtUp = false;
+    while (!caughtUp && System.nanoTime() < deadline) {
+      caughtUp = cache.get("k").equals(loads.get());
+      Thread.sleep(10);
+    }
+    assertThat(caughtUp).isTrue();
+  }
+
+  @Test
+  public void testSameInstanceIsNotReported() throws InterruptedException {
+    Object unchanged = new Object();
+    AtomicInteger loads = new AtomicInteger();
+    List<Object> seen = new CopyOnWriteArrayList<>();
+    // With a one minute TTL, the first refresh comes after 1.2 seconds.
+    CacheService cache = track(new CacheService(0.02, 0));
+    cache.registerLoader(
+        "k",
+        (key) -> {
+          loads.incrementAndGet();
+          return unchanged;
+        },
+        1);
+    cache.addListener("k", seen::add);
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (loads.get() < 2 && System.nanoTime() < deadline) {
+      Thread.sleep(50);
+    }
+    assertThat(loads.get()).isAtLeast(2);
+    assertThat(seen).containsExactly(unchanged);
+  }
+
+  @Test
+  public void testHandleReadsTypedValue() {
+    CacheService cache = track(new CacheService());
+    cache.registerLoader("k", (key) -> "value", 60);
+    cache.whenReady("k").join();
+    CacheService.Handle<String> handle = cache.handle("k", String.class);
+    assertThat(handle.get()).isEqualTo("value");
+    assertThat(handle.isExpired()).isFalse();
+    assertThat(cache.get("k", String.class)).isEqualTo("value");
+    assertThrows(ClassCastException.class, () -> cache.handle("k", Integer.class).get());
+    assertThrows(IllegalStateException.class, () -> cache.handle("missing", String.class));
+  }
+
+  @Test
+  public void testLoadsInParallel() throws Exception {
+    CountDownLatch bothStarted = new CountDownLatch(2);
+    Function<String, Object> loader =
+        (key) -> {
+          bothStarted.countDown();
+          try {
+            // Completes only if the other load is running at the same time.
+            return bothStarted.await(5, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+          }
+        };
+    CacheService cache = track(new CacheService());
+    cache.registerLoader("a", loader, 60);
+    cache.registerLoader("b", loader, 60);
+    cache.whenReady("a", "b").get(10, TimeUnit.SECONDS);
+    assertThat(cache.get("a")).isEqualTo(true);
+    assertThat(cache.get("b")).isEqualTo(true);
+  }
+
+  @Test
+  public void testLoadsAfterDependencies() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    CacheService cache = track(new CacheService());
+    cache.registerLoader(
+        "token",
+        (key) -> {
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+          }
+          return "t1";
+        },
+        60);
+    cache.registerLoader("keys", (key) -> "keys-for-" + cache.get("token"), 60, "token");
+    CacheService.Handle<String> keys = cache.handle("keys", String.class);
+
+    Thread.sleep(100);
+    assertThat(keys.isLoaded()).isFalse();
+    assertThat(keys.get()).isNull();
+
+    release.countDown();
+    cache.whenReady("keys").get(10, TimeUnit.SECONDS);
+    assertThat(keys.get()).isEqualTo("keys-for-t1");
+  }
+
+  @Test
+  public void testSeedServesUntilFirstLoad() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    List<Object> seen = new CopyOnWriteArrayList<>();
+    CacheService cache = track(new CacheService());
+    cache.registerLoader(
+        "k",
+        (key) -> {
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+          }
+          return "loaded";
+        },
+        60);
+    cache.addListener("k", seen::add);
+    assertThat(cache.seed("k", "saved")).isTrue();
+    assertThat(cache.whenReady("k").isDone()).isTrue();
+    assertThat(cache.get("k")).isEqualTo("saved");
+
+    release.countDown();
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!"loaded".equals(cache.get("k")) && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(cache.get("k")).isEqualTo("loaded");
+    assertThat(cache.seed("k", "too late")).isFalse();
+    assertThat(seen).containsExactly("saved", "loaded").inOrder();
+  }
+
+  @Test
+  public void testRefreshNowCoalescesDuringLoad() throws Exception {
+    AtomicInteger loads = new AtomicInteger();
+    CountDownLatch secondLoadStarted = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch fourthLoad = new CountDownLatch(1);
+    CacheService cache = track(new CacheService());
+    cache.registerLoader(
+        "k",
+        (key) -> {
+          int n = loads.incrementAndGet();
+          if (n == 4) {
+            fourthLoad.countDown();
+          }
+          if (n == 2) {
+            secondLoadStarted.countDown();
+            try {
+              release.await();
+            } catch (InterruptedException e) {
+              throw new IllegalStateException(e);
+            }
+          }
+          return n;
+        },
+        60);
+    cache.whenReady("k").get(5, TimeUnit.SECONDS);
+
+    // With a one hour TTL, the second load comes only when asked for.
+    cache.refreshNow("k");
+    assertThat(secondLoadStarted.await(5, TimeUnit.SECONDS)).isTrue();
+    // Asked for while the second load runs: these make one more load, after it.
+    cache.refreshNow("k");
+    cache.refreshNow("k");
+    release.countDown();
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!Integer.valueOf(3).equals(cache.get("k")) && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(cache.get("k")).isEqualTo(3);
+    assertThat(fourthLoad.await(500, TimeUnit.MILLISECONDS)).isFalse();
+    assertThat(loads.get()).isEqualTo(3);
+  }
+
+  @Test
+  public void testRejectsUnknownDependency() {
+    CacheService cache = track(new CacheService());
+    assertThrows(
+        IllegalStateException.class, () -> cache.registerLoader("k", (key) -> "v", 60, "missing"));
+  }
+
+  private static final CacheService.RetryPolicy FAST_RETRY =
+      new CacheService.RetryPolicy(
+          Duration.ofMillis(10), Duration.ofMillis(40), 3, Duration.ofMillis(500));
+
+  @Test
+  public void testRetriesFailedLoadsWithBackoff() throws Exception {
+    AtomicInteger attempts = new AtomicInteger();
+    CacheService cache = track(new CacheService(0.8, 0.1, FAST_RETRY));
+    cache.registerLoader(
+        "k",
+        (key) -> {
+          if (attempts.incrementAndGet() < 3) {
+            throw new IllegalStateException("upstream down");
+          }
+          return "ok";
+        },
+        60);
+    cache.whenReady("k").get(5, TimeUnit.SECONDS);
+    assertThat(cache.get("k")).isEqualTo("ok");
+    assertThat(attempts.get()).isEqualTo(3);
+  }
+
+  @Test
+  public void testTreatsNullAsFailure() throws Exception {
+    AtomicInteger attempts = new AtomicInteger();
+    CacheService cache = track(new CacheService(0.8, 0.1, FAST_RETRY));
+    cache.registerLoader("k", (key) -> attempts.incrementAndGet() < 2 ? null : "ok", 60);
+    cache.whenReady("k").get(5, TimeUnit.SECONDS);
+    assertThat(cache.get("k")).isEqualTo("ok");
+    assertThat(attempts.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void testCircuitOpensAfterRepeatedFailures() throws InterruptedException {
+    List<Long> attempts = new CopyOnWriteArrayList<>();
+    CacheService cache = track(new CacheService(0.8, 0.1, FAST_RETRY));
+    cache.registerLoader(
+        "k",
+        (key) -> {
+          attempts.add(System.nanoTime());
+          throw new IllegalStateException("upstream down");
+        },
+        60);
+    // Three attempts with backoff of at most 40 ms, then the circuit is open for 500 ms, after
+    // which a single trial load fails and opens it again.
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (attempts.size() < 4 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(attempts.size()).isAtLeast(4);
+    assertThat(cache.handle("k", Object.class).isLoaded()).isFalse();
+    assertThat(TimeUnit.NANOSECONDS.toMillis(attempts.get(3) - attempts.get(2))).isAtLeast(500);
+    cache.shutdown();
+    int attemptsAtShutdown = attempts.size();
+    Thread.sleep(600);
+    assertThat(attempts).hasSize(attemptsAtShutdown);
+  }
+
+  @Test
+  public void testKeepsLastGoodValue() throws InterruptedException {
+    AtomicInteger attempts = new AtomicInteger();
+    // With a one minute TTL, the first refresh comes after 1.2 seconds.
+    CacheService cache = track(new CacheService(0.02, 0, FAST_RETRY));
+    cache.registerLoader(
+        "k",
+        (key) -> {
+          if (attempts.incrementAndGet() > 1) {
+            throw new IllegalStateException("upstream down");
+          }
+          return "good";
+        },
+        1);
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (attempts.get() < 3 && System.nanoTime() < deadline) {
+      Thread.sleep(50);
+    }
+    assertThat(attempts.get()).isAtLeast(3);
+    assertThat(cache.get("k")).isEqualTo("good");
+  }
+
+  @Test
+  public void testBackoffGrowsToTheCap() {
+    CacheService.RetryPolicy policy =
+        new CacheService.RetryPolicy(
+            Duration.ofSeconds(1), Duration.ofSeconds(30), 10, Duration.ofMinutes(5));
+    for (int i = 0; i < 100; i++) {
+      assertThat(policy.backoffMillis(1)).isIn(Range.closed(500L, 1000L));
+      assertThat(policy.backoffMillis(3)).isIn(Range.closed(2000L, 4000L));
+      assertThat(policy.backoffMillis(100)).isIn(Range.closed(15_000L, 30_000L));
+    }
+  }
+
+  @Test
+  public void testRejectsBadSchedule() {
+    assertThrows(IllegalArgumentException.class, () -> new CacheService(0, 0));
+    assertThrows(IllegalArgumentException.class, () -> new CacheService(1.5, 0));
+    assertThrows(IllegalArgumentException.class, () -> new CacheService(0.8, 1));
+  }
+}
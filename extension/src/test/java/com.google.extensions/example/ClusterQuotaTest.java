@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.example;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+public class ClusterQuotaTest {
+  private static final Duration SYNC_INTERVAL = Duration.ofSeconds(1);
+  private static final long HOUR_MILLIS = Duration.ofHours(1).toMillis();
+
+  // The start of an hour window.
+  private final AtomicLong now = new AtomicLong(1000 * HOUR_MILLIS);
+
+  private ClusterQuota quota(QuotaStore store) {
+    return new ClusterQuota(store, SYNC_INTERVAL, now::get);
+  }
+
+  private static int admit(ClusterQuota quota, RateLimit limit, int requests) {
+    int admitted = 0;
+    for (int i = 0; i < requests; i++) {
+      if (quota.tryAcquire("key", limit) == 0) {
+        admitted++;
+      }
+    }
+    return admitted;
+  }
+
+  @Test
+  public void testSingleInstanceGrowsToTheWholeQuota() {
+    RateLimit limit = RateLimit.parse("100/hour");
+    ClusterQuota quota = quota(new InMemoryQuotaStore());
+    // Until it has synced, an instance admits only its initial share.
+    assertThat(admit(quota, limit, 100)).isEqualTo(10);
+
+    int admitted = 10;
+    for (int round = 0; round < 20; round++) {
+      quota.sync();
+      admitted += admit(quota, limit, 100);
+    }
+    assertThat(admitted).isEqualTo(100);
+    // With the whole quota used, the wait is until the window ends.
+    now.addAndGet(1000);
+    assertThat(quota.tryAcquire("key", limit))
+        .isEqualTo(TimeUnit.MILLISECONDS.toNanos(HOUR_MILLIS - 1000));
+  }
+
+  @Test
+  public void testWaitsForTheNextSyncWhileQuotaRemains() {
+    RateLimit limit = RateLimit.parse("100/hour");
+    ClusterQuota quota = quota(new InMemoryQuotaStore());
+    admit(quota, limit, 10);
+    assertThat(quota.tryAcquire("key", limit)).isEqualTo(SYNC_INTERVAL.toNanos());
+  }
+
+  @Test
+  public void testSharesFollowTraffic() {
+    RateLimit limit = RateLimit.parse("10000/hour");
+    QuotaStore store = new InMemoryQuotaStore();
+    ClusterQuota busy = quota(store);
+    ClusterQuota quiet = quota(store);
+    int admitted = 0;
+    // Well within the quota, each instance gets its part of the traffic, three to one.
+    for (int round = 0; round < 20; round++) {
+      admitted += admit(busy, limit, 30) + admit(quiet, limit, 10);
+      busy.sync();
+      quiet.sync();
+    }
+    assertThat(busy.share("key")).isWithin(0.05).of(0.75);
+    assertThat(quiet.share("key")).isWithin(0.05).of(0.25);
+
+    // Past the quota, the cluster admits it, give or take what the shares overshoot.
+    for (int round = 0; round < 100; round++) {
+      admitted += admit(busy, limit, 300) + admit(quiet, limit, 100);
+      busy.sync();
+      quiet.sync();
+    }
+    assertThat(admitted).isAtLeast(9900);
+    assertThat(admitted).isAtMost(10100);
+  }
+
+  @Test
+  public void testNewWindowStartsAfresh() {
+    RateLimit limit = RateLimit.parse("10/hour");
+    ClusterQuota quota = quota(new InMemoryQuotaStore());
+    for (int round = 0; round < 10; round++) {
+      admit(quota, limit, 10);
+      quota.sync();
+    }
+    assertThat(admit(quota, limit, 10)).isEqualTo(0);
+    now.addAndGet(HOUR_MILLIS);
+    assertThat(admit(quota, limit, 10)).isGreaterThan(0);
+  }
+
+  @Test
+  public void testKeepsCountsWhenTheStoreFails() {
+    RateLimit limit = RateLimit.parse("100/hour");
+    InMemoryQuotaStore shared = new InMemoryQuotaStore();
+    AtomicBoolean down = new AtomicBoolean(true);
+    QuotaStore flaky =
+        deltas -> {
+          if (down.get()) {
+            throw new IOException("unreachable");
+          }
+          return shared.addAndGet(deltas);
+        };
+    ClusterQuota quota = quota(flaky);
+    assertThat(admit(quota, limit, 5)).isEqualTo(5);
+    quota.sync();
+    down.set(false);
+    quota.sync();
+    Map<QuotaStore.Counter, Long> totals =
+        shared.addAndGet(
+            Map.of(new QuotaStore.Counter(ClusterQuota.counterKey("key"), windowEnd()), 0L));
+    assertThat(totals.values()).containsExactly(5L);
+  }
+
+  @Test
+  public void testDropsIdleKeys() {
+    RateLimit limit = RateLimit.parse("100/hour");
+    ClusterQuota quota = quota(new InMemoryQuotaStore());
+    admit(quota, limit, 5);
+    quota.sync();
+    assertThat(quota.size()).isEqualTo(1);
+    now.addAndGet(HOUR_MILLIS);
+    quota.sync();
+    // Kept for one more sync, for requests that took the window just before it ended.
+    assertThat(quota.size()).isEqualTo(1);
+    quota.sync();
+    assertThat(quota.size()).isEqualTo(0);
+    assertThat(admit(quota, limit, 5)).isEqualTo(5);
+  }
+
+  private long windowEnd() {
+    return (now.get() / HOUR_MILLIS + 1) * HOUR_MILLIS;
+  }
+}
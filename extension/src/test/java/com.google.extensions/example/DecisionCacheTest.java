@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.example;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+public class DecisionCacheTest {
+
+  private static final List<List<String>> ROWS =
+      List.of(List.of("key-1", "/a", "GET"), List.of("key-2", "/a", "GET"));
+
+  @Test
+  public void testDeltaFlushesOnlyChangedKeys() {
+    AtomicInteger decisions = new AtomicInteger();
+    DecisionCache.Decider decider =
+        (snapshot, apikey, method, path) -> {
+          decisions.incrementAndGet();
+          return snapshot.grantsFor(apikey).allows(method, path)
+              ? ApikeyStatus.valid(apikey)
+              : ApikeyStatus.noMatch(apikey);
+        };
+    DecisionCache cache = new DecisionCache(1000);
+    KeySnapshot base = KeySnapshot.fromRows(ROWS, "t1");
+    cache.onSnapshot(base);
+    cache.get(base, "key-1", "GET", "/a", decider);
+    cache.get(base, "key-2", "GET", "/a", decider);
+    assertThat(decisions.get()).isEqualTo(2);
+
+    KeySnapshot.Builder builder = new KeySnapshot.Builder();
+    builder.addRow(List.of("key-1", "/a", "GET"));
+    builder.addRow(List.of("key-2", "/b", "GET"));
+    KeySnapshot delta = builder.build("t2", base);
+    cache.onSnapshot(delta);
+
+    assertThat(cache.get(delta, "key-1", "GET", "/a", decider).isValid()).isTrue();
+    assertThat(decisions.get()).isEqualTo(2);
+    assertThat(cache.get(delta, "key-2", "GET", "/a", decider).isValid()).isFalse();
+    assertThat(decisions.get()).isEqualTo(3);
+
+    // A snapshot that is not a delta flushes everything.
+    KeySnapshot unrelated = KeySnapshot.fromRows(ROWS, "t3");
+    cache.onSnapshot(unrelated);
+    cache.get(unrelated, "key-1", "GET", "/a", decider);
+    assertThat(decisions.get()).isEqualTo(4);
+  }
+}
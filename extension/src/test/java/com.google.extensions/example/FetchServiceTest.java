@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.example;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class FetchServiceTest {
+  private static final Gson gson = new Gson();
+  private static final Duration REQUEST_TIMEOUT = Duration.ofMillis(500);
+
+  private HttpServer server;
+  private final CountDownLatch release = new CountDownLatch(1);
+  private final AtomicInteger valuesRequests = new AtomicInteger();
+  private final CacheService cache = new CacheService();
+  private FetchService fetch;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    // Several threads, so that a stalled response does not hold up the others.
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.createContext(
+        "/computeMetadata/v1/instance/service-accounts/default/token",
+        exchange ->
+            respond(
+                exchange,
+                gson.toJson(Map.of("access_token", "t", "expires_in", 3599, "token_type", "B"))));
+    server.createContext(
+        "/values",
+        exchange -> {
+          valuesRequests.incrementAndGet();
+          respond(exchange, "{\"rows\": 3}");
+        });
+    server.createContext(
+        "/redirect",
+        exchange -> {
+          exchange.getResponseHeaders().set("Location", "/values");
+          exchange.sendResponseHeaders(302, -1);
+          exchange.close();
+        });
+    server.createContext(
+        "/stalled",
+        exchange -> {
+          // The headers and part of the body, then nothing until the test ends.
+          exchange.sendResponseHeaders(200, 0);
+          OutputStream body = exchange.getResponseBody();
+          body.write("{\"rows\": ".getBytes(StandardCharsets.UTF_8));
+          body.flush();
+          try {
+            release.await(10, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          exchange.close();
+        });
+    server.start();
+
+    fetch =
+        new FetchService(
+            cache,
+            Duration.ofSeconds(5),
+            REQUEST_TIMEOUT,
+            Map.of("GCE_METADATA_HOST", "localhost:" + server.getAddress().getPort()));
+    cache.whenReady(GcpTokenProvider.CACHE_KEY).get(10, TimeUnit.SECONDS);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    release.countDown();
+    cache.shutdown();
+    server.stop(0);
+  }
+
+  private static void respond(HttpExchange exchange, String json) throws IOException {
+    byte[] body = json.getBytes(StandardCharsets.UTF_8);
+    exchange.sendResponseHeaders(200, body.length);
+    exchange.getResponseBody().write(body);
+    exchange.close();
+  }
+
+  private static int readRows(JsonReader reader) throws IOException {
+    reader.beginObject();
+    reader.nextName();
+    int rows = reader.nextInt();
+    reader.endObject();
+    return rows;
+  }
+
+  private String url(String path) {
+    return "http://localhost:" + server.getAddress().getPort() + path;
+  }
+
+  @Test
+  public void testReadsBody() throws Exception {
+    assertThat(fetch.get(url("/values"))).containsExactly("rows", 3.0);
+    AtomicReference<String> readOn = new AtomicReference<>();
+    CompletableFuture<Integer> rows =
+        fetch.getAsync(
+            url("/values"),
+            reader -> {
+              readOn.set(Thread.currentThread().getName());
+              return readRows(reader);
+            });
+    assertThat(rows.get(5, TimeUnit.SECONDS)).isEqualTo(3);
+    assertThat(readOn.get()).startsWith("fetch-body-");
+  }
+
+  @Test
+  public void testStalledBodyTimesOut() {
+    long start = System.nanoTime();
+    assertThrows(HttpTimeoutException.class, () -> fetch.get(url("/stalled")));
+    assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(5));
+  }
+
+  @Test
+  public void testStalledAsyncBodyTimesOut() {
+    long start = System.nanoTime();
+    CompletableFuture<Integer> rows = fetch.getAsync(url("/stalled"), FetchServiceTest::readRows);
+    ExecutionException e =
+        assertThrows(ExecutionException.class, () -> rows.get(10, TimeUnit.SECONDS));
+    assertThat(e).hasCauseThat().hasCauseThat().isInstanceOf(HttpTimeoutException.class);
+    assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(5));
+  }
+
+  @Test
+  public void testDoesNotFollowRedirects() {
+    // Following one would send the access token to whatever host the redirect names.
+    IOException e = assertThrows(IOException.class, () -> fetch.get(url("/redirect")));
+    assertThat(e).hasMessageThat().contains("302");
+    assertThat(valuesRequests.get()).isEqualTo(0);
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.example;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class FileKeySourceTest {
+
+  @TempDir Path dir;
+
+  @Test
+  public void testReadsCsv() throws IOException {
+    Path file = dir.resolve("keys.csv");
+    Files.writeString(
+        file,
+        "# key, path, methods\n"
+            + "key-1, /status, GET\n"
+            + "\n"
+            + "key-1,/v1/items/*,\"GET, POST\"\n"
+            + "key-2,/v2/*,GET,DELETE\n"
+            + "key-3\n"
+            + "key-4,/v4/*,GET,POST,600/min\n"
+            + "key-5,/v5/*,GET,10/fortnight\n");
+    KeySnapshot snapshot = new FileKeySource(file).load(null);
+
+    assertThat(snapshot.keyCount()).isEqualTo(5);
+    assertThat(snapshot.rowCount()).isEqualTo(6);
+    assertThat(snapshot.grantsFor("key-1").allows("GET", "/status")).isTrue();
+    assertThat(snapshot.grantsFor("key-1").allows("POST", "/v1/items/42")).isTrue();
+    assertThat(snapshot.grantsFor("key-2").grants().get(0).methods()).isEqualTo("GET,DELETE");
+    assertThat(snapshot.grantsFor("key-3").grants()).isEmpty();
+    assertThat(snapshot.grantsFor("key-2").rateLimit()).isNull();
+    assertThat(snapshot.grantsFor("key-4").grants().get(0).methods()).isEqualTo("GET,POST");
+    assertThat(snapshot.grantsFor("key-4").rateLimit()).isEqualTo(RateLimit.parse("600/min"));
+    // A rate limit that does not parse is ignored, as it is when read from the sheet.
+    assertThat(snapshot.grantsFor("key-5").grants().get(0).methods()).isEqualTo("GET");
+    assertThat(snapshot.grantsFor("key-5").rateLimit()).isNull();
+  }
+
+  @Test
+  public void testReadsJson() throws IOException {
+    Path rows = dir.resolve("rows.json");
+    Files.writeString(rows, "[[\"key-1\", \"/status\", \"GET\"], [\"key-2\"]]");
+    KeySnapshot fromRows = new FileKeySource(rows).load(null);
+    assertThat(fromRows.keyCount()).isEqualTo(2);
+    assertThat(fromRows.grantsFor("key-1").allows("GET", "/status")).isTrue();
+
+    Path valueRange = dir.resolve("range.json");
+    Files.writeString(
+        valueRange,
+        "{\"range\": \"Keys!A2:C3\", \"majorDimension\": \"ROWS\","
+            + " \"values\": [[\"key-1\", \"/status\", \"GET\"], [\"key-2\"]]}");
+    KeySnapshot fromValueRange = new FileKeySource(valueRange).load(null);
+    assertThat(fromValueRange.keyCount()).isEqualTo(2);
+    assertThat(fromValueRange.grantsFor("key-1").allows("GET", "/status")).isTrue();
+  }
+
+  @Test
+  public void testUnchangedFileReturnsPrevious() throws IOException {
+    Path file = dir.resolve("keys.csv");
+    Files.writeString(file, "key-1,/status,GET\n");
+    FileKeySource source = new FileKeySource(file);
+    KeySnapshot first = source.load(null);
+    assertThat(source.load(first)).isSameInstanceAs(first);
+
+    Files.writeString(file, "key-1,/status,GET\nkey-2,/status,GET\n");
+    KeySnapshot second = source.load(first);
+    assertThat(second.changedKeysSince(first)).containsExactly("key-2");
+  }
+
+  @Test
+  public void testWatchReportsChanges() throws Exception {
+    Path file = dir.resolve("keys.csv");
+    Files.writeString(file, "key-1,/status,GET\n");
+    CountDownLatch changed = new CountDownLatch(1);
+    new FileKeySource(file).watch(changed::countDown);
+
+    Files.writeString(dir.resolve("other.txt"), "not the key file");
+    assertThat(changed.await(500, TimeUnit.MILLISECONDS)).isFalse();
+
+    Files.writeString(file, "key-1,/status,GET\nkey-2,/status,GET\n");
+    // The JDK polls for changes on some platforms, every few seconds.
+    assertThat(changed.await(30, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test
+  public void testReadsClasspathResource() throws IOException {
+    ClasspathKeySource source = new ClasspathKeySource("keys/test-keys.csv");
+    KeySnapshot snapshot = source.load(null);
+    assertThat(snapshot.keyCount()).isEqualTo(2);
+    assertThat(snapshot.grantsFor("key-2").allows("POST", "/v1/items")).isTrue();
+    assertThat(source.load(snapshot)).isSameInstanceAs(snapshot);
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.example;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class FileQuotaStoreTest {
+  @TempDir Path dir;
+  // Before the windows in these tests end, unless a test moves it on.
+  private final AtomicLong now = new AtomicLong(500);
+
+  @Test
+  public void testStoresShareTheFile() throws Exception {
+    Path file = dir.resolve("quota");
+    QuotaStore a = new FileQuotaStore(file, now::get);
+    QuotaStore b = new FileQuotaStore(file, now::get);
+    QuotaStore.Counter x = new QuotaStore.Counter("x", 1000);
+    QuotaStore.Counter y = new QuotaStore.Counter("y", 1000);
+
+    assertThat(a.addAndGet(Map.of(x, 3L, y, 1L))).containsExactly(x, 3L, y, 1L);
+    assertThat(b.addAndGet(Map.of(x, 4L))).containsExactly(x, 7L);
+    assertThat(a.addAndGet(Map.of(x, 0L, y, 0L))).containsExactly(x, 7L, y, 1L);
+  }
+
+  @Test
+  public void testKeepsOnlyTheLatestWindow() throws Exception {
+    QuotaStore store = new FileQuotaStore(dir.resolve("quota"), now::get);
+    QuotaStore.Counter first = new QuotaStore.Counter("x", 1000);
+    QuotaStore.Counter second = new QuotaStore.Counter("x", 2000);
+
+    store.addAndGet(Map.of(first, 5L));
+    assertThat(store.addAndGet(Map.of(second, 2L))).containsExactly(second, 2L);
+    // Counts for a window that has been replaced are dropped.
+    assertThat(store.addAndGet(Map.of(first, 1L))).containsExactly(first, 0L);
+    assertThat(store.addAndGet(Map.of(second, 0L))).containsExactly(second, 2L);
+  }
+
+  @Test
+  public void testDropsEndedWindows() throws Exception {
+    Path file = dir.resolve("quota");
+    QuotaStore store = new FileQuotaStore(file, now::get);
+    QuotaStore.Counter ending = new QuotaStore.Counter("ending", 1000);
+    QuotaStore.Counter later = new QuotaStore.Counter("later", 3000);
+    store.addAndGet(Map.of(ending, 1L, later, 1L));
+    assertThat(Files.readString(file)).contains("ending");
+
+    now.set(1000);
+    assertThat(store.addAndGet(Map.of(later, 1L))).containsExactly(later, 2L);
+    assertThat(Files.readString(file)).doesNotContain("ending");
+    assertThat(Files.readString(file)).contains("later");
+  }
+}
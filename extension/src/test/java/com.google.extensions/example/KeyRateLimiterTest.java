@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.example;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+public class KeyRateLimiterTest {
+
+  @Test
+  public void testParsesLimits() {
+    assertThat(RateLimit.parse("10/s")).isEqualTo(new RateLimit(10, Duration.ofSeconds(1)));
+    assertThat(RateLimit.parse(" 600 / MIN ")).isEqualTo(new RateLimit(600, Duration.ofMinutes(1)));
+    assertThat(RateLimit.parse("5000/hour").toString()).isEqualTo("5000/hour");
+    assertThat(RateLimit.parse("7/d").period()).isEqualTo(Duration.ofDays(1));
+    assertThat(RateLimit.parse("")).isNull();
+    assertThat(RateLimit.parse(null)).isNull();
+    assertThrows(IllegalArgumentException.class, () -> RateLimit.parse("ten/s"));
+    assertThrows(IllegalArgumentException.class, () -> RateLimit.parse("10/fortnight"));
+    assertThrows(IllegalArgumentException.class, () -> RateLimit.parse("0/s"));
+    assertThat(RateLimit.parse("10/s").isStricterThan(RateLimit.parse("60000/hour"))).isTrue();
+  }
+
+  @Test
+  public void testAdmitsBurstThenWaits() {
+    KeyRateLimiter limiter = new KeyRateLimiter(RateLimit.parse("5/s"), 1);
+    for (int i = 0; i < 5; i++) {
+      assertThat(limiter.tryAcquire()).isEqualTo(0);
+    }
+    long wait = limiter.tryAcquire();
+    assertThat(wait).isGreaterThan(0L);
+    assertThat(wait).isAtMost(TimeUnit.MILLISECONDS.toNanos(200));
+    assertThat(KeyRateLimiter.retryAfterSeconds(wait)).isEqualTo(1);
+    assertThat(KeyRateLimiter.retryAfterSeconds(TimeUnit.MILLISECONDS.toNanos(1500))).isEqualTo(2);
+  }
+
+  @Test
+  public void testRefills() throws InterruptedException {
+    KeyRateLimiter limiter = new KeyRateLimiter(RateLimit.parse("100/s"), 1);
+    while (limiter.tryAcquire() == 0) {}
+    Thread.sleep(50);
+    assertThat(limiter.tryAcquire()).isEqualTo(0);
+  }
+
+  @Test
+  public void testStripesShareTheLimit() throws InterruptedException {
+    // At one request every 3.6 s, nothing refills while the test runs.
+    KeyRateLimiter limiter = new KeyRateLimiter(RateLimit.parse("1000/hour"), 4);
+    AtomicInteger admitted = new AtomicInteger();
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      threads.add(
+          Thread.ofPlatform()
+              .start(
+                  () -> {
+                    for (int i = 0; i < 1000; i++) {
+                      if (limiter.tryAcquire() == 0) {
+                        admitted.incrementAndGet();
+                      }
+                    }
+                  }));
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertThat(admitted.get()).isEqualTo(1000);
+
+    // A single thread can use the share of every stripe.
+    KeyRateLimiter single = new KeyRateLimiter(RateLimit.parse("16/hour"), 4);
+    for (int i = 0; i < 16; i++) {
+      assertThat(single.tryAcquire()).isEqualTo(0);
+    }
+    assertThat(single.tryAcquire()).isGreaterThan(0L);
+  }
+
+  @Test
+  public void testUnevenLimitAdmitsWholeBurst() {
+    // 10 permits over 8 stripes, and 3 over 2: the stripes hold unequal shares.
+    for (String spec : List.of("10/minute", "3/hour", "1000/hour")) {
+      RateLimit limit = RateLimit.parse(spec);
+      KeyRateLimiter limiter = new KeyRateLimiter(limit, 8);
+      int admitted = 0;
+      while (limiter.tryAcquire() == 0) {
+        admitted++;
+      }
+      assertThat(admitted).isEqualTo(limit.permits());
+    }
+  }
+}
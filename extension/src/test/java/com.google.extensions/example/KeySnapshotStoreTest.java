@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.example;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class KeySnapshotStoreTest {
+
+  private static final KeySnapshot SNAPSHOT =
+      KeySnapshot.fromRows(
+          List.of(
+              List.of("key-1", "/status", "GET"),
+              List.of("key-1", "/v1/items/*", "GET, POST"),
+              List.of("key-2", "/café/*", "GET", "10/s"),
+              List.of("key-3")),
+          "2025-06-01T00:00:00Z");
+
+  @TempDir Path dir;
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    KeySnapshotStore store = new KeySnapshotStore(dir.resolve("keys.snapshot"));
+    store.save(SNAPSHOT);
+    KeySnapshot loaded = store.load();
+
+    assertThat(loaded.loadedAt()).isEqualTo("2025-06-01T00:00:00Z");
+    assertThat(loaded.keyCount()).isEqualTo(3);
+    assertThat(loaded.grantsFor("key-1").grants())
+        .containsExactlyElementsIn(SNAPSHOT.grantsFor("key-1").grants())
+        .inOrder();
+    assertThat(loaded.grantsFor("key-1").allows("POST", "/v1/items/42")).isTrue();
+    assertThat(loaded.grantsFor("key-2").allows("GET", "/café/menu")).isTrue();
+    assertThat(loaded.grantsFor("key-2").rateLimit()).isEqualTo(RateLimit.parse("10/s"));
+    assertThat(loaded.grantsFor("key-3").grants()).isEmpty();
+    assertThat(loaded.mightContain("key-3")).isTrue();
+  }
+
+  @Test
+  public void testMissingFileLoadsNull() throws IOException {
+    assertThat(new KeySnapshotStore(dir.resolve("none")).load()).isNull();
+  }
+
+  @Test
+  public void testSaveReplacesPreviousSnapshot() throws IOException {
+    KeySnapshotStore store = new KeySnapshotStore(dir.resolve("keys.snapshot"));
+    store.save(SNAPSHOT);
+    store.save(KeySnapshot.fromRows(List.of(List.of("key-9", "/", "GET")), "later"));
+    assertThat(store.load().keyCount()).isEqualTo(1);
+    try (var files = Files.list(dir)) {
+      assertThat(files.count()).isEqualTo(1);
+    }
+  }
+
+  @Test
+  public void testRejectsCorruptFile() throws IOException {
+    Path file = dir.resolve("keys.snapshot");
+    KeySnapshotStore store = new KeySnapshotStore(file);
+    store.save(SNAPSHOT);
+    byte[] bytes = Files.readAllBytes(file);
+    bytes[bytes.length / 2] ^= 0x01;
+    Files.write(file, bytes);
+    assertThrows(IOException.class, store::load);
+
+    Files.write(file, new byte[] {1, 2, 3});
+    assertThrows(IOException.class, store::load);
+  }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.example;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.google.protobuf.ByteString;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class KeySnapshotTest {
+
+  private static final List<List<String>> ROWS =
+      List.of(
+          List.of("key-1", "/status", "GET"),
+          List.of("key-1", "/v1/items/*", "GET, POST"),
+          List.of("key-2", "/status", "GET"),
+          List.of("key-3"));
+
+  @Test
+  public void testGroupsRowsByKey() {
+    KeySnapshot snapshot = KeySnapshot.fromRows(ROWS, "startup");
+    assertThat(snapshot.keyCount()).isEqualTo(3);
+    assertThat(snapshot.rowCount()).isEqualTo(4);
+    assertThat(snapshot.grantsFor("key-1").grants()).hasSize(2);
+    assertThat(snapshot.grantsFor("unknown")).isNull();
+  }
+
+  @Test
+  public void testAllows() {
+    KeySnapshot snapshot = KeySnapshot.fromRows(ROWS, "startup");
+    KeySnapshot.KeyGrants grants = snapshot.grantsFor("key-1");
+    assertThat(grants.allows("GET", "/status")).isTrue();
+    assertThat(grants.allows("post", "/v1/items/42")).isTrue();
+    assertThat(grants.allows("DELETE", "/v1/items/42")).isFalse();
+    assertThat(grants.allows("GET", "/v1/items/42/parts")).isFalse();
+    assertThat(snapshot.grantsFor("key-2").allows("POST", "/status")).isFalse();
+  }
+
+  @Test
+  public void testAddAllMergesInOrder() {
+    KeySnapshot.Builder first = new KeySnapshot.Builder();
+    ROWS.subList(0, 2).forEach(first::addRow);
+    KeySnapshot.Builder second = new KeySnapshot.Builder();
+    ROWS.subList(2, 4).forEach(second::addRow);
+    second.addRow(List.of("key-1", "/v2/*", "DELETE"));
+
+    KeySnapshot merged = first.addAll(second).build("startup");
+    assertThat(merged.keyCount()).isEqualTo(3);
+    assertThat(merged.rowCount()).isEqualTo(5);
+    assertThat(merged.grantsFor("key-1").grants().get(2).path()).isEqualTo("/v2/*");
+    assertThat(merged.grantsFor("key-1").allows("DELETE", "/v2/x")).isTrue();
+    assertThat(merged.grantsFor("key-3")).isNotNull();
+  }
+
+  private static KeySnapshot.Builder builderOf(List<List<String>> rows) {
+    KeySnapshot.Builder builder = new KeySnapshot.Builder();
+    rows.forEach(builder::addRow);
+    return builder;
+  }
+
+  @Test
+  public void testDeltaSharesUnchangedGrants() {
+    KeySnapshot base = KeySnapshot.fromRows(ROWS, "t1");
+    KeySnapshot delta =
+        builderOf(
+                List.of(
+                    List.of("key-1", "/status", "GET"),
+                    List.of("key-1", "/v1/items/*", "GET, POST"),
+                    List.of("key-2", "/status", "GET, PUT"),
+                    List.of("key-4", "/new", "GET")))
+            .build("t2", base);
+
+    assertThat(delta.grantsFor("key-1")).isSameInstanceAs(base.grantsFor("key-1"));
+    assertThat(delta.grantsFor("key-2").allows("PUT", "/status")).isTrue();
+    assertThat(delta.grantsFor("key-3")).isNull();
+    assertThat(delta.grantsFor("key-4").allows("GET", "/new")).isTrue();
+    assertThat(delta.mightContain("key-4")).isTrue();
+    assertThat(delta.keyCount()).isEqualTo(3);
+    assertThat(delta.changedKeysSince(base)).containsExactly("key-2", "key-3", "key-4");
+    assertThat(delta.changedKeysSince(KeySnapshot.fromRows(ROWS, "t1"))).isNull();
+    assertThat(base.changedKeysSince(null)).isNull();
+    // The base is unchanged.
+    assertThat(base.grantsFor("key-3")).isNotNull();
+    assertThat(base.grantsFor("key-4")).isNull();
+  }
+
+  @Test
+  public void testDeltaWithSameRowsIsTheBase() {
+    KeySnapshot base = KeySnapshot.fromRows(ROWS, "t1");
+    assertThat(builderOf(ROWS).build("t2", base)).isSameInstanceAs(base);
+  }
+
+  @Test
+  public void testDeltasRebuildTheFilterEventually() {
+    KeySnapshot snapshot = KeySnapshot.fromRows(ROWS, "t0");
+    for (int round = 1; round <= 3; round++) {
+      KeySnapshot.Builder builder = builderOf(ROWS);
+      for (int i = 0; i < 1000 * round; i++) {
+        builder.addRow(List.of("added-" + i, "/", "GET"));
+      }
+      KeySnapshot next = builder.build("t" + round, snapshot);
+      assertThat(next.changedKeysSince(snapshot)).hasSize(1000);
+      snapshot = next;
+    }
+    for (int i = 0; i < 3000; i++) {
+      assertThat(snapshot.mightContain("added-" + i)).isTrue();
+    }
+    assertThat(snapshot.keyCount()).isEqualTo(3003);
+  }
+
+  @Test
+  public void testShortRowIsKnownButGrantsNothing() {
+    KeySnapshot snapshot = KeySnapshot.fromRows(ROWS, "startup");
+    assertThat(snapshot.grantsFor("key-3")).isNotNull();
+    assertThat(snapshot.grantsFor("key-3").allows("GET", "/status")).isFalse();
+  }
+
+  @Test
+  public void testMembershipFilter() {
+    KeySnapshot snapshot = KeySnapshot.fromRows(ROWS, "startup");
+    assertThat(snapshot.mightContain("key-1")).isTrue();
+    assertThat(snapshot.mightContain("key-3")).isTrue();
+    int falsePositives = 0;
+    for (int i = 0; i < 1000; i++) {
+      if (snapshot.mightContain("random-" + i)) {
+        falsePositives++;
+      }
+    }
+    assertThat(falsePositives).isLessThan(50);
+  }
+
+  @Test
+  public void testEmptySnapshot() {
+    KeySnapshot snapshot = KeySnapshot.fromRows(null, "startup");
+    assertThat(snapshot.keyCount()).isEqualTo(0);
+    assertThat(snapshot.mightContain("key-1")).isFalse();
+  }
+
+  private static KeySnapshot offHeap(List<List<String>> rows, KeySnapshot base) {
+    KeySnapshot.Builder builder = new KeySnapshot.Builder(true);
+    rows.forEach(builder::addRow);
+    return builder.build("startup", base);
+  }
+
+  @Test
+  public void testOffHeapLookups() {
+    KeySnapshot snapshot = offHeap(ROWS, null);
+    assertThat(snapshot.isOffHeap()).isTrue();
+    assertThat(snapshot.keyCount()).isEqualTo(3);
+    assertThat(snapshot.rowCount()).isEqualTo(4);
+    assertThat(snapshot.grantsFor("key-1").grants()).hasSize(2);
+    assertThat(snapshot.grantsFor("key-1").allows("POST", "/v1/items/42")).isTrue();
+    assertThat(snapshot.grantsFor(ByteString.copyFromUtf8("key-2")).allows("GET", "/status"))
+        .isTrue();
+    assertThat(snapshot.grantsFor("key-3").grants()).isEmpty();
+    assertThat(snapshot.mightContain("key-3")).isTrue();
+    assertThat(snapshot.mightContain("unknown")).isFalse();
+    assertThat(snapshot.grantsFor(ByteString.copyFromUtf8("unknown"))).isNull();
+    assertThrows(UnsupportedOperationException.class, () -> snapshot.forEach((k, g) -> {}));
+  }
+
+  @Test
+  public void testOffHeapSharesGrantsAndGrows() {
+    KeySnapshot.Builder builder = new KeySnapshot.Builder(true);
+    for (int i = 0; i < 5000; i++) {
+      builder.addRow(List.of("key-" + i, "/status", "GET"));
+    }
+    KeySnapshot snapshot = builder.build("startup");
+    assertThat(snapshot.keyCount()).isEqualTo(5000);
+    for (int i = 0; i < 5000; i++) {
+      assertThat(snapshot.grantsFor("key-" + i)).isSameInstanceAs(snapshot.grantsFor("key-0"));
+    }
+    assertThat(snapshot.grantsFor("key-5000")).isNull();
+  }
+
+  @Test
+  public void testOffHeapMergesBuilders() {
+    KeySnapshot.Builder first = new KeySnapshot.Builder(true);
+    ROWS.subList(0, 2).forEach(first::addRow);
+    KeySnapshot.Builder second = new KeySnapshot.Builder(true);
+    ROWS.subList(2, 4).forEach(second::addRow);
+    second.addRow(List.of("key-1", "/v2/*", "DELETE"));
+    KeySnapshot merged = first.addAll(second).build("startup");
+
+    assertThat(merged.keyCount()).isEqualTo(3);
+    assertThat(merged.rowCount()).isEqualTo(5);
+    assertThat(merged.grantsFor("key-1").grants().get(2).path()).isEqualTo("/v2/*");
+    assertThrows(
+        IllegalArgumentException.class, () -> new KeySnapshot.Builder().addAll(second));
+  }
+
+  @Test
+  public void testOffHeapUnchangedRowsReturnBase() {
+    KeySnapshot base = offHeap(ROWS, null);
+    assertThat(offHeap(ROWS, base)).isSameInstanceAs(base);
+
+    KeySnapshot changed = offHeap(ROWS.subList(0, 3), base);
+    assertThat(changed).isNotSameInstanceAs(base);
+    assertThat(changed.changedKeysSince(base)).isNull();
+    assertThat(changed.mightContain("key-3")).isFalse();
+  }
+
+  @Test
+  public void testRateLimitFromFourthColumn() {
+    KeySnapshot base =
+        KeySnapshot.fromRows(
+            List.of(
+                List.of("key-1", "/status", "GET", "100/s"),
+                List.of("key-1", "/v1/*", "GET", "600/min"),
+                List.of("key-2", "/status", "GET", "not a limit"),
+                List.of("key-3", "/status", "GET", "5/s")),
+            "startup");
+    assertThat(base.grantsFor("key-1").rateLimit()).isEqualTo(RateLimit.parse("600/min"));
+    assertThat(base.grantsFor("key-1").rateLimiter()).isNotNull();
+    assertThat(base.grantsFor("key-2").rateLimit()).isNull();
+    assertThat(base.grantsFor("key-2").rateLimiter()).isNull();
+
+    // A key whose grants change keeps its limiter if its limit does not.
+    KeySnapshot.Builder builder = new KeySnapshot.Builder();
+    builder.addRow(List.of("key-1", "/status", "GET", "100/s"));
+    builder.addRow(List.of("key-1", "/v2/*", "GET", "600/min"));
+    builder.addRow(List.of("key-2", "/status", "GET", "not a limit"));
+    builder.addRow(List.of("key-3", "/status", "GET", "6/s"));
+    KeySnapshot delta = builder.build("later", base);
+    assertThat(delta.changedKeysSince(base)).containsExactly("key-1", "key-3");
+    assertThat(delta.grantsFor("key-1").rateLimiter())
+        .isSameInstanceAs(base.grantsFor("key-1").rateLimiter());
+    assertThat(delta.grantsFor("key-3").rateLimiter().limit()).isEqualTo(RateLimit.parse("6/s"));
+  }
+
+  @Test
+  public void testOffHeapGrantsHaveNoLimiter() {
+    KeySnapshot snapshot =
+        offHeap(
+            List.of(
+                List.of("key-1", "/status", "GET", "10/s"),
+                List.of("key-2", "/status", "GET", "10/s"),
+                List.of("key-3", "/status", "GET", "20/s")),
+            null);
+    assertThat(snapshot.grantsFor("key-1")).isSameInstanceAs(snapshot.grantsFor("key-2"));
+    assertThat(snapshot.grantsFor("key-1").rateLimit()).isEqualTo(RateLimit.parse("10/s"));
+    assertThat(snapshot.grantsFor("key-1").rateLimiter()).isNull();
+    assertThat(snapshot.grantsFor("key-3").rateLimit()).isEqualTo(RateLimit.parse("20/s"));
+  }
+}
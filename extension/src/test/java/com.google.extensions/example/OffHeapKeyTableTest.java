@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.example;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.protobuf.ByteString;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class OffHeapKeyTableTest {
+  // The slots of a table of a few keys.
+  private static final int CAPACITY = OffHeapKeyTable.Builder.capacityFor(1);
+
+  /** Returns the slot a key's probe starts at: the low bits of the second half of its digest. */
+  private static int homeSlot(String apikey) throws Exception {
+    byte[] digest =
+        MessageDigest.getInstance("SHA-256").digest(apikey.getBytes(StandardCharsets.UTF_8));
+    return (int) ByteBuffer.wrap(digest).getLong(Long.BYTES) & (CAPACITY - 1);
+  }
+
+  /** Returns distinct keys whose probes all start at the given slot. */
+  private static List<String> keysAt(int slot, int count) throws Exception {
+    List<String> keys = new ArrayList<>();
+    for (int i = 0; keys.size() < count; i++) {
+      if (homeSlot("key-" + i) == slot) {
+        keys.add("key-" + i);
+      }
+    }
+    return keys;
+  }
+
+  private static KeySnapshot.Grant grantFor(String apikey) {
+    return new KeySnapshot.Grant("/" + apikey, "GET");
+  }
+
+  @Test
+  public void testKeysThatShareASlotWrapAround() throws Exception {
+    // Keys that start at the last slot probe on past the end of the table, into the first
+    // slots, where more keys start.
+    List<String> atEnd = keysAt(CAPACITY - 1, 4);
+    List<String> atStart = keysAt(0, 2);
+    OffHeapKeyTable.Builder builder = new OffHeapKeyTable.Builder();
+    atEnd.subList(0, 3).forEach(key -> builder.add(key, grantFor(key)));
+    atStart.forEach(key -> builder.add(key, grantFor(key)));
+    OffHeapKeyTable table = builder.build();
+
+    assertThat(table.size()).isEqualTo(5);
+    assertThat(table.offHeapBytes()).isEqualTo((long) CAPACITY * 20);
+    for (String key : List.of(atEnd.get(0), atEnd.get(1), atEnd.get(2), atStart.get(0))) {
+      assertThat(table.find(key).allows("GET", "/" + key)).isTrue();
+      assertThat(table.find(ByteString.copyFromUtf8(key))).isSameInstanceAs(table.find(key));
+    }
+    assertThat(table.find(atStart.get(1)).allows("GET", "/" + atEnd.get(0))).isFalse();
+    // Probing for a missing key that starts at the same slot ends at the first empty one.
+    assertThat(table.find(atEnd.get(3))).isNull();
+  }
+
+  @Test
+  public void testMergesRowsOfAKeyInOrder() throws Exception {
+    List<String> keys = keysAt(CAPACITY - 1, 2);
+    OffHeapKeyTable.Builder first = new OffHeapKeyTable.Builder();
+    first.add(keys.get(0), new KeySnapshot.Grant("/a", "GET"));
+    first.add(keys.get(1), null);
+    OffHeapKeyTable.Builder second = new OffHeapKeyTable.Builder();
+    second.add(keys.get(0), new KeySnapshot.Grant("/b", "GET"));
+    second.add(keys.get(1), new KeySnapshot.Grant("/a", "GET"));
+    OffHeapKeyTable table = first.addAll(second).build();
+
+    assertThat(table.size()).isEqualTo(2);
+    assertThat(table.find(keys.get(0)).grants())
+        .containsExactly(new KeySnapshot.Grant("/a", "GET"), new KeySnapshot.Grant("/b", "GET"))
+        .inOrder();
+    assertThat(table.find(keys.get(1)).grants())
+        .containsExactly(new KeySnapshot.Grant("/a", "GET"));
+    // Only the lists the keys end up with are compiled, not the partial ones.
+    assertThat(table.grantSetCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void testSizesTheTableOnceForTheRows() {
+    assertThat(OffHeapKeyTable.Builder.capacityFor(0)).isEqualTo(1024);
+    assertThat(OffHeapKeyTable.Builder.capacityFor(768)).isEqualTo(1024);
+    assertThat(OffHeapKeyTable.Builder.capacityFor(769)).isEqualTo(2048);
+
+    OffHeapKeyTable.Builder builder = new OffHeapKeyTable.Builder();
+    for (int i = 0; i < 10_000; i++) {
+      builder.add("key-" + i, grantFor("key-" + i));
+    }
+    OffHeapKeyTable table = builder.build();
+    assertThat(table.size()).isEqualTo(10_000);
+    assertThat(table.offHeapBytes()).isEqualTo(16_384L * 20);
+    for (int i = 0; i < 10_000; i++) {
+      assertThat(table.find("key-" + i).allows("GET", "/key-" + i)).isTrue();
+    }
+    assertThat(table.find("key-10000")).isNull();
+  }
+}
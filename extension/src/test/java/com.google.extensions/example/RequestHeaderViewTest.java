@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.example;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.protobuf.ByteString;
+import io.envoyproxy.envoy.config.core.v3.HeaderMap;
+import io.envoyproxy.envoy.config.core.v3.HeaderValue;
+import io.envoyproxy.envoy.service.ext_proc.v3.HttpHeaders;
+import org.junit.jupiter.api.Test;
+
+public class RequestHeaderViewTest {
+
+  private static HttpHeaders headers(String... keysAndValues) {
+    HeaderMap.Builder map = HeaderMap.newBuilder();
+    for (int i = 0; i < keysAndValues.length; i += 2) {
+      map.addHeaders(
+          HeaderValue.newBuilder()
+              .setKey(keysAndValues[i])
+              .setRawValue(ByteString.copyFromUtf8(keysAndValues[i + 1])));
+    }
+    return HttpHeaders.newBuilder().setHeaders(map).build();
+  }
+
+  @Test
+  public void testExtractsHeaders() {
+    RequestHeaderView view =
+        RequestHeaderView.of(
+            headers(":method", "GET", ":path", "/status?x=1", "Authorization", "APIKEY abc-123"));
+    assertThat(view.apikey()).isEqualTo("abc-123");
+    assertThat(view.apikeyBytes().toStringUtf8()).isEqualTo("abc-123");
+    assertThat(view.path()).isEqualTo("/status?x=1");
+    assertThat(view.method()).isSameInstanceAs("GET");
+  }
+
+  @Test
+  public void testSchemeIsCaseInsensitive() {
+    assertThat(RequestHeaderView.of(headers("authorization", "apikey abc")).apikey())
+        .isEqualTo("abc");
+    assertThat(RequestHeaderView.of(headers("authorization", "ApiKey abc  ")).apikey())
+        .isEqualTo("abc");
+  }
+
+  @Test
+  public void testInvalidAuthorization() {
+    assertThat(RequestHeaderView.of(headers()).hasAuthorization()).isFalse();
+    assertThat(RequestHeaderView.of(headers("authorization", "Bearer abc")).apikey()).isNull();
+    assertThat(RequestHeaderView.of(headers("authorization", "APIKEY")).apikey()).isNull();
+    assertThat(RequestHeaderView.of(headers("authorization", "APIKEY a b")).apikey()).isNull();
+    assertThat(RequestHeaderView.of(headers("authorization", "APIKEYabc")).apikey()).isNull();
+    assertThat(RequestHeaderView.of(headers("authorization", "APIKEY a b")).apikeyBytes())
+        .isNull();
+    assertThat(RequestHeaderView.of(headers("authorization", "APIKEY a b")).hasAuthorization())
+        .isTrue();
+  }
+
+  @Test
+  public void testNonStandardMethod() {
+    assertThat(RequestHeaderView.of(headers(":method", "PURGE")).method()).isEqualTo("PURGE");
+    assertThat(RequestHeaderView.of(headers()).method()).isNull();
+  }
+}
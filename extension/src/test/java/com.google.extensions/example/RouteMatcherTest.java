@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.example;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+public class RouteMatcherTest {
+
+  private static final RouteMatcher MATCHER =
+      new RouteMatcher.Builder()
+          .add("/status", "GET")
+          .add("/v1/items/*", "GET, post")
+          .add("/v1/items/*/parts/*", "PUT")
+          .add("/v1/item-*.json", "GET")
+          .add("/v1/items/special", "DELETE")
+          .add("/custom", "PURGE")
+          .build();
+
+  @Test
+  public void testLiteralPath() {
+    assertThat(MATCHER.matches("GET", "/status")).isTrue();
+    assertThat(MATCHER.matches("get", "/status")).isTrue();
+    assertThat(MATCHER.matches("POST", "/status")).isFalse();
+    assertThat(MATCHER.matches("GET", "/status/")).isFalse();
+    assertThat(MATCHER.matches("GET", "/statusx")).isFalse();
+  }
+
+  @Test
+  public void testStripsQueryAndFragment() {
+    assertThat(MATCHER.matches("GET", "/status?verbose=true")).isTrue();
+    assertThat(MATCHER.matches("GET", "/status#top")).isTrue();
+    assertThat(MATCHER.matches("GET", "/v1/items/42?a=/b")).isTrue();
+  }
+
+  @Test
+  public void testWithoutQuery() {
+    assertThat(RouteMatcher.withoutQuery("/status")).isEqualTo("/status");
+    assertThat(RouteMatcher.withoutQuery("/status?verbose=true")).isEqualTo("/status");
+    assertThat(RouteMatcher.withoutQuery("/status#top?x")).isEqualTo("/status");
+    assertThat(RouteMatcher.withoutQuery("?x")).isEmpty();
+  }
+
+  @Test
+  public void testWildcardSegments() {
+    assertThat(MATCHER.matches("POST", "/v1/items/42")).isTrue();
+    assertThat(MATCHER.matches("GET", "/v1/items/")).isFalse();
+    assertThat(MATCHER.matches("GET", "/v1/items/42/more")).isFalse();
+    assertThat(MATCHER.matches("PUT", "/v1/items/42/parts/7")).isTrue();
+    assertThat(MATCHER.matches("PUT", "/v1/items/42/parts")).isFalse();
+  }
+
+  @Test
+  public void testLiteralAndWildcardSiblings() {
+    // the literal route allows DELETE, and the wildcard sibling allows GET
+    assertThat(MATCHER.matches("DELETE", "/v1/items/special")).isTrue();
+    assertThat(MATCHER.matches("GET", "/v1/items/special")).isTrue();
+    assertThat(MATCHER.matches("DELETE", "/v1/items/other")).isFalse();
+  }
+
+  @Test
+  public void testGlobWithinSegment() {
+    assertThat(MATCHER.matches("GET", "/v1/item-42.json")).isTrue();
+    assertThat(MATCHER.matches("GET", "/v1/item-.json")).isFalse();
+    assertThat(MATCHER.matches("GET", "/v1/item-42.xml")).isFalse();
+    // '.' is literal, not a regex metacharacter
+    assertThat(MATCHER.matches("GET", "/v1/item-42xjson")).isFalse();
+  }
+
+  @Test
+  public void testNonStandardMethod() {
+    assertThat(MATCHER.matches("PURGE", "/custom")).isTrue();
+    assertThat(MATCHER.matches("purge", "/custom")).isTrue();
+    assertThat(MATCHER.matches("GET", "/custom")).isFalse();
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.extensions.example;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.gson.stream.JsonReader;
+import java.io.IOException;
+import java.io.StringReader;
+import org.junit.jupiter.api.Test;
+
+public class SheetValuesTest {
+
+  private static JsonReader reader(String json) {
+    return new JsonReader(new StringReader(json));
+  }
+
+  @Test
+  public void testReadsRowsIntoBuilder() throws IOException {
+    String json =
+        "{\"range\": \"Sheet1!A2:C1000\", \"majorDimension\": \"ROWS\", \"values\": ["
+            + "[\"key-1\", \"/status\", \"GET\"],"
+            + "[\"key-1\", \"/v1/items/*\", \"GET, POST\"],"
+            + "[\"key-2\"]]}";
+    KeySnapshot.Builder builder = new KeySnapshot.Builder();
+    assertThat(SheetValues.readValueRange(reader(json), builder)).isEqualTo(3);
+    KeySnapshot snapshot = builder.build("now");
+    assertThat(snapshot.keyCount()).isEqualTo(2);
+    assertThat(snapshot.rowCount()).isEqualTo(3);
+    assertThat(snapshot.grantsFor("key-1").allows("POST", "/v1/items/7")).isTrue();
+    assertThat(snapshot.grantsFor("key-2").grants()).isEmpty();
+  }
+
+  private static HashCode hashOf(String json) throws IOException {
+    Hasher hasher = Hashing.sha256().newHasher();
+    SheetValues.readValueRange(reader(json), new KeySnapshot.Builder(), hasher);
+    return hasher.hash();
+  }
+
+  @Test
+  public void testHashesValues() throws IOException {
+    String json = "{\"values\": [[\"key-1\", \"/a\", \"GET\"], [\"key-2\"]]}";
+    assertThat(hashOf("{\"range\": \"Keys!A2:C3\", " + json.substring(1)))
+        .isEqualTo(hashOf(json));
+    assertThat(hashOf("{\"values\": [[\"key-1\", \"/a\", \"GET\"], [\"key-3\"]]}"))
+        .isNotEqualTo(hashOf(json));
+    // Cell boundaries count, not just the characters.
+    assertThat(hashOf("{\"values\": [[\"key-1\", \"/aGET\"], [\"key-2\"]]}"))
+        .isNotEqualTo(hashOf(json));
+  }
+
+  @Test
+  public void testEmptyRangeHasNoValues() throws IOException {
+    KeySnapshot.Builder builder = new KeySnapshot.Builder();
+    assertThat(SheetValues.readValueRange(reader("{\"range\": \"Sheet1!A2:C\"}"), builder))
+        .isEqualTo(0);
+    assertThat(builder.build("now").keyCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testReadsNonStringCells() throws IOException {
+    KeySnapshot.Builder builder = new KeySnapshot.Builder();
+    SheetValues.readValueRange(reader("{\"values\": [[12345, \"/\", \"GET\"], [true]]}"), builder);
+    KeySnapshot snapshot = builder.build("now");
+    assertThat(snapshot.grantsFor("12345").allows("GET", "/")).isTrue();
+    assertThat(snapshot.grantsFor("true")).isNotNull();
+  }
+
+  @Test
+  public void testReadsRowCountOfNamedSheet() throws IOException {
+    String json =
+        "{\"sheets\": ["
+            + "{\"properties\": {\"title\": \"Notes\", \"gridProperties\": {\"rowCount\": 50}}},"
+            + "{\"properties\": {\"gridProperties\": {\"rowCount\": 250000, \"columnCount\": 3},"
+            + " \"title\": \"Keys\"}}]}";
+    assertThat(SheetValues.readRowCount(reader(json), "Keys")).isEqualTo(250000);
+    assertThat(SheetValues.readRowCount(reader(json), "Other")).isEqualTo(-1);
+  }
+
+  @Test
+  public void testRejectsOtherResponses() {
+    assertThrows(
+        IllegalStateException.class,
+        () -> SheetValues.readValueRange(reader("[1, 2]"), new KeySnapshot.Builder()));
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.example;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class SheetsKeySourceTest {
+
+  @Test
+  public void testChunkRanges() {
+    assertThat(SheetsKeySource.chunkRanges("Keys", 2, 102, 1000))
+        .containsExactly("Keys!A2:D102");
+    assertThat(SheetsKeySource.chunkRanges("Keys", 2, 25001, 10000))
+        .containsExactly("Keys!A2:D10001", "Keys!A10002:D20001", "Keys!A20002:D25001")
+        .inOrder();
+    assertThat(SheetsKeySource.chunkRanges("Keys", 2, 10001, 10000))
+        .containsExactly("Keys!A2:D10001");
+    assertThat(SheetsKeySource.chunkRanges("Keys", 2, 1, 10000)).isEmpty();
+  }
+
+  @Test
+  public void testHeaderOnlySheetHasNoChunks() {
+    // A sheet of one row, its header, has no rows to fetch.
+    assertThat(SheetsKeySource.chunkRanges("Keys", 2, 1, 10000)).isEmpty();
+    HashCode empty = SheetsKeySource.contentHash(List.of());
+    assertThat(SheetsKeySource.contentHash(List.of())).isEqualTo(empty);
+
+    HashCode a = Hashing.sha256().hashString("a", StandardCharsets.UTF_8);
+    HashCode b = Hashing.sha256().hashString("b", StandardCharsets.UTF_8);
+    assertThat(SheetsKeySource.contentHash(List.of(a))).isEqualTo(a);
+    assertThat(SheetsKeySource.contentHash(List.of(a))).isNotEqualTo(empty);
+    assertThat(SheetsKeySource.contentHash(List.of(a, b)))
+        .isNotEqualTo(SheetsKeySource.contentHash(List.of(b, a)));
+  }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2025 Google, LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.extensions.service;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import com.google.extensions.service.ServiceCallout.ExecutorMode;
+import io.envoyproxy.envoy.service.ext_proc.v3.ExternalProcessorGrpc;
+import io.envoyproxy.envoy.service.ext_proc.v3.HttpHeaders;
+import io.envoyproxy.envoy.service.ext_proc.v3.ProcessingRequest;
+import io.envoyproxy.envoy.service.ext_proc.v3.ProcessingResponse;
+import io.grpc.ManagedChannel;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.stub.StreamObserver;
+import io.netty.channel.epoll.Epoll;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+public class ServiceCalloutTest {
+
+  private static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+
+  /** A callout on free ports, that binds no health check port of its own. */
+  private static ServiceCallout.Builder<?> builder() throws IOException {
+    return new ServiceCallout.Builder<>()
+        .setCombinedHealthCheck(true)
+        .setPort(freePort())
+        .setPlaintextPort(freePort());
+  }
+
+  /** A callout that records the threads its handler runs on, and may take a while to return. */
+  private static class RecordingCallout extends ServiceCallout {
+    // Read by isNonBlocking(), so only set once the base class has been constructed.
+    private final boolean nonBlocking;
+    private final long handlerMillis;
+    final List<Thread> handlerThreads = new CopyOnWriteArrayList<>();
+
+    RecordingCallout(ServiceCallout.Builder<?> builder, boolean nonBlocking, long handlerMillis) {
+      super(builder);
+      this.nonBlocking = nonBlocking;
+      this.handlerMillis = handlerMillis;
+    }
+
+    @Override
+    protected boolean isNonBlocking() {
+      return nonBlocking;
+    }
+
+    @Override
+    public void onRequestHeaders(ProcessingResponse.Builder response, HttpHeaders headers) {
+      handlerThreads.add(Thread.currentThread());
+      try {
+        Thread.sleep(handlerMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /** Starts the callout in process only, sends it one request and returns once it has answered. */
+  private static void startAndProcess(RecordingCallout callout, String name) throws Exception {
+    callout.start();
+    ManagedChannel channel = InProcessChannelBuilder.forName(name).build();
+    try {
+      CompletableFuture<ProcessingResponse> response = new CompletableFuture<>();
+      StreamObserver<ProcessingRequest> requests =
+          ExternalProcessorGrpc.newStub(channel)
+              .process(
+                  new StreamObserver<>() {
+                    @Override
+                    public void onNext(ProcessingResponse value) {
+                      response.complete(value);
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                      response.completeExceptionally(t);
+                    }
+
+                    @Override
+                    public void onCompleted() {}
+                  });
+      HttpHeaders headers = HttpHeaders.getDefaultInstance();
+      requests.onNext(ProcessingRequest.newBuilder().setRequestHeaders(headers).build());
+      response.get(10, TimeUnit.SECONDS);
+      requests.onCompleted();
+    } finally {
+      channel.shutdownNow();
+    }
+  }
+
+  private static ServiceCallout.Builder<?> inProcessBuilder(String name) throws IOException {
+    return builder().setEnablePlainTextPort(false).setInProcessName(name);
+  }
+
+  private static Set<String> threadNames(String prefix) {
+    return Thread.getAllStackTraces().keySet().stream()
+        .map(Thread::getName)
+        .filter(name -> name.startsWith(prefix))
+        .collect(Collectors.toSet());
+  }
+
+  @Test
+  public void testReusePortListenersEachGetABossThread() throws Exception {
+    assumeTrue(Epoll.isAvailable());
+    Set<String> before = threadNames("callout-boss-");
+    ServiceCallout callout = builder().setUseEpoll(true).setReusePortListeners(2).build();
+    callout.start();
+    try {
+      Set<String> started = threadNames("callout-boss-");
+      started.removeAll(before);
+      assertThat(started).hasSize(2);
+    } finally {
+      callout.stop();
+    }
+  }
+
+  @Test
+  public void testBossThreadsCanBeSet() throws Exception {
+    Set<String> before = threadNames("callout-boss-");
+    ServiceCallout callout =
+        builder().setBossEventLoopThreads(1).setWorkerEventLoopThreads(1).build();
+    callout.start();
+    try {
+      Set<String> started = threadNames("callout-boss-");
+      started.removeAll(before);
+      assertThat(started).hasSize(1);
+    } finally {
+      callout.stop();
+    }
+  }
+
+  @Test
+  public void testVirtualModeRunsHandlersOnVirtualThreads() throws Exception {
+    RecordingCallout callout =
+        new RecordingCallout(
+            inProcessBuilder("virtual").setExecutorMode(ExecutorMode.VIRTUAL), false, 0);
+    try {
+      startAndProcess(callout, "virtual");
+      assertThat(callout.handlerThreads).hasSize(1);
+      assertThat(callout.handlerThreads.get(0).isVirtual()).isTrue();
+    } finally {
+      callout.stop();
+    }
+  }
+
+  @Test
+  public void testDirectModeFallsBackForBlockingCallouts() throws Exception {
+    RecordingCallout callout =
+        new RecordingCallout(
+            inProcessBuilder("blocking").setExecutorMode(ExecutorMode.DIRECT), false, 0);
+    try {
+      startAndProcess(callout, "blocking");
+      assertThat(callout.executorMode()).isEqualTo(ExecutorMode.FIXED);
+      assertThat(callout.handlerThreads).hasSize(1);
+    } finally {
+      callout.stop();
+    }
+  }
+
+  @Test
+  public void testDirectModeWatchesForBlockingHandlers() throws Exception {
+    Logger watchdogLogger = Logger.getLogger(BlockingWatchdog.class.getName());
+    List<String> warnings = new CopyOnWriteArrayList<>();
+    Handler capture =
+        new Handler() {
+          @Override
+          public void publish(LogRecord record) {
+            warnings.add(record.getMessage());
+          }
+
+          @Override
+          public void flush() {}
+
+          @Override
+          public void close() {}
+        };
+    watchdogLogger.addHandler(capture);
+    RecordingCallout callout =
+        new RecordingCallout(
+            inProcessBuilder("direct")
+                .setExecutorMode(ExecutorMode.DIRECT)
+                .setBlockingThresholdMillis(20L),
+            true,
+            200);
+    try {
+      startAndProcess(callout, "direct");
+      // Decided in start(), when the subclass can already answer isNonBlocking().
+      assertThat(callout.executorMode()).isEqualTo(ExecutorMode.DIRECT);
+      assertThat(callout.handlerThreads).hasSize(1);
+      assertThat(callout.handlerThreads.get(0).isVirtual()).isFalse();
+      assertThat(warnings.stream().anyMatch(w -> w.contains("has been running"))).isTrue();
+      assertThat(warnings.stream().anyMatch(w -> w.contains("blocked for"))).isTrue();
+    } finally {
+      watchdogLogger.removeHandler(capture);
+      callout.stop();
+    }
+  }
+
+  @Test
+  public void testHealthCheckAnswers503UntilReady() throws Exception {
+    AtomicBoolean ready = new AtomicBoolean();
+    int healthCheckPort = freePort();
+    ServiceCallout callout =
+        new ServiceCallout(
+            builder()
+                .setCombinedHealthCheck(false)
+                .setHealthCheckIp("localhost")
+                .setHealthCheckPort(healthCheckPort)) {
+          @Override
+          protected boolean isReady() {
+            return ready.get();
+          }
+        };
+    callout.start();
+    try {
+      HttpClient client = HttpClient.newHttpClient();
+      HttpRequest request =
+          HttpRequest.newBuilder(URI.create("http://localhost:" + healthCheckPort + "/")).build();
+      assertThat(client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode())
+          .isEqualTo(503);
+      ready.set(true);
+      assertThat(client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode())
+          .isEqualTo(200);
+    } finally {
+      callout.stop();
+    }
+  }
+}
@@ -0,0 +1,117 @@
+package utils;
+
+/*
+ * Copyright 2025 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import org.junit.jupiter.api.Test;
+
+public class AsyncLogHandlerTest {
+
+  /** Collects the messages it is given, once released. */
+  private static final class Target extends Handler {
+    final List<String> messages = new CopyOnWriteArrayList<>();
+    final CountDownLatch release = new CountDownLatch(1);
+
+    @Override
+    public void publish(LogRecord record) {
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      messages.add(record.getMessage());
+    }
+
+    @Override
+    public void flush() {}
+
+    @Override
+    public void close() {}
+  }
+
+  private static void awaitMessages(Target target, int count) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (target.messages.size() < count && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  public void testDeliversInOrder() throws Exception {
+    Target target = new Target();
+    target.release.countDown();
+    AsyncLogHandler handler = new AsyncLogHandler(16, target, Level.INFO);
+    for (int i = 0; i < 100; i++) {
+      handler.publish(new LogRecord(Level.INFO, "m" + i));
+      if (i % 10 == 0) {
+        // Let the drainer catch up, and park, now and then.
+        Thread.sleep(5);
+      }
+    }
+    handler.publish(new LogRecord(Level.FINE, "below the level"));
+    awaitMessages(target, 100);
+    handler.close();
+    assertThat(target.messages).hasSize(100);
+    assertThat(target.messages.get(0)).isEqualTo("m0");
+    assertThat(target.messages.get(99)).isEqualTo("m99");
+  }
+
+  @Test
+  public void testDropsWhenFullAndReportsIt() throws Exception {
+    Target target = new Target();
+    AsyncLogHandler handler = new AsyncLogHandler(4, target, Level.INFO);
+    // The drainer takes the first record and blocks on it; four more fill the ring.
+    for (int i = 0; i < 10; i++) {
+      handler.publish(new LogRecord(Level.INFO, "m" + i));
+      Thread.sleep(i == 0 ? 100 : 0);
+    }
+    target.release.countDown();
+    awaitMessages(target, 5);
+    // The drops are reported ahead of the next record.
+    handler.publish(new LogRecord(Level.INFO, "after"));
+    awaitMessages(target, 7);
+    handler.close();
+    assertThat(target.messages)
+        .containsExactly("m0", "m1", "m2", "m3", "m4", "5 log records were dropped", "after")
+        .inOrder();
+  }
+
+  @Test
+  public void testRingRejectsWhenFull() {
+    AsyncLogHandler.Ring ring = new AsyncLogHandler.Ring(3);
+    assertThat(ring.isEmpty()).isTrue();
+    for (int i = 0; i < 4; i++) {
+      assertThat(ring.offer(new LogRecord(Level.INFO, "r" + i))).isTrue();
+    }
+    assertThat(ring.offer(new LogRecord(Level.INFO, "full"))).isFalse();
+    assertThat(ring.poll().getMessage()).isEqualTo("r0");
+    assertThat(ring.offer(new LogRecord(Level.INFO, "r4"))).isTrue();
+    for (int i = 1; i <= 4; i++) {
+      assertThat(ring.poll().getMessage()).isEqualTo("r" + i);
+    }
+    assertThat(ring.poll()).isNull();
+    assertThat(ring.isEmpty()).isTrue();
+  }
+}
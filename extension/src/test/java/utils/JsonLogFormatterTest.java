@@ -0,0 +1,95 @@
+package utils;
+
+/*
+ * Copyright 2025 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import org.junit.jupiter.api.Test;
+
+public class JsonLogFormatterTest {
+  private final JsonLogFormatter formatter = new JsonLogFormatter();
+
+  @Test
+  public void testEscapesMessage() {
+    LogRecord record = new LogRecord(Level.WARNING, "say \"hi\"\\\n\tnow\u0001");
+    record.setLoggerName("test");
+    String json = formatter.format(record);
+    assertThat(json).startsWith("{\"severity\":\"WARNING\",\"time\":\"");
+    assertThat(json)
+        .endsWith(",\"logger\":\"test\",\"message\":\"say \\\"hi\\\"\\\\\\n\\tnow\\u0001\"}\n");
+  }
+
+  @Test
+  public void testMapsSeverities() {
+    assertThat(formatter.format(new LogRecord(Level.SEVERE, "m"))).contains("\"ERROR\"");
+    assertThat(formatter.format(new LogRecord(Level.INFO, "m"))).contains("\"INFO\"");
+    assertThat(formatter.format(new LogRecord(Level.FINE, "m"))).contains("\"DEBUG\"");
+  }
+
+  @Test
+  public void testFormatsParametersOfPlainRecords() {
+    LogRecord record = new LogRecord(Level.INFO, "{0} keys");
+    record.setParameters(new Object[] {42});
+    assertThat(formatter.format(record)).contains("\"message\":\"42 keys\"");
+  }
+
+  @Test
+  public void testEmitsStructuredFields() {
+    Logger logger = Logger.getLogger(JsonLogFormatterTest.class.getName());
+    logger.setUseParentHandlers(false);
+    List<String> lines = new ArrayList<>();
+    Handler handler =
+        new Handler() {
+          @Override
+          public void publish(LogRecord record) {
+            lines.add(formatter.format(record));
+          }
+
+          @Override
+          public void flush() {}
+
+          @Override
+          public void close() {}
+        };
+    logger.addHandler(handler);
+    try {
+      StructuredLogger.getLogger(logger.getName())
+          .sampled(Level.INFO, "key \"x\"", 1, () -> "{0} is not a parameter");
+    } finally {
+      logger.removeHandler(handler);
+    }
+    assertThat(lines).hasSize(1);
+    assertThat(lines.get(0)).contains("\"message\":\"{0} is not a parameter\"");
+    assertThat(lines.get(0)).contains("\"event\":\"key \\\"x\\\"\"");
+    assertThat(lines.get(0)).contains("\"sampleRate\":1");
+    assertThat(lines.get(0)).contains("\"occurrences\":1");
+  }
+
+  @Test
+  public void testAppendsStackTrace() {
+    LogRecord record = new LogRecord(Level.SEVERE, "failed");
+    record.setThrown(new IllegalStateException("boom"));
+    assertThat(formatter.format(record))
+        .contains("\"message\":\"failed\\njava.lang.IllegalStateException: boom\\n");
+  }
+}
@@ -0,0 +1,115 @@
+package utils;
+
+/*
+ * Copyright 2025 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class PersistentHashMapTest {
+
+  /** A key with a chosen hash code, to force collisions. */
+  private record Key(int hash, String name) {
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  private static <K, V> Map<K, V> toMap(PersistentHashMap<K, V> map) {
+    Map<K, V> copy = new HashMap<>();
+    map.forEach(copy::put);
+    return copy;
+  }
+
+  @Test
+  public void testMatchesHashMap() {
+    Random random = new Random(42);
+    Map<Key, Integer> expected = new HashMap<>();
+    PersistentHashMap<Key, Integer> map = PersistentHashMap.empty();
+    for (int i = 0; i < 20_000; i++) {
+      // Few distinct hashes, so that there are collisions at every level.
+      Key key = new Key(random.nextInt(2000) * 0x9E3779B1, "k" + random.nextInt(4000));
+      if (random.nextInt(3) == 0) {
+        expected.remove(key);
+        map = map.without(key);
+      } else {
+        expected.put(key, i);
+        map = map.with(key, i);
+      }
+      assertThat(map.size()).isEqualTo(expected.size());
+    }
+    assertThat(toMap(map)).isEqualTo(expected);
+    for (Key key : expected.keySet()) {
+      assertThat(map.get(key)).isEqualTo(expected.get(key));
+    }
+    assertThat(map.get(new Key(7, "absent"))).isNull();
+  }
+
+  @Test
+  public void testBuilderMatchesHashMap() {
+    Random random = new Random(7);
+    Map<String, Integer> expected = new HashMap<>();
+    PersistentHashMap.Builder<String, Integer> builder = PersistentHashMap.builder();
+    for (int i = 0; i < 50_000; i++) {
+      String key = "key-" + random.nextInt(30_000);
+      if (random.nextInt(4) == 0) {
+        expected.remove(key);
+        builder.remove(key);
+      } else {
+        expected.put(key, i);
+        builder.put(key, i);
+      }
+    }
+    PersistentHashMap<String, Integer> map = builder.build();
+    assertThat(map.size()).isEqualTo(expected.size());
+    assertThat(toMap(map)).isEqualTo(expected);
+    assertThrows(IllegalStateException.class, () -> builder.put("late", 1));
+  }
+
+  @Test
+  public void testChangesLeaveOriginalIntact() {
+    PersistentHashMap.Builder<String, Integer> builder = PersistentHashMap.builder();
+    for (int i = 0; i < 1000; i++) {
+      builder.put("key-" + i, i);
+    }
+    PersistentHashMap<String, Integer> original = builder.build();
+    Map<String, Integer> before = toMap(original);
+
+    PersistentHashMap<String, Integer> changed =
+        original.toBuilder().put("key-1", -1).remove("key-2").put("key-new", 5).build();
+    assertThat(toMap(original)).isEqualTo(before);
+    assertThat(changed.get("key-1")).isEqualTo(-1);
+    assertThat(changed.containsKey("key-2")).isFalse();
+    assertThat(changed.get("key-new")).isEqualTo(5);
+    assertThat(changed.size()).isEqualTo(1000);
+  }
+
+  @Test
+  public void testUnchangedMapIsReturned() {
+    Integer value = 1;
+    PersistentHashMap<String, Integer> map =
+        PersistentHashMap.<String, Integer>empty().with("a", value);
+    assertThat(map.with("a", value)).isSameInstanceAs(map);
+    assertThat(map.without("b")).isSameInstanceAs(map);
+    assertThat(map.without("a").isEmpty()).isTrue();
+  }
+}
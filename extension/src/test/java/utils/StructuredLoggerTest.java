@@ -0,0 +1,106 @@
+package utils;
+
+/*
+ * Copyright 2025 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.Range;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class StructuredLoggerTest {
+  private static final String NAME = StructuredLoggerTest.class.getName();
+
+  private final Logger logger = Logger.getLogger(NAME);
+  private final List<LogRecord> logged = new CopyOnWriteArrayList<>();
+  private final Handler capture =
+      new Handler() {
+        @Override
+        public void publish(LogRecord record) {
+          logged.add(record);
+        }
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public void close() {}
+      };
+
+  @BeforeEach
+  public void setUp() {
+    logger.setUseParentHandlers(false);
+    logger.setLevel(Level.INFO);
+    logger.addHandler(capture);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    logger.removeHandler(capture);
+  }
+
+  @Test
+  public void testBuildsMessagesOnlyWhenEnabled() {
+    StructuredLogger log = StructuredLogger.getLogger(NAME);
+    AtomicInteger built = new AtomicInteger();
+    log.fine("quiet", () -> "fine " + built.incrementAndGet());
+    log.sampled(Level.FINE, "quiet", 1, () -> "fine " + built.incrementAndGet());
+    assertThat(built.get()).isEqualTo(0);
+    assertThat(logged).isEmpty();
+
+    log.info("loud", () -> "info " + built.incrementAndGet());
+    assertThat(built.get()).isEqualTo(1);
+    assertThat(logged).hasSize(1);
+    assertThat(logged.get(0).getMessage()).isEqualTo("info 1");
+    assertThat(StructuredLogger.fieldsOf(logged.get(0))).containsExactly("event", "loud");
+  }
+
+  @Test
+  public void testSamplesAboutOneInN() {
+    StructuredLogger log = StructuredLogger.getLogger(NAME);
+    AtomicInteger built = new AtomicInteger();
+    for (int i = 0; i < 10_000; i++) {
+      log.sampled(Level.INFO, "sampled", 10, () -> "occurrence " + built.incrementAndGet());
+    }
+    // The first occurrence is always logged.
+    assertThat(StructuredLogger.fieldsOf(logged.get(0)))
+        .containsExactly("event", "sampled", "sampleRate", 10, "occurrences", 1L);
+    assertThat(logged.size()).isIn(Range.closed(700, 1300));
+    assertThat(built.get()).isEqualTo(logged.size());
+    long lastOccurrence =
+        (Long) StructuredLogger.fieldsOf(logged.get(logged.size() - 1)).get("occurrences");
+    assertThat(lastOccurrence).isAtMost(10_000L);
+  }
+
+  @Test
+  public void testSampleRateOneLogsAll() {
+    StructuredLogger log = StructuredLogger.getLogger(NAME);
+    for (int i = 0; i < 5; i++) {
+      log.sampled(Level.INFO, "every", 1, () -> "every time");
+    }
+    assertThat(logged).hasSize(5);
+    assertThat(StructuredLogger.fieldsOf(logged.get(4))).containsEntry("occurrences", 5L);
+  }
+}